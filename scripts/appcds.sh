@@ -0,0 +1,54 @@
+#!/bin/sh
+# Creates an application class data sharing (AppCDS) archive for Jotto and
+# compares the time to the first guess of fresh JVMs without class sharing,
+# with the JDK's default archive, and with the Jotto archive.
+#
+# usage: scripts/appcds.sh classpath [archive] [runs]
+#
+# The classpath must hold the compiled classes and jotto/resources, including
+# the prebuilt words.jtf. Class sharing only works with jars, so a directory
+# is first packed into a jar next to the archive, which is then used instead.
+# Needs JDK 13 or later for -XX:ArchiveClassesAtExit. The archive is only
+# valid for the JVM and classpath it was created with. Start the game with it
+# using
+#
+#   java -XX:SharedArchiveFile=jotto.jsa -cp jotto.jar jotto.gui.Jotto
+
+if [ $# -lt 1 ]; then
+  echo "usage: $0 classpath [archive] [runs]" >&2
+  exit 1
+fi
+CP=$1
+ARCHIVE=${2:-jotto.jsa}
+RUNS=${3:-5}
+JAVA=${JAVA_HOME:+$JAVA_HOME/bin/}java
+JAR=${JAVA_HOME:+$JAVA_HOME/bin/}jar
+
+if [ -d "$CP" ]; then
+  "$JAR" cf "${ARCHIVE%.jsa}.jar" -C "$CP" . || exit 1
+  CP=${ARCHIVE%.jsa}.jar
+  echo "classpath: $CP"
+fi
+
+# trace a run that loads the tree and, with a display, creates the window
+GUI=
+if [ -n "$DISPLAY" ]; then
+  GUI=-gui
+fi
+"$JAVA" -XX:ArchiveClassesAtExit="$ARCHIVE" -cp "$CP" \
+  jotto.tools.StartupProbe $GUI 0 > /dev/null || exit 1
+
+probe() {
+  label=$1
+  shift
+  i=0
+  while [ $i -lt "$RUNS" ]; do
+    "$JAVA" "$@" -cp "$CP" jotto.tools.StartupProbe 0 |
+      sed -n "s/^time to first guess: /$label: /p"
+    i=$((i + 1))
+  done
+}
+
+probe "no sharing   " -Xshare:off
+probe "jdk archive  " -Xshare:auto
+probe "jotto archive" -XX:SharedArchiveFile="$ARCHIVE"
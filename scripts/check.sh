@@ -0,0 +1,22 @@
+#!/bin/sh
+# Compile the sources and the checks under test/, then run every check.
+#
+# Usage: scripts/check.sh
+#
+# Each check is a class with a main method that exits with status 1 on
+# failure. The classpath includes the resources, so the bundled tree is
+# available.
+
+set -e
+cd "$(dirname "$0")/.."
+out=$(mktemp -d)
+trap 'rm -rf "$out"' EXIT
+
+javac -Xlint:-options --release 7 -d "$out" \
+  $(find src test -name '*.java')
+cp -R src/jotto/resources "$out/jotto/"
+
+for f in $(find test -name '*Test.java' | sort); do
+  class=$(echo "${f#test/}" | sed 's/\.java$//; s|/|.|g')
+  java -cp "$out" "$class"
+done
@@ -0,0 +1,169 @@
+package jotto.bench;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.List;
+import java.util.zip.DataFormatException;
+
+import jotto.engine.ExhaustiveStrategy;
+import jotto.engine.GuessStrategy;
+import jotto.engine.JottoCore;
+import jotto.engine.StrategySpec;
+
+/**
+ * Builds a query tree for each guess strategy and plays every word of the
+ * dictionary as the secret, reporting build time and guess counts so that the
+ * speed/quality tradeoff of the cheaper strategies is visible.
+ * <p>
+ * Usage: BatchEvaluator [-audit] wordlist [strategy ...]
+ * <p>
+ * Strategies are described as for {@link StrategySpec}. With -audit, every
+ * approximate guess is also compared against the exhaustive guess. Build times
+ * are then dominated by the audit.
+ * 
+ * @author Zhe Lu
+ * 
+ */
+public class BatchEvaluator {
+
+  private final List<String> secrets_;
+
+
+  /**
+   * Constructor.
+   * 
+   * @param secrets
+   *          words to play as the secret
+   */
+  public BatchEvaluator(List<String> secrets) {
+    secrets_ = secrets;
+  }
+
+
+  /**
+   * Build a tree with the strategy and play every secret against it.
+   * 
+   * @param file
+   *          list of words
+   * @param strategy
+   *          strategy to evaluate
+   * @return the result of the evaluation
+   * @throws FileNotFoundException
+   *           when the word list is not found
+   * @throws DataFormatException
+   *           when the word list contains no usable words
+   */
+  public Result evaluate(File file, GuessStrategy strategy)
+      throws FileNotFoundException, DataFormatException {
+    long startTime = System.nanoTime();
+    JottoCore core = new JottoCore(file, strategy);
+    Result r = new Result();
+    r.buildMillis_ = (System.nanoTime() - startTime) / 1000000;
+    for (String secret : secrets_) {
+      int guesses = core.play(secret);
+      if (guesses < 0) {
+        r.unsolved_++;
+        continue;
+      }
+      r.solved_++;
+      r.totalGuesses_ += guesses;
+      r.maxGuesses_ = Math.max(r.maxGuesses_, guesses);
+    }
+    return r;
+  }
+
+
+  /**
+   * Result of evaluating a strategy.
+   */
+  public static class Result {
+    private long buildMillis_;
+    private int solved_;
+    private int unsolved_;
+    private long totalGuesses_;
+    private int maxGuesses_;
+
+
+    /**
+     * @return milliseconds spent building the tree
+     */
+    public long getBuildMillis() {
+      return buildMillis_;
+    }
+
+
+    /**
+     * @return number of secrets found
+     */
+    public int getSolved() {
+      return solved_;
+    }
+
+
+    /**
+     * @return number of secrets not found
+     */
+    public int getUnsolved() {
+      return unsolved_;
+    }
+
+
+    /**
+     * @return mean number of guesses over the solved secrets
+     */
+    public double getAverageGuesses() {
+      return solved_ == 0 ? 0 : (double) totalGuesses_ / solved_;
+    }
+
+
+    /**
+     * @return largest number of guesses needed for a secret
+     */
+    public int getMaxGuesses() {
+      return maxGuesses_;
+    }
+
+
+    @Override
+    public String toString() {
+      return String.format("build %6d ms, avg %.4f guesses, max %d, "
+          + "unsolved %d", buildMillis_, getAverageGuesses(), maxGuesses_,
+          unsolved_);
+    }
+  }
+
+
+  /**
+   * @param args
+   *          optional -audit, word list, then strategies to evaluate
+   * @throws FileNotFoundException
+   * @throws DataFormatException
+   */
+  public static void main(String[] args) throws FileNotFoundException,
+      DataFormatException {
+    int arg = 0;
+    boolean audit = false;
+    if (args.length > 0 && args[0].equals("-audit")) {
+      audit = true;
+      arg++;
+    }
+    if (args.length <= arg) {
+      System.err
+          .println("usage: BatchEvaluator [-audit] wordlist [strategy ...]");
+      System.exit(1);
+    }
+    File file = new File(args[arg++]);
+    BatchEvaluator evaluator = new BatchEvaluator(JottoCore.readWords(file));
+    Result exact = evaluator.evaluate(file, new ExhaustiveStrategy());
+    System.out.println("exhaustive:  " + exact);
+    for (int i = arg; i < args.length; i++) {
+      GuessStrategy strategy = StrategySpec.parse(args[i],
+          evaluator.secrets_.size(), audit);
+      Result r = evaluator.evaluate(file, strategy);
+      System.out.println(args[i] + ": " + r);
+      System.out.println(String.format("  %+.4f avg guesses vs exhaustive",
+          r.getAverageGuesses() - exact.getAverageGuesses()));
+      System.out.println("  " + strategy);
+    }
+  }
+}
@@ -0,0 +1,86 @@
+package jotto.bench;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+
+import jotto.engine.BatchSolver;
+import jotto.engine.GameState;
+import jotto.engine.JottoCore;
+
+/**
+ * Compares solving many in-flight games one at a time against solving them as
+ * a batch with {@link BatchSolver}. The games open with a few popular words in
+ * random order, so many of them share a candidate set without sharing a
+ * history or a position in the query tree.
+ * <p>
+ * Usage: BatchSolverBenchmark wordlist [games [openers]]
+ * 
+ * @author Zhe Lu
+ * 
+ */
+public class BatchSolverBenchmark {
+
+  /**
+   * @param args
+   *          word list, number of games and number of opening words
+   * @throws FileNotFoundException
+   * @throws DataFormatException
+   */
+  public static void main(String[] args) throws FileNotFoundException,
+      DataFormatException {
+    if (args.length < 1) {
+      System.err.println("usage: BatchSolverBenchmark wordlist [games "
+          + "[openers]]");
+      System.exit(1);
+    }
+    File file = new File(args[0]);
+    List<String> words = JottoCore.readWords(file);
+    int numGames = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+    int numOpeners = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+    JottoCore core = new JottoCore(file);
+    BatchSolver solver = new BatchSolver(core);
+
+    Random rand = new Random(0);
+    List<String> openers = new ArrayList<String>();
+    for (int i = 0; i < numOpeners; i++) {
+      openers.add(words.get(rand.nextInt(words.size())));
+    }
+    List<GameState> games = new ArrayList<GameState>(numGames);
+    for (int i = 0; i < numGames; i++) {
+      String secret = words.get(rand.nextInt(words.size()));
+      GameState game = new GameState();
+      for (int j = 0; j < 2; j++) {
+        String guess = openers.get(rand.nextInt(openers.size()));
+        game = game.next(guess,
+            JottoCore.matchingLetters(guess, secret));
+      }
+      games.add(game);
+    }
+
+    long start = System.nanoTime();
+    int found = 0;
+    for (GameState game : games) {
+      if (solver.solve(game).getGuess() != null) {
+        found++;
+      }
+    }
+    long single = System.nanoTime() - start;
+
+    start = System.nanoTime();
+    int batchFound = 0;
+    for (BatchSolver.Result r : solver.solve(games)) {
+      if (r.getGuess() != null) {
+        batchFound++;
+      }
+    }
+    long batch = System.nanoTime() - start;
+
+    System.out.println(String.format("%d games: one at a time %d ms (%d "
+        + "guesses), batch %d ms (%d guesses)", numGames, single / 1000000,
+        found, batch / 1000000, batchFound));
+  }
+}
@@ -0,0 +1,119 @@
+package jotto.bench;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import jotto.engine.ConsistencyIndex;
+import jotto.engine.JottoCore;
+
+/**
+ * Compares finding the words consistent with a response history using a naive
+ * scan of the dictionary against the {@link ConsistencyIndex}, both rebuilt
+ * from the full history and updated incrementally one response at a time.
+ * <p>
+ * Usage: ConsistencyBenchmark wordlist [histories]
+ * 
+ * @author Zhe Lu
+ * 
+ */
+public class ConsistencyBenchmark {
+
+  /**
+   * @param args
+   *          word list and number of random histories per length
+   * @throws FileNotFoundException
+   */
+  public static void main(String[] args) throws FileNotFoundException {
+    if (args.length < 1) {
+      System.err.println("usage: ConsistencyBenchmark wordlist [histories]");
+      System.exit(1);
+    }
+    List<String> words = JottoCore.readWords(new File(args[0]));
+    int histories = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+    List<String> keys = new ArrayList<String>();
+    for (String w : words) {
+      char[] chars = w.toCharArray();
+      Arrays.sort(chars);
+      keys.add(new String(chars));
+    }
+    ConsistencyIndex index = new ConsistencyIndex(keys);
+    Random rand = new Random(0);
+
+    System.out.println("history  naive ns  index ns  incremental ns  "
+        + "consistent");
+    for (int length = 1; length <= 8; length++) {
+      List<List<String>> guesses = new ArrayList<List<String>>();
+      List<int[]> matches = new ArrayList<int[]>();
+      for (int h = 0; h < histories; h++) {
+        String secret = words.get(rand.nextInt(words.size()));
+        List<String> g = new ArrayList<String>();
+        int[] m = new int[length];
+        for (int i = 0; i < length; i++) {
+          g.add(words.get(rand.nextInt(words.size())));
+          m[i] = JottoCore.matchingLetters(g.get(i), secret);
+        }
+        guesses.add(g);
+        matches.add(m);
+      }
+
+      // warm up
+      for (int h = 0; h < histories; h++) {
+        naive(words, guesses.get(h), matches.get(h));
+        index.consistent(guesses.get(h), matches.get(h));
+      }
+
+      long start = System.nanoTime();
+      long total = 0;
+      for (int h = 0; h < histories; h++) {
+        total += naive(words, guesses.get(h), matches.get(h));
+      }
+      long naive = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      for (int h = 0; h < histories; h++) {
+        index.consistent(guesses.get(h), matches.get(h));
+      }
+      long indexed = System.nanoTime() - start;
+
+      // one filter per turn, on the set kept from the previous turn
+      long[][] sets = new long[histories][];
+      for (int h = 0; h < histories; h++) {
+        List<String> g = guesses.get(h);
+        sets[h] = index.consistent(g.subList(0, length - 1), matches.get(h));
+      }
+      start = System.nanoTime();
+      for (int h = 0; h < histories; h++) {
+        index.filter(sets[h], guesses.get(h).get(length - 1),
+            matches.get(h)[length - 1]);
+      }
+      long incremental = System.nanoTime() - start;
+
+      System.out.println(String.format("%7d  %8d  %8d  %14d  %10.1f",
+          length, naive / histories, indexed / histories, incremental
+              / histories, (double) total / histories));
+    }
+  }
+
+
+  /*
+   * Rescan the dictionary against the full history.
+   */
+  private static int naive(List<String> words, List<String> guesses,
+      int[] matches) {
+    int consistent = 0;
+    for (String w : words) {
+      boolean ok = true;
+      for (int i = 0; i < guesses.size() && ok; i++) {
+        ok = JottoCore.matchingLetters(guesses.get(i), w) == matches[i];
+      }
+      if (ok) {
+        consistent++;
+      }
+    }
+    return consistent;
+  }
+}
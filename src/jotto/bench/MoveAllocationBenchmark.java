@@ -0,0 +1,256 @@
+package jotto.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.zip.DataFormatException;
+
+import jotto.engine.Flow;
+import jotto.engine.GameEvent;
+import jotto.engine.GameSession;
+import jotto.engine.JottoCore;
+import jotto.engine.QueryTree;
+import jotto.engine.WordPool;
+
+/**
+ * Measures the bytes allocated per move of a game loop, playing every word of
+ * the tree as the secret. The string API (getGuess, linksAvailableArray,
+ * getAnagrams) is compared with the id API (getGuessId, getActiveLinkMask,
+ * getCandidates) and with a {@link GameSession} publishing to a subscriber.
+ * The id API and the responses to a session's guesses should allocate
+ * nothing once every path has been played; narrowing down to the anagrams
+ * and proposing them allocates per game. Each loop is run to warm up before
+ * it is measured.
+ * <p>
+ * Allocation is read from the thread's allocated bytes counter of HotSpot's
+ * ThreadMXBean, so a profiler is not needed.
+ * <p>
+ * Usage: MoveAllocationBenchmark [-lazy] [tree] [rounds]
+ * <p>
+ * Without a tree, the prebuilt tree of the bundled word list is used. With
+ * -lazy, the tree file is opened lazily.
+ *
+ * @author Zhe Lu
+ *
+ */
+public class MoveAllocationBenchmark {
+
+  private final JottoCore core_;
+  private final String[] secrets_;
+  private final int[] secretIds_;
+  private final GameSession session_;
+  private final com.sun.management.ThreadMXBean threads_ = (com.sun.management.ThreadMXBean) ManagementFactory
+      .getThreadMXBean();
+  private final long thread_ = Thread.currentThread().getId();
+  private long moves_;
+  // bytes allocated by GameSession.respond alone, when it leads to another
+  // guess rather than to the anagrams
+  private long respondBytes_;
+  private long responds_;
+
+
+  /**
+   * Constructor.
+   *
+   * @param core
+   *          engine to play against
+   * @param words
+   *          secrets to play, the words of the tree
+   */
+  public MoveAllocationBenchmark(JottoCore core, List<String> words) {
+    core_ = core;
+    secrets_ = words.toArray(new String[words.size()]);
+    secretIds_ = new int[secrets_.length];
+    for (int i = 0; i < secrets_.length; i++) {
+      secretIds_[i] = WordPool.getDefault().id(secrets_[i]);
+    }
+    session_ = new GameSession(core);
+    session_.subscribe(new Flow.Subscriber<GameEvent>() {
+      public void onSubscribe(Flow.Subscription subscription) {
+        subscription.request(Long.MAX_VALUE);
+      }
+
+      public void onNext(GameEvent event) {
+      }
+
+      public void onError(Throwable error) {
+        throw new IllegalStateException(error);
+      }
+
+      public void onComplete() {
+      }
+    });
+  }
+
+
+  /**
+   * Play every secret with the string API.
+   *
+   * @return number of guesses, so the work is not optimized away
+   */
+  public long playStrings() {
+    long guesses = 0;
+    for (String secret : secrets_) {
+      core_.restart();
+      String guess;
+      while ((guess = core_.getGuess()) != null) {
+        guesses++;
+        moves_++;
+        if (guess.equals(secret)) {
+          break;
+        }
+        int match = JottoCore.matchingLetters(guess, secret);
+        if (!core_.linksAvailableArray()[match]) {
+          break;
+        }
+        core_.numMatches(match);
+      }
+      if (guess == null) {
+        guesses += core_.getAnagrams().indexOf(secret) + 1;
+      }
+    }
+    return guesses;
+  }
+
+
+  /**
+   * Play every secret with the id API.
+   *
+   * @return number of guesses, so the work is not optimized away
+   */
+  public long playIds() {
+    long guesses = 0;
+    for (int s = 0; s < secrets_.length; s++) {
+      core_.restart();
+      int guess;
+      while ((guess = core_.getGuessId()) >= 0) {
+        guesses++;
+        moves_++;
+        if (guess == secretIds_[s]) {
+          break;
+        }
+        int match = JottoCore.matchingLetters(guess, secretIds_[s]);
+        if ((core_.getActiveLinkMask() & (1 << match)) == 0) {
+          break;
+        }
+        core_.numMatches(match);
+      }
+      if (guess < 0) {
+        guesses += core_.getCandidates().indexOf(secrets_[s]) + 1;
+      }
+    }
+    return guesses;
+  }
+
+
+  /**
+   * Play every secret through a game session, counting responses to guesses
+   * as moves.
+   *
+   * @return number of guesses, so the work is not optimized away
+   */
+  public long playSession() {
+    long guesses = 0;
+    for (int s = 0; s < secrets_.length; s++) {
+      session_.start();
+      GameEvent event = session_.getCurrent();
+      while (event.getType() == GameEvent.Type.GUESS
+          && event.getWordId() != secretIds_[s]) {
+        moves_++;
+        int match = JottoCore.matchingLetters(event.getWordId(),
+            secretIds_[s]);
+        long bytes = threads_.getThreadAllocatedBytes(thread_);
+        session_.respond(match);
+        bytes = threads_.getThreadAllocatedBytes(thread_) - bytes;
+        event = session_.getCurrent();
+        if (event.getType() == GameEvent.Type.GUESS) {
+          respondBytes_ += bytes;
+          responds_++;
+        }
+      }
+      while (event.getType() != GameEvent.Type.SOLVED
+          && event.getType() != GameEvent.Type.FAILED) {
+        if (event.getWordId() == secretIds_[s]) {
+          session_.confirm();
+        } else {
+          session_.reject();
+        }
+        event = session_.getCurrent();
+      }
+      guesses += event.getGuesses();
+    }
+    return guesses;
+  }
+
+
+  private long play(int api) {
+    return api == 0 ? playStrings() : api == 1 ? playIds() : playSession();
+  }
+
+
+  /**
+   * @param args
+   *          optional -lazy, tree file and number of rounds
+   * @throws IOException
+   *           if the tree cannot be read
+   * @throws DataFormatException
+   *           if the file is not a saved tree
+   */
+  public static void main(String[] args) throws IOException,
+      DataFormatException {
+    int arg = 0;
+    boolean lazy = args.length > 0 && args[0].equals("-lazy");
+    if (lazy) {
+      arg++;
+    }
+    JottoCore core;
+    List<String> words;
+    if (arg < args.length) {
+      File file = new File(args[arg++]);
+      core = lazy ? JottoCore.useFlatQueryTreeFromFile(file) : JottoCore
+          .useQueryTreeFromFile(file);
+      words = QueryTree.readFromFile(file).getSolutionWords();
+    } else {
+      core = JottoCore.useDefaultQueryTree();
+      InputStream in = JottoCore.class.getClassLoader().getResourceAsStream(
+          JottoCore.DEFAULT_TREE_RESOURCE);
+      try {
+        words = QueryTree.readFromStream(in).getSolutionWords();
+      } finally {
+        in.close();
+      }
+    }
+    int rounds = arg < args.length ? Integer.parseInt(args[arg]) : 20;
+    MoveAllocationBenchmark bench = new MoveAllocationBenchmark(core, words);
+    com.sun.management.ThreadMXBean threads = bench.threads_;
+    long thread = bench.thread_;
+
+    System.out.println("api      bytes/move  ns/move");
+    String[] apis = { "strings", "ids", "session" };
+    for (int api = 0; api < apis.length; api++) {
+      long sink = 0;
+      for (int i = 0; i < rounds; i++) {
+        sink += bench.play(api);
+      }
+      bench.moves_ = 0;
+      bench.respondBytes_ = 0;
+      bench.responds_ = 0;
+      long bytes = threads.getThreadAllocatedBytes(thread);
+      long startTime = System.nanoTime();
+      for (int i = 0; i < rounds; i++) {
+        sink += bench.play(api);
+      }
+      long nanos = System.nanoTime() - startTime;
+      bytes = threads.getThreadAllocatedBytes(thread) - bytes;
+      System.out.println(String.format("%-7s  %10.2f  %7.1f   (%d)",
+          apis[api], (double) bytes / bench.moves_,
+          (double) nanos / bench.moves_, sink));
+      if (api == 2) {
+        System.out.println(String.format("respond  %10.2f  (to a guess)",
+            (double) bench.respondBytes_ / bench.responds_));
+      }
+    }
+  }
+}
@@ -0,0 +1,121 @@
+package jotto.bench;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+
+import jotto.engine.JottoCore;
+import jotto.engine.TolerantSession;
+
+/**
+ * Plays games in which the player mis-reports k responses against a
+ * {@link TolerantSession} tolerating k errors, for increasing k. Reports the
+ * per-move cost of updating the candidates incrementally, of rescanning the
+ * dictionary against the full history instead, and of choosing the guess.
+ * <p>
+ * Usage: TolerantBenchmark wordlist [games [maxK]]
+ * 
+ * @author Zhe Lu
+ * 
+ */
+public class TolerantBenchmark {
+
+  private static final int MAX_GUESSES = 40;
+
+
+  /**
+   * @param args
+   *          word list, number of games per k and largest k
+   * @throws FileNotFoundException
+   * @throws DataFormatException
+   */
+  public static void main(String[] args) throws FileNotFoundException,
+      DataFormatException {
+    if (args.length < 1) {
+      System.err.println("usage: TolerantBenchmark wordlist [games [maxK]]");
+      System.exit(1);
+    }
+    File file = new File(args[0]);
+    List<String> words = JottoCore.readWords(file);
+    int games = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+    int maxK = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+    JottoCore core = new JottoCore(file);
+
+    System.out.println("k  update ns  rescan ns  select us  guesses  found");
+    for (int k = 0; k <= maxK; k++) {
+      TolerantSession session = core.tolerantSession(k);
+      Random rand = new Random(k);
+      long update = 0;
+      long rescan = 0;
+      long select = 0;
+      long moves = 0;
+      int found = 0;
+      long totalGuesses = 0;
+      for (int g = 0; g < games; g++) {
+        String secret = words.get(rand.nextInt(words.size()));
+        session.restart();
+        List<String> guesses = new ArrayList<String>();
+        List<Integer> responses = new ArrayList<Integer>();
+        int lies = k;
+        while (guesses.size() < MAX_GUESSES) {
+          long start = System.nanoTime();
+          String guess = session.getGuess();
+          select += System.nanoTime() - start;
+          if (guess == null || guess.equals(secret)) {
+            break;
+          }
+          int match = JottoCore.matchingLetters(guess, secret);
+          if (lies > 0 && rand.nextInt(3) == 0) {
+            match = (match + 1 + rand.nextInt(4)) % 5;
+            lies--;
+          }
+          guesses.add(guess);
+          responses.add(match);
+
+          start = System.nanoTime();
+          session.numMatches(match);
+          update += System.nanoTime() - start;
+          start = System.nanoTime();
+          rescan(words, guesses, responses, k);
+          rescan += System.nanoTime() - start;
+          moves++;
+        }
+        List<String> anagrams = session.getAnagrams();
+        if (secret.equals(session.getGuess())
+            || (anagrams != null && anagrams.contains(secret))) {
+          found++;
+        }
+        totalGuesses += guesses.size() + 1;
+      }
+      System.out.println(String.format("%d  %9d  %9d  %9d  %7.2f  %d/%d", k,
+          update / moves, rescan / moves, select / 1000 / moves,
+          (double) totalGuesses / games, found, games));
+    }
+  }
+
+
+  /*
+   * Count the words within k errors by checking each word against every
+   * response.
+   */
+  private static int rescan(List<String> words, List<String> guesses,
+      List<Integer> responses, int k) {
+    int candidates = 0;
+    for (String w : words) {
+      int errors = 0;
+      for (int i = 0; i < guesses.size() && errors <= k; i++) {
+        if (JottoCore.matchingLetters(guesses.get(i), w) != responses
+            .get(i)) {
+          errors++;
+        }
+      }
+      if (errors <= k) {
+        candidates++;
+      }
+    }
+    return candidates;
+  }
+}
@@ -0,0 +1,425 @@
+package jotto.engine;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+
+/**
+ * Finds the secrets that take the most guesses and the most solver time.
+ * <p>
+ * {@link #search()} plays every sequence of responses the way the engine
+ * solves without a query tree, choosing each guess with the strategy among
+ * the words consistent with the responses so far. Only responses that some
+ * word gives are followed, and every one is played unless pruning is turned
+ * on with {@link #setPruning(boolean)}.
+ * <p>
+ * With pruning, a set of candidates is not searched when no secret in it can
+ * be among the worst found so far: after a guess, every response leaves
+ * fewer candidates, so a set of n letter sets takes at most n - 1 more
+ * guesses, then at most the size of its largest set of anagrams. Its
+ * selection time is estimated the same way, from the most time per candidate
+ * of any selection so far. The guess bound is exact, so the worst by guesses
+ * are the same with pruning; the time estimate is not a bound, so a secret
+ * whose selections were unusually slow may be missed from the worst by time,
+ * and which sets are pruned varies from run to run.
+ * <p>
+ * {@link #worstInTree(QueryTree, int)} ranks the secrets of a built tree,
+ * whose guesses are lookups.
+ * <p>
+ * Guesses are counted as a {@link GameSession} plays a game, including the
+ * guess that finds the secret. The anagrams of a leaf are proposed in
+ * shuffled order after dropping the last guess, so a secret is counted as
+ * proposed last; a secret that is the last guess is found by it. In a tree,
+ * the last guess is the worst of the parent's equal guesses. Solver time is
+ * the thread CPU time of the guess selections along the path of a secret, or
+ * wall time where thread CPU time is not supported.
+ *
+ * @author Zhe Lu
+ *
+ */
+public final class AdversarySearch {
+
+  private static final Comparator<Secret> BY_GUESSES = new Comparator<Secret>() {
+    public int compare(Secret a, Secret b) {
+      if (a.guesses_ != b.guesses_) {
+        return a.guesses_ < b.guesses_ ? -1 : 1;
+      }
+      // later secrets rank lower, so the first found is kept
+      return a.order_ < b.order_ ? 1 : a.order_ > b.order_ ? -1 : 0;
+    }
+  };
+  private static final Comparator<Secret> BY_NANOS = new Comparator<Secret>() {
+    public int compare(Secret a, Secret b) {
+      if (a.nanos_ != b.nanos_) {
+        return a.nanos_ < b.nanos_ ? -1 : 1;
+      }
+      return a.order_ < b.order_ ? 1 : a.order_ > b.order_ ? -1 : 0;
+    }
+  };
+
+  private final Map<String, List<String>> allWords_;
+  private final GuessStrategy strategy_;
+  private final int k_;
+  private final ThreadMXBean threads_ = ManagementFactory.getThreadMXBean();
+  private final boolean cpuTime_;
+  private boolean prune_ = false;
+  // the k worst so far, least bad at the head
+  private PriorityQueue<Secret> byGuesses_;
+  private PriorityQueue<Secret> byNanos_;
+  private double nanosPerCandidate_;
+  private long order_;
+  private long selections_;
+  private long pruned_;
+  private long prunedWords_;
+
+
+  /*
+   * Only used internally.
+   */
+  AdversarySearch(Map<String, List<String>> allWords, GuessStrategy strategy,
+      int k) {
+    if (k <= 0) {
+      throw new IllegalArgumentException("k must be positive: " + k);
+    }
+    allWords_ = allWords;
+    strategy_ = strategy;
+    k_ = k;
+    cpuTime_ = threads_.isCurrentThreadCpuTimeSupported()
+        && threads_.isThreadCpuTimeEnabled();
+  }
+
+
+  /**
+   * Prepare a search of the words of a list.
+   *
+   * @param wordList
+   *          list of words
+   * @param spec
+   *          strategy choosing the guesses, as for {@link StrategySpec}
+   * @param k
+   *          number of secrets to keep of each ranking
+   * @return the search, not yet run
+   * @throws FileNotFoundException
+   *           if the list cannot be read
+   * @throws DataFormatException
+   *           if the list holds no words
+   * @throws IllegalArgumentException
+   *           if the strategy cannot be parsed or k is not positive
+   */
+  public static AdversarySearch forWordList(File wordList, String spec, int k)
+      throws FileNotFoundException, DataFormatException {
+    Map<String, List<String>> allWords = JottoCore.readWordList(wordList);
+    return new AdversarySearch(allWords, StrategySpec.parse(spec,
+        allWords.size(), false), k);
+  }
+
+
+  /**
+   * Whether to skip candidates whose secrets are estimated not to be among
+   * the worst. Without pruning, every sequence of responses is played and
+   * both rankings are exact. Pruning is off by default.
+   *
+   * @param prune
+   *          whether to prune
+   */
+  public void setPruning(boolean prune) {
+    prune_ = prune;
+  }
+
+
+  /**
+   * Play every sequence of responses, keeping the worst secrets.
+   */
+  public void search() {
+    byGuesses_ = new PriorityQueue<Secret>(k_ + 1, BY_GUESSES);
+    byNanos_ = new PriorityQueue<Secret>(k_ + 1, BY_NANOS);
+    nanosPerCandidate_ = 0;
+    order_ = 0;
+    selections_ = 0;
+    pruned_ = 0;
+    prunedWords_ = 0;
+    Set<String> all = new LinkedHashSet<String>(allWords_.keySet());
+    // one selection at the root to load and compile the strategy
+    strategy_.findBestWord(all, allWords_);
+    expand(all, new GameState(), 0, 0);
+  }
+
+
+  /**
+   * @return the secrets taking the most guesses, worst first
+   */
+  public List<Secret> getWorstByGuesses() {
+    return sorted(byGuesses_, BY_GUESSES);
+  }
+
+
+  /**
+   * @return the secrets taking the most solver time, worst first
+   */
+  public List<Secret> getWorstByTime() {
+    return sorted(byNanos_, BY_NANOS);
+  }
+
+
+  /**
+   * @return number of guess selections made by the last search
+   */
+  public long getSelections() {
+    return selections_;
+  }
+
+
+  /**
+   * @return number of candidate sets the last search did not play
+   */
+  public long getPrunedSets() {
+    return pruned_;
+  }
+
+
+  /**
+   * @return number of words in the candidate sets not played
+   */
+  public long getPrunedWords() {
+    return prunedWords_;
+  }
+
+
+  /**
+   * @return whether solver times are thread CPU times rather than wall times
+   */
+  public boolean isCpuTime() {
+    return cpuTime_;
+  }
+
+
+  /**
+   * Rank the secrets of a query tree by the most guesses each can take, the
+   * guess of a node being any of its equal guesses.
+   *
+   * @param qt
+   *          query tree, loaded or opened lazily
+   * @param k
+   *          number of secrets to keep
+   * @return the secrets taking the most guesses, worst first
+   */
+  public static List<Secret> worstInTree(QueryTree qt, int k) {
+    if (k <= 0) {
+      throw new IllegalArgumentException("k must be positive: " + k);
+    }
+    PriorityQueue<Secret> worst = new PriorityQueue<Secret>(k + 1,
+        BY_GUESSES);
+    if (qt.getRoot() != null) {
+      walk(qt.getRoot(), new GameState(), 0, null, worst, k, new long[1]);
+    }
+    return sorted(worst, BY_GUESSES);
+  }
+
+
+  /*
+   * Walk a subtree after a number of guesses, the last of which was one of
+   * the parent's guesses.
+   */
+  private static void walk(Node n, GameState history, int guesses,
+      int[] parentGuess, PriorityQueue<Secret> worst, int k, long[] order) {
+    WordPool pool = WordPool.getDefault();
+    int[] anagrams = n.getAnagrams();
+    if (anagrams != null) {
+      for (int i = 0; i < anagrams.length; i++) {
+        offer(worst, k, BY_GUESSES, new Secret(pool.word(anagrams[i]),
+            GameSession.worstGuesses(guesses, anagrams, i, parentGuess), 0,
+            history, order[0]++));
+      }
+    }
+    int[] guess = n.getGuess();
+    if (guess == null) {
+      return;
+    }
+    for (int i = 0; i < 6; i++) {
+      Node child = n.getLink(i);
+      if (child != null) {
+        walk(child, history.next(pool.word(guess[0]), i), guesses + 1, guess,
+            worst, k, order);
+      }
+    }
+  }
+
+
+  /*
+   * Play the responses from a set of candidate letter sets, after a number
+   * of guesses and an amount of selection time.
+   */
+  private void expand(Set<String> letterSets, GameState history,
+      int guesses, long nanos) {
+    if (letterSets.size() == 1) {
+      List<String> anagrams = allWords_.get(letterSets.iterator().next());
+      String last = history.size() == 0 ? null : history.getGuess(history
+          .size() - 1);
+      for (String word : anagrams) {
+        Secret s = new Secret(word, GameSession.worstGuesses(guesses,
+            anagrams.size(), word.equals(last), anagrams.contains(last)),
+            nanos, history, order_++);
+        offer(byGuesses_, k_, BY_GUESSES, s);
+        offer(byNanos_, k_, BY_NANOS, s);
+      }
+      return;
+    }
+    if (prune_ && cannotRank(letterSets, guesses, nanos)) {
+      pruned_++;
+      for (String letters : letterSets) {
+        prunedWords_ += allWords_.get(letters).size();
+      }
+      return;
+    }
+
+    long startTime = now();
+    String w = strategy_.findBestWord(letterSets, allWords_);
+    long selection = now() - startTime;
+    selections_++;
+    nanosPerCandidate_ = Math.max(nanosPerCandidate_, (double) selection
+        / letterSets.size());
+    if (w.isEmpty()) {
+      throw new IllegalStateException("no guess separates " + letterSets);
+    }
+
+    Map<Integer, Set<String>> bins = new HashMap<Integer, Set<String>>();
+    for (String letters : letterSets) {
+      int match = JottoCore.numMatchingLetters(w, letters);
+      if (!bins.containsKey(match)) {
+        bins.put(match, new LinkedHashSet<String>());
+      }
+      bins.get(match).add(letters);
+    }
+    String guess = allWords_.get(w).get(0);
+    for (int i = 0; i < 6; i++) {
+      if (bins.get(i) != null) {
+        expand(bins.get(i), history.next(guess, i), guesses + 1, nanos
+            + selection);
+      }
+    }
+  }
+
+
+  /*
+   * Whether no secret of the candidates can be among the worst by guesses,
+   * nor is estimated to be among the worst by time, once both are full.
+   */
+  private boolean cannotRank(Set<String> letterSets, int guesses, long nanos) {
+    if (byGuesses_.size() < k_ || byNanos_.size() < k_) {
+      return false;
+    }
+    int n = letterSets.size();
+    int largest = 0;
+    for (String letters : letterSets) {
+      largest = Math.max(largest, allWords_.get(letters).size());
+    }
+    if (guesses + n - 1 + largest > byGuesses_.peek().guesses_) {
+      return false;
+    }
+    // the selections along any path select among n, then fewer, candidates
+    double selections = (double) n * (n + 1) / 2 - 1;
+    return nanos + nanosPerCandidate_ * selections <= byNanos_.peek().nanos_;
+  }
+
+
+  private long now() {
+    return cpuTime_ ? threads_.getCurrentThreadCpuTime() : System.nanoTime();
+  }
+
+
+  /*
+   * Keep a secret if it is among the k worst.
+   */
+  private static void offer(PriorityQueue<Secret> worst, int k,
+      Comparator<Secret> order, Secret s) {
+    if (worst.size() < k) {
+      worst.add(s);
+    } else if (order.compare(s, worst.peek()) > 0) {
+      worst.poll();
+      worst.add(s);
+    }
+  }
+
+
+  private static List<Secret> sorted(PriorityQueue<Secret> worst,
+      Comparator<Secret> order) {
+    if (worst == null) {
+      return Collections.emptyList();
+    }
+    List<Secret> list = new ArrayList<Secret>(worst);
+    Collections.sort(list, Collections.reverseOrder(order));
+    return list;
+  }
+
+
+  /**
+   * A secret word with its cost and the responses that lead to it.
+   */
+  public static final class Secret {
+    private final String word_;
+    private final int guesses_;
+    private final long nanos_;
+    private final GameState history_;
+    // order found, to break ties
+    private final long order_;
+
+
+    Secret(String word, int guesses, long nanos, GameState history,
+        long order) {
+      word_ = word;
+      guesses_ = guesses;
+      nanos_ = nanos;
+      history_ = history;
+      order_ = order;
+    }
+
+
+    /**
+     * @return the secret word
+     */
+    public String getWord() {
+      return word_;
+    }
+
+
+    /**
+     * @return number of guesses to find the word
+     */
+    public int getGuesses() {
+      return guesses_;
+    }
+
+
+    /**
+     * @return time selecting the guesses, in nanoseconds; 0 for a tree
+     */
+    public long getNanos() {
+      return nanos_;
+    }
+
+
+    /**
+     * @return guesses and responses until the word's anagrams are known
+     */
+    public GameState getHistory() {
+      return history_;
+    }
+
+
+    @Override
+    public String toString() {
+      return word_ + " " + guesses_ + " guesses " + history_;
+    }
+  }
+}
@@ -0,0 +1,202 @@
+package jotto.engine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Computes the next guess for many games at once. Games with the same history
+ * are resolved once, and games whose histories leave the same set of
+ * candidates share a single guess selection. Histories that follow the query
+ * tree take their guess from the tree instead of searching, and games reaching
+ * the same node share one result, so its words are resolved once per batch.
+ * 
+ * @author Zhe Lu
+ * 
+ */
+public class BatchSolver {
+
+  private final Map<String, List<String>> allWords_;
+  private final GuessStrategy strategy_;
+  private final ConsistencyIndex index_;
+  private final Node root_;
+
+
+  /**
+   * Constructor.
+   * 
+   * @param core
+   *          engine providing the dictionary, strategy and query tree
+   */
+  public BatchSolver(JottoCore core) {
+    allWords_ = core.getAllWords();
+    strategy_ = core.getStrategy();
+    index_ = core.getIndex();
+    root_ = core.getQueryTree() == null ? null : core.getQueryTree().getRoot();
+  }
+
+
+  /**
+   * Get the next move of every game.
+   * 
+   * @param games
+   *          states of the games
+   * @return the next move of each game, in the same order
+   */
+  public List<Result> solve(List<GameState> games) {
+    Map<GameState, Result> byHistory = new HashMap<GameState, Result>();
+    Map<Node, Result> byNode = new IdentityHashMap<Node, Result>();
+    Map<CandidateSet, Result> byCandidates = new HashMap<CandidateSet, Result>();
+    List<Result> results = new ArrayList<Result>(games.size());
+    for (GameState game : games) {
+      Result r = byHistory.get(game);
+      if (r == null) {
+        Node n = follow(game);
+        if (n != null) {
+          r = byNode.get(n);
+          if (r == null) {
+            r = new Result(n.getGuess() == null ? null : WordPool.getDefault()
+                .word(n.getGuess()[0]), n.getAnagramView());
+            byNode.put(n, r);
+          }
+        } else {
+          CandidateSet candidates = new CandidateSet(index_.consistent(
+              game.getGuesses(), game.matches()));
+          r = byCandidates.get(candidates);
+          if (r == null) {
+            r = next(candidates.set_);
+            byCandidates.put(candidates, r);
+          }
+        }
+        byHistory.put(game, r);
+      }
+      results.add(r);
+    }
+    return results;
+  }
+
+
+  /**
+   * Get the next move of a single game.
+   * 
+   * @param game
+   *          state of the game
+   * @return the next move
+   */
+  public Result solve(GameState game) {
+    return solve(Arrays.asList(game)).get(0);
+  }
+
+
+  /*
+   * Follow the history through the query tree. Returns null if the history
+   * leaves the tree or there is no tree.
+   */
+  private Node follow(GameState game) {
+    WordPool pool = WordPool.getDefault();
+    Node n = root_;
+    for (int i = 0; i < game.size() && n != null; i++) {
+      if (n.getGuess() == null) {
+        return null;
+      }
+      // a guess follows the tree if it is an anagram of the tree's guess;
+      // words sharing all five letters are anagrams
+      String guess = game.getGuess(i);
+      int id = pool.id(guess);
+      if (id >= 0 ? JottoCore.matchingLetters(n.getGuess()[0], id) != 5
+          : !JottoCore.sortLetters(pool.word(n.getGuess()[0])).equals(
+              JottoCore.sortLetters(guess))) {
+        return null;
+      }
+      n = n.getLink(game.getMatches(i));
+    }
+    return n;
+  }
+
+
+  /*
+   * Select the guess for a set of candidates.
+   */
+  private Result next(long[] set) {
+    int count = ConsistencyIndex.count(set);
+    if (count == 0) {
+      return new Result(null, null);
+    }
+    Set<String> possibilities = index_.toKeys(set);
+    if (count == 1) {
+      return new Result(null, allWords_.get(possibilities.iterator().next()));
+    }
+    boolean metrics = EngineMetrics.isCollecting();
+    long startTime = metrics ? System.nanoTime() : 0;
+    String w = strategy_.findBestWord(possibilities, allWords_);
+    if (metrics) {
+      EngineMetrics.findBestWord(System.nanoTime() - startTime);
+    }
+    return new Result(allWords_.get(w).get(0), null);
+  }
+
+
+  /**
+   * The next move of a game. Results are shared between games in the same
+   * position and must not be modified.
+   */
+  public static class Result {
+    private final String guess_;
+    private final List<String> anagrams_;
+
+
+    Result(String guess, List<String> anagrams) {
+      guess_ = guess;
+      anagrams_ = anagrams;
+    }
+
+
+    /**
+     * @return the next word to guess, or null if no more guesses are needed
+     */
+    public String getGuess() {
+      return guess_;
+    }
+
+
+    /**
+     * @return the anagrams of the secret word, or null if not narrowed to a
+     *         single set of anagrams
+     */
+    public List<String> getAnagrams() {
+      return anagrams_;
+    }
+  }
+
+
+  /*
+   * A set of candidates usable as a map key.
+   */
+  private static class CandidateSet {
+    private final long[] set_;
+    private final int hash_;
+
+
+    CandidateSet(long[] set) {
+      set_ = set;
+      hash_ = Arrays.hashCode(set);
+    }
+
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof CandidateSet
+          && Arrays.equals(set_, ((CandidateSet) o).set_);
+    }
+
+
+    @Override
+    public int hashCode() {
+      return hash_;
+    }
+  }
+}
@@ -0,0 +1,329 @@
+package jotto.engine;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Builds a query tree with worker processes. The coordinator builds the top
+ * levels of the tree itself, until there are several subtrees for each
+ * worker, then sends the possibilities of each remaining subtree to the
+ * {@link BuildWorker workers} over loopback sockets and links the subtrees
+ * they send back into the tree, largest subtrees first.
+ * <p>
+ * Workers are started with the classpath of this JVM and connect back with a
+ * random token. A subtree whose worker fails is built by the coordinator, so
+ * the build completes as long as the coordinator does. If no worker can be
+ * started, the coordinator builds the whole tree on the threads of this
+ * process. Failures are reported to a {@link BuildListener}, if any; nothing
+ * is printed. Since builds are deterministic,
+ * the tree is the same as one built in a single process.
+ *
+ * @author Zhe Lu
+ *
+ */
+final class BuildCoordinator {
+
+  // subtrees per worker to balance the load
+  private static final int JOBS_PER_WORKER = 4;
+  // smallest set of possibilities the coordinator splits further
+  private static final int SPLIT_THRESHOLD = 64;
+  private static final int CONNECT_TIMEOUT_MILLIS = 30000;
+
+  private final Map<String, List<String>> allWords_;
+  private final String spec_;
+  private final GuessStrategy strategy_;
+  private final int workers_;
+  private final BuildListener listener_;
+  // threads building the subtrees no worker took
+  private final int threads_ = Runtime.getRuntime().availableProcessors();
+  private final ConcurrentLinkedQueue<Job> jobs_ = new ConcurrentLinkedQueue<Job>();
+  private Node root_;
+
+
+  /**
+   * Constructor.
+   *
+   * @param allWords
+   *          dictionary of sorted letters to anagrams
+   * @param spec
+   *          strategy, as for {@link StrategySpec}
+   * @param workers
+   *          number of worker processes
+   * @param listener
+   *          told of the workers connected and of failures, or null
+   * @throws IllegalArgumentException
+   *           if the strategy cannot be parsed
+   */
+  BuildCoordinator(Map<String, List<String>> allWords, String spec,
+      int workers, BuildListener listener) {
+    allWords_ = allWords;
+    spec_ = spec;
+    strategy_ = StrategySpec.parse(spec, allWords.size(), false);
+    workers_ = workers;
+    listener_ = listener;
+  }
+
+
+  /**
+   * Build the tree.
+   *
+   * @return root node of the tree
+   * @throws IOException
+   *           if interrupted while waiting for the workers
+   */
+  Node build() throws IOException {
+    split();
+    if (jobs_.isEmpty()) {
+      return root_;
+    }
+    String token = newToken();
+    ServerSocket server = null;
+    List<Process> processes = new ArrayList<Process>();
+    List<Thread> threads = new ArrayList<Thread>();
+    try {
+      try {
+        server = new ServerSocket(0, workers_, InetAddress.getByName(null));
+        for (int i = 0; i < workers_; i++) {
+          processes.add(startWorker(server.getLocalPort(), token));
+        }
+        server.setSoTimeout(CONNECT_TIMEOUT_MILLIS);
+        for (int i = 0; i < workers_; i++) {
+          final Socket socket;
+          try {
+            socket = accept(server, token);
+          } catch (SocketTimeoutException e) {
+            break;
+          }
+          Thread t = new Thread(new Runnable() {
+            public void run() {
+              serve(socket);
+            }
+          }, "jotto-build-coordinator-" + i);
+          t.start();
+          threads.add(t);
+        }
+        if (listener_ != null) {
+          listener_.workersConnected(threads.size(), workers_);
+        }
+      } catch (IOException e) {
+        if (listener_ != null) {
+          listener_.workersUnavailable(e);
+        }
+      }
+      for (Thread t : threads) {
+        t.join();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("interrupted while building");
+    } finally {
+      if (server != null) {
+        server.close();
+      }
+      for (Process p : processes) {
+        p.destroy();
+      }
+    }
+    // anything left if no worker connected, or after a worker failed
+    buildLocally();
+    return root_;
+  }
+
+
+  /*
+   * Build the top levels, largest set of possibilities first, queueing the
+   * rest as jobs.
+   */
+  private void split() {
+    PriorityQueue<Job> pending = new PriorityQueue<Job>(11,
+        new Comparator<Job>() {
+          public int compare(Job a, Job b) {
+            return b.possibilities_.size() - a.possibilities_.size();
+          }
+        });
+    pending.add(new Job(null, 0, new ArrayList<String>(allWords_
+        .keySet())));
+    while (!pending.isEmpty()
+        && pending.size() < workers_ * JOBS_PER_WORKER
+        && pending.peek().possibilities_.size() >= SPLIT_THRESHOLD) {
+      Job job = pending.poll();
+      Map<Integer, Set<String>> bins = new HashMap<Integer, Set<String>>();
+      Node n = QueryTree.newNode(new LinkedHashSet<String>(
+          job.possibilities_), allWords_, strategy_, bins);
+      job.complete(n);
+      for (int i = 0; i < 6; i++) {
+        if (bins.get(i) != null) {
+          pending.add(new Job(n, i, new ArrayList<String>(bins.get(i))));
+        }
+      }
+    }
+    while (!pending.isEmpty()) {
+      jobs_.add(pending.poll());
+    }
+  }
+
+
+  /*
+   * Send jobs to a worker until there are none left or the worker fails.
+   */
+  private void serve(Socket socket) {
+    Job job = null;
+    try {
+      ObjectOutputStream out = new ObjectOutputStream(
+          socket.getOutputStream());
+      out.writeObject(spec_);
+      out.writeObject(new LinkedHashMap<String, List<String>>(allWords_));
+      out.flush();
+      ObjectInputStream in = new ObjectInputStream(socket.getInputStream());
+      while ((job = jobs_.poll()) != null) {
+        out.writeObject(job.possibilities_);
+        out.flush();
+        out.reset();
+        job.complete((Node) in.readObject());
+        job = null;
+      }
+      out.writeObject(null);
+      out.flush();
+    } catch (IOException | ClassNotFoundException | ClassCastException e) {
+      if (listener_ != null) {
+        listener_.workerFailed(e);
+      }
+      if (job != null) {
+        jobs_.add(job);
+      }
+    } finally {
+      try {
+        socket.close();
+      } catch (IOException e) {
+      }
+    }
+  }
+
+
+  /*
+   * Build the jobs no worker took, each on the threads of this process.
+   */
+  private void buildLocally() {
+    Job job;
+    while ((job = jobs_.poll()) != null) {
+      job.complete(QueryTree.buildTree(new LinkedHashSet<String>(
+          job.possibilities_), allWords_, strategy_, threads_));
+    }
+  }
+
+
+  /*
+   * Start a worker JVM with the classpath of this one.
+   */
+  private static Process startWorker(int port, String token)
+      throws IOException {
+    String java = System.getProperty("java.home") + File.separator + "bin"
+        + File.separator + "java";
+    ProcessBuilder pb = new ProcessBuilder(java, "-cp",
+        System.getProperty("java.class.path"), BuildWorker.class.getName(),
+        String.valueOf(port));
+    pb.redirectOutput(ProcessBuilder.Redirect.INHERIT);
+    pb.redirectError(ProcessBuilder.Redirect.INHERIT);
+    Process p = pb.start();
+    // the token goes over stdin rather than the visible command line
+    p.getOutputStream().write((token + "\n").getBytes("US-ASCII"));
+    p.getOutputStream().close();
+    return p;
+  }
+
+
+  /*
+   * Accept the next connection that presents the token.
+   */
+  private static Socket accept(ServerSocket server, String token)
+      throws IOException {
+    while (true) {
+      Socket socket = server.accept();
+      socket.setSoTimeout(CONNECT_TIMEOUT_MILLIS);
+      byte[] expected = token.getBytes("US-ASCII");
+      byte[] received = new byte[expected.length];
+      int n = 0;
+      try {
+        while (n < received.length) {
+          int r = socket.getInputStream().read(received, n,
+              received.length - n);
+          if (r < 0) {
+            break;
+          }
+          n += r;
+        }
+      } catch (SocketTimeoutException e) {
+        // not a worker
+      }
+      if (n == received.length
+          && MessageDigest.isEqual(expected, received)) {
+        socket.setSoTimeout(0);
+        return socket;
+      }
+      socket.close();
+    }
+  }
+
+
+  /*
+   * A random token of hex digits.
+   */
+  private static String newToken() {
+    byte[] bytes = new byte[16];
+    new SecureRandom().nextBytes(bytes);
+    StringBuilder sb = new StringBuilder();
+    for (byte b : bytes) {
+      sb.append(String.format("%02x", b & 0xff));
+    }
+    return sb.toString();
+  }
+
+
+  /*
+   * A subtree to build and the link of the node it belongs under.
+   */
+  private class Job {
+    private final Node parent_;
+    private final int link_;
+    private final ArrayList<String> possibilities_;
+
+
+    Job(Node parent, int link, ArrayList<String> possibilities) {
+      parent_ = parent;
+      link_ = link;
+      possibilities_ = possibilities;
+    }
+
+
+    /*
+     * Link the built subtree into the tree.
+     */
+    void complete(Node n) {
+      synchronized (BuildCoordinator.this) {
+        if (parent_ == null) {
+          root_ = n;
+        } else {
+          parent_.setLink(link_, n);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,42 @@
+package jotto.engine;
+
+/**
+ * Told how a build with worker processes goes, so that the caller can decide
+ * what to report. See
+ * {@link JottoCore#buildWithWorkers(java.io.File, String, int, BuildListener)}.
+ * Methods may be called from the threads serving the workers.
+ *
+ * @author Zhe Lu
+ *
+ */
+public interface BuildListener {
+
+  /**
+   * The workers could not be started, so the tree is built in this process.
+   *
+   * @param cause
+   *          why the workers could not be started
+   */
+  void workersUnavailable(Exception cause);
+
+
+  /**
+   * The workers have connected, or the time to connect has run out. Subtrees
+   * are built in this process if none connected.
+   *
+   * @param connected
+   *          number of workers that connected
+   * @param requested
+   *          number of workers started
+   */
+  void workersConnected(int connected, int requested);
+
+
+  /**
+   * A worker failed; the subtree it was building is built in this process.
+   *
+   * @param cause
+   *          the failure
+   */
+  void workerFailed(Exception cause);
+}
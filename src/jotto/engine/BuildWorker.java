@@ -0,0 +1,90 @@
+package jotto.engine;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Worker process of a distributed tree build, started by the build
+ * coordinator. Reads the coordinator's token from standard input, connects to
+ * the coordinator on the loopback address, receives the strategy and the
+ * dictionary, then builds one subtree for each set of possibilities it is
+ * sent until it is sent null.
+ * <p>
+ * Usage: BuildWorker port [threads]
+ * 
+ * @author Zhe Lu
+ * 
+ */
+public final class BuildWorker {
+
+  /*
+   * Only used internally.
+   */
+  private BuildWorker() {
+  }
+
+
+  /**
+   * @param args
+   *          port of the coordinator and optional number of threads
+   * @throws IOException
+   *           on connection error
+   * @throws ClassNotFoundException
+   *           if the coordinator sends an unknown class
+   */
+  @SuppressWarnings("unchecked")
+  public static void main(String[] args) throws IOException,
+      ClassNotFoundException {
+    if (args.length < 1) {
+      System.err.println("usage: BuildWorker port [threads]");
+      System.exit(1);
+    }
+    int port = Integer.parseInt(args[0]);
+    int threads = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+    String token = new BufferedReader(new InputStreamReader(System.in,
+        "US-ASCII")).readLine();
+    if (token == null) {
+      System.err.println("BuildWorker: no token");
+      System.exit(1);
+    }
+    Socket socket = new Socket(InetAddress.getByName(null), port);
+    try {
+      socket.getOutputStream().write(token.getBytes("US-ASCII"));
+      ObjectOutputStream out = new ObjectOutputStream(
+          socket.getOutputStream());
+      out.flush();
+      ObjectInputStream in = new ObjectInputStream(socket.getInputStream());
+      String spec = (String) in.readObject();
+      Map<String, List<String>> allWords = (LinkedHashMap<String, List<String>>) in
+          .readObject();
+      GuessStrategy strategy = StrategySpec.parse(spec, allWords.size(),
+          false);
+      ArrayList<String> possibilities;
+      while ((possibilities = (ArrayList<String>) in.readObject()) != null) {
+        Node n = QueryTree.buildTree(
+            new LinkedHashSet<String>(possibilities), allWords, strategy,
+            threads);
+        Node.beginWrite();
+        try {
+          out.writeObject(n);
+        } finally {
+          Node.endWrite();
+        }
+        out.flush();
+        out.reset();
+      }
+    } finally {
+      socket.close();
+    }
+  }
+}
@@ -0,0 +1,232 @@
+package jotto.engine;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Inverted index from letter counts to anagram classes, used to find the
+ * classes consistent with a history of guesses and responses without scanning
+ * the dictionary once per response.
+ * <p>
+ * Each class is given an id, its position in sorted order. For every letter and
+ * every count k from 1 to 5 the index keeps a bitset of the classes containing
+ * that letter at least k times. The number of letters a class shares with a
+ * guess is then the sum of one bitset per letter of the guess, which is added
+ * up 64 classes at a time in 3-bit counters.
+ * <p>
+ * Sets of classes are represented as bitsets (long arrays) of length
+ * {@link #words()}.
+ * 
+ * @author Zhe Lu
+ * 
+ */
+public class ConsistencyIndex {
+
+  private final String[] keys_;
+  private final Map<String, Integer> ids_;
+  private final long[][][] atLeast_ = new long[26][5][];
+
+
+  /**
+   * Constructor.
+   * 
+   * @param keys
+   *          sorted-letter keys of the anagram classes
+   */
+  public ConsistencyIndex(Collection<String> keys) {
+    keys_ = keys.toArray(new String[keys.size()]);
+    Arrays.sort(keys_);
+    ids_ = new HashMap<String, Integer>(keys_.length * 2);
+    int words = words();
+    for (int letter = 0; letter < 26; letter++) {
+      for (int k = 0; k < 5; k++) {
+        atLeast_[letter][k] = new long[words];
+      }
+    }
+    for (int id = 0; id < keys_.length; id++) {
+      ids_.put(keys_[id], id);
+      int[] count = new int[26];
+      for (int i = 0; i < keys_[id].length(); i++) {
+        int letter = keys_[id].charAt(i) - 'a';
+        atLeast_[letter][count[letter]++][id >>> 6] |= 1L << id;
+      }
+    }
+  }
+
+
+  /**
+   * @return number of anagram classes in the index
+   */
+  public int size() {
+    return keys_.length;
+  }
+
+
+  /**
+   * @return length of the long arrays used as sets of classes
+   */
+  public int words() {
+    return (keys_.length + 63) >>> 6;
+  }
+
+
+  /**
+   * Get the id of an anagram class.
+   * 
+   * @param word
+   *          a word or the sorted-letter key of its class
+   * @return id of the class, or -1 if the class is not indexed
+   */
+  public int id(String word) {
+    Integer id = ids_.get(JottoCore.sortLetters(word));
+    return id == null ? -1 : id;
+  }
+
+
+  /*
+   * Id of the class of a sorted-letter key, or -1 if it is not indexed.
+   */
+  int keyId(String key) {
+    Integer id = ids_.get(key);
+    return id == null ? -1 : id;
+  }
+
+
+  /**
+   * Get the sorted-letter key of an anagram class.
+   * 
+   * @param id
+   *          id of the class
+   * @return sorted-letter key
+   */
+  public String key(int id) {
+    return keys_[id];
+  }
+
+
+  /**
+   * @return a new set containing every class
+   */
+  public long[] all() {
+    long[] set = new long[words()];
+    Arrays.fill(set, -1L);
+    if ((keys_.length & 63) != 0) {
+      set[set.length - 1] = (1L << keys_.length) - 1;
+    }
+    return set;
+  }
+
+
+  /**
+   * Remove from a set the classes inconsistent with a response.
+   * 
+   * @param set
+   *          set of classes, modified in place
+   * @param guess
+   *          the guessed word
+   * @param matches
+   *          number of matching letters reported for the guess
+   */
+  public void filter(long[] set, String guess, int matches) {
+    long[][] terms = terms(guess);
+    for (int i = 0; i < set.length; i++) {
+      if (set[i] != 0) {
+        set[i] &= equalTo(terms, i, matches);
+      }
+    }
+  }
+
+
+  /**
+   * Get the set of classes consistent with every response of a history.
+   * 
+   * @param guesses
+   *          the guessed words
+   * @param matches
+   *          number of matching letters reported for each guess
+   * @return set of consistent classes
+   */
+  public long[] consistent(List<String> guesses, int[] matches) {
+    long[] set = all();
+    for (int i = 0; i < guesses.size(); i++) {
+      filter(set, guesses.get(i), matches[i]);
+    }
+    return set;
+  }
+
+
+  /**
+   * Count the classes in a set.
+   * 
+   * @param set
+   *          set of classes
+   * @return number of classes
+   */
+  public static int count(long[] set) {
+    int n = 0;
+    for (long bits : set) {
+      n += Long.bitCount(bits);
+    }
+    return n;
+  }
+
+
+  /**
+   * Get the sorted-letter keys of the classes in a set.
+   * 
+   * @param set
+   *          set of classes
+   * @return sorted-letter keys, iterating in sorted order
+   */
+  public Set<String> toKeys(long[] set) {
+    Set<String> keys = new LinkedHashSet<String>(count(set) * 2);
+    for (int i = 0; i < set.length; i++) {
+      long bits = set[i];
+      while (bits != 0) {
+        keys.add(keys_[(i << 6) + Long.numberOfTrailingZeros(bits)]);
+        bits &= bits - 1;
+      }
+    }
+    return keys;
+  }
+
+
+  /*
+   * One bitset per letter of the guess: the classes containing that letter at
+   * least as often as it has occurred in the guess so far.
+   */
+  long[][] terms(String guess) {
+    long[][] terms = new long[guess.length()][];
+    int[] count = new int[26];
+    for (int i = 0; i < guess.length(); i++) {
+      int letter = guess.charAt(i) - 'a';
+      terms[i] = atLeast_[letter][count[letter]++];
+    }
+    return terms;
+  }
+
+
+  /*
+   * Mask of the 64 classes in word i sharing exactly matches letters with the
+   * guess.
+   */
+  static long equalTo(long[][] terms, int i, int matches) {
+    long b0 = 0;
+    long b1 = 0;
+    long b2 = 0;
+    for (long[] term : terms) {
+      long x = term[i];
+      long carry = b0 & x;
+      b0 ^= x;
+      b2 |= b1 & carry;
+      b1 ^= carry;
+    }
+    return ((matches & 1) != 0 ? b0 : ~b0) & ((matches & 2) != 0 ? b1 : ~b1)
+        & ((matches & 4) != 0 ? b2 : ~b2);
+  }
+}
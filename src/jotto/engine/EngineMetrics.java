@@ -0,0 +1,286 @@
+package jotto.engine;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counters and timings of the engine. Metrics are collected when the JVM is
+ * started with -Djotto.metrics=true or after {@link #setCollecting(boolean)};
+ * when they are not, the instrumentation costs one read of a volatile flag.
+ * <p>
+ * When collecting starts, the metrics are registered as the MBean
+ * {@value #OBJECT_NAME}. If registration fails, for example because the name
+ * is taken, metrics are still collected and {@link #isRegistered()} is false.
+ * {@link #snapshot()} reads them without JMX.
+ * 
+ * @author Zhe Lu
+ * 
+ */
+public final class EngineMetrics implements EngineMetricsMBean {
+
+  /**
+   * Name of the registered MBean.
+   */
+  public static final String OBJECT_NAME = "jotto:type=EngineMetrics";
+
+  private static final AtomicLong findCalls_ = new AtomicLong();
+  private static final AtomicLong findNanos_ = new AtomicLong();
+  private static final AtomicLong matches_ = new AtomicLong();
+  private static final AtomicLong nodesBuilt_ = new AtomicLong();
+  private static volatile long treeSize_;
+  private static volatile int treeDepth_;
+  private static volatile long parseNanos_;
+  private static volatile long buildNanos_;
+  private static volatile long loadNanos_;
+  private static final LatencyHistogram guessLatency_ = new LatencyHistogram();
+  private static volatile boolean collecting_ = false;
+  private static boolean registered_ = false;
+  private static boolean registering_ = false;
+
+  static {
+    setCollecting(Boolean.getBoolean("jotto.metrics"));
+  }
+
+
+  /*
+   * Only used internally.
+   */
+  private EngineMetrics() {
+  }
+
+
+  /**
+   * @return whether metrics are collected
+   */
+  public static boolean isCollecting() {
+    return collecting_;
+  }
+
+
+  /**
+   * Start or stop collecting metrics. The MBean is registered the first time
+   * collecting starts.
+   * 
+   * @param collecting
+   *          whether to collect metrics
+   */
+  public static synchronized void setCollecting(boolean collecting) {
+    collecting_ = collecting;
+    if (collecting && !registering_) {
+      registering_ = true;
+      try {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(
+            new EngineMetrics(), new ObjectName(OBJECT_NAME));
+        registered_ = true;
+      } catch (JMException e) {
+        // left unregistered; see isRegistered()
+      }
+    }
+  }
+
+
+  /**
+   * @return whether the metrics are registered as the MBean
+   *         {@value #OBJECT_NAME}
+   */
+  public static synchronized boolean isRegistered() {
+    return registered_;
+  }
+
+
+  /*
+   * Record a guess selection.
+   */
+  static void findBestWord(long nanos) {
+    findCalls_.incrementAndGet();
+    findNanos_.addAndGet(nanos);
+  }
+
+
+  /*
+   * Record letter matching computations.
+   */
+  static void numMatchingLetters(long n) {
+    matches_.addAndGet(n);
+  }
+
+
+  /*
+   * Record a node built.
+   */
+  static void nodeBuilt() {
+    nodesBuilt_.incrementAndGet();
+  }
+
+
+  /*
+   * Record the time to parse a word list.
+   */
+  static void parsed(long nanos) {
+    parseNanos_ = nanos;
+  }
+
+
+  /*
+   * Record the time to build a tree and its shape.
+   */
+  static void built(Node root, long nanos) {
+    buildNanos_ = nanos;
+    tree(root);
+  }
+
+
+  /*
+   * Record the time to load a tree and its shape.
+   */
+  static void loaded(Node root, long nanos) {
+    loadNanos_ = nanos;
+    tree(root);
+  }
+
+
+  /*
+   * Record the guess latency of a session.
+   */
+  static void guess(LatencyHistogram session, long nanos) {
+    guessLatency_.record(nanos);
+    session.record(nanos);
+  }
+
+
+  /*
+   * Record the size and depth of a tree.
+   */
+  private static void tree(Node root) {
+    long[] sizeAndDepth = new long[2];
+    walk(root, 1, sizeAndDepth);
+    treeSize_ = sizeAndDepth[0];
+    treeDepth_ = (int) sizeAndDepth[1];
+  }
+
+
+  /*
+   * Count the nodes and the depth of a subtree.
+   */
+  private static void walk(Node n, int depth, long[] sizeAndDepth) {
+    if (n == null) {
+      return;
+    }
+    sizeAndDepth[0]++;
+    sizeAndDepth[1] = Math.max(sizeAndDepth[1], depth);
+    for (int i = 0; i < 6; i++) {
+      walk(n.getLink(i), depth + 1, sizeAndDepth);
+    }
+  }
+
+
+  /**
+   * Read the current values of the metrics.
+   * 
+   * @return the current values
+   */
+  public static MetricsSnapshot snapshot() {
+    return new MetricsSnapshot(collecting_, findCalls_.get(), findNanos_.get(),
+        matches_.get(), nodesBuilt_.get(), treeSize_, treeDepth_,
+        parseNanos_, buildNanos_, loadNanos_, guessLatency_.getBuckets());
+  }
+
+
+  /**
+   * Clear the counters.
+   */
+  public static void resetAll() {
+    findCalls_.set(0);
+    findNanos_.set(0);
+    matches_.set(0);
+    nodesBuilt_.set(0);
+    guessLatency_.reset();
+  }
+
+
+  @Override
+  public boolean isEnabled() {
+    return collecting_;
+  }
+
+
+  @Override
+  public long getFindBestWordCalls() {
+    return findCalls_.get();
+  }
+
+
+  @Override
+  public long getFindBestWordMillis() {
+    return findNanos_.get() / 1000000;
+  }
+
+
+  @Override
+  public long getNumMatchingLettersCalls() {
+    return matches_.get();
+  }
+
+
+  @Override
+  public long getNodesBuilt() {
+    return nodesBuilt_.get();
+  }
+
+
+  @Override
+  public long getTreeSize() {
+    return treeSize_;
+  }
+
+
+  @Override
+  public int getTreeDepth() {
+    return treeDepth_;
+  }
+
+
+  @Override
+  public long getParseMillis() {
+    return parseNanos_ / 1000000;
+  }
+
+
+  @Override
+  public long getBuildMillis() {
+    return buildNanos_ / 1000000;
+  }
+
+
+  @Override
+  public long getLoadMillis() {
+    return loadNanos_ / 1000000;
+  }
+
+
+  @Override
+  public long getGuesses() {
+    return guessLatency_.getCount();
+  }
+
+
+  @Override
+  public long getGuessLatencyP50Micros() {
+    return guessLatency_.getPercentile(50) / 1000;
+  }
+
+
+  @Override
+  public long getGuessLatencyP99Micros() {
+    return guessLatency_.getPercentile(99) / 1000;
+  }
+
+
+  @Override
+  public void reset() {
+    resetAll();
+  }
+}
@@ -0,0 +1,93 @@
+package jotto.engine;
+
+/**
+ * JMX view of {@link EngineMetrics}.
+ * 
+ * @author Zhe Lu
+ * 
+ */
+public interface EngineMetricsMBean {
+
+  /**
+   * @return whether metrics are collected
+   */
+  boolean isEnabled();
+
+
+  /**
+   * @return number of guess selections
+   */
+  long getFindBestWordCalls();
+
+
+  /**
+   * @return cumulative time of guess selections in milliseconds
+   */
+  long getFindBestWordMillis();
+
+
+  /**
+   * @return number of letter matching computations
+   */
+  long getNumMatchingLettersCalls();
+
+
+  /**
+   * @return number of query tree nodes built
+   */
+  long getNodesBuilt();
+
+
+  /**
+   * @return number of nodes of the last tree built or loaded
+   */
+  long getTreeSize();
+
+
+  /**
+   * @return depth of the last tree built or loaded
+   */
+  int getTreeDepth();
+
+
+  /**
+   * @return time to read and parse the last word list in milliseconds
+   */
+  long getParseMillis();
+
+
+  /**
+   * @return time to build the last query tree in milliseconds
+   */
+  long getBuildMillis();
+
+
+  /**
+   * @return time to load the last query tree file in milliseconds
+   */
+  long getLoadMillis();
+
+
+  /**
+   * @return number of guesses served
+   */
+  long getGuesses();
+
+
+  /**
+   * @return median guess latency upper bound in microseconds
+   */
+  long getGuessLatencyP50Micros();
+
+
+  /**
+   * @return 99th percentile guess latency upper bound in microseconds
+   */
+  long getGuessLatencyP99Micros();
+
+
+  /**
+   * Clear the counters.
+   */
+  void reset();
+}
@@ -0,0 +1,30 @@
+package jotto.engine;
+
+/**
+ * Scores a partition by its entropy, the expected information gained from the
+ * response. This is the original scoring.
+ * 
+ * @author Zhe Lu
+ * 
+ */
+public class EntropyScorer implements GuessScorer {
+
+  @Override
+  public double score(int[] counts, int N) {
+    double entropy = 0;
+    for (int i = 0; i < counts.length; i++) {
+      if (counts[i] == 0) {
+        continue;
+      }
+      double p = (double) counts[i] / N;
+      entropy -= p * Math.log(p);
+    }
+    return entropy;
+  }
+
+
+  @Override
+  public String toString() {
+    return "entropy";
+  }
+}
@@ -0,0 +1,49 @@
+package jotto.engine;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Scores every anagram class in the dictionary and picks the best one. With
+ * the default {@link EntropyScorer} this is the original, exact behavior.
+ * 
+ * @author Zhe Lu
+ * 
+ */
+public class ExhaustiveStrategy implements GuessStrategy {
+
+  private final GuessScorer scorer_;
+
+
+  /**
+   * Exhaustive search for the highest entropy.
+   */
+  public ExhaustiveStrategy() {
+    this(new EntropyScorer());
+  }
+
+
+  /**
+   * Constructor.
+   * 
+   * @param scorer
+   *          scorer of the candidates
+   */
+  public ExhaustiveStrategy(GuessScorer scorer) {
+    scorer_ = scorer;
+  }
+
+
+  @Override
+  public String findBestWord(Set<String> possibilities,
+      Map<String, List<String>> allWords) {
+    return JottoCore.findBestWord(possibilities, allWords, scorer_);
+  }
+
+
+  @Override
+  public String toString() {
+    return "exhaustive " + scorer_;
+  }
+}
@@ -0,0 +1,26 @@
+package jotto.engine;
+
+/**
+ * Scores a partition by the expected number of words remaining after the
+ * response, sum(c^2) / N, preferring the smallest.
+ * 
+ * @author Zhe Lu
+ * 
+ */
+public class ExpectedSizeScorer implements GuessScorer {
+
+  @Override
+  public double score(int[] counts, int N) {
+    long sum = 0;
+    for (int i = 0; i < counts.length; i++) {
+      sum += (long) counts[i] * counts[i];
+    }
+    return -(double) sum / N;
+  }
+
+
+  @Override
+  public String toString() {
+    return "expected";
+  }
+}
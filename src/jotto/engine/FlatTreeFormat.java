@@ -0,0 +1,312 @@
+package jotto.engine;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+
+/**
+ * Compact binary file format for query trees, independent of Java
+ * serialization. All numbers are big-endian.
+ * 
+ * <pre>
+ * int    magic "JOTT"
+ * short  version
+ * byte   tree flags: 1 if the tree was built in hard mode (version 2 only)
+ * int    number of words W, then W words of 5 ASCII bytes
+ * long   offset of the root node
+ * long   number of nodes
+ * long   length of the file in bytes (version 2 only)
+ * nodes, each:
+ *   byte   flags: 1 if the node has guesses, 2 if it has anagrams
+ *   [int n, n ints]  indices into the word table of the guesses
+ *   [int n, n ints]  indices into the word table of the anagrams
+ *   byte   link mask: bit i set if there is a link for i matching letters
+ *   long   offset of the child for each set bit, in increasing order
+ * </pre>
+ * 
+ * Words are listed in sorted order. Nodes are written in depth-first order,
+ * each node before its children and children in increasing order of matching
+ * letters, so equal trees give identical files. Version 1 files, without the
+ * tree flags and file length, are still read; truncated version 2 files are
+ * rejected when opened.
+ * 
+ * @author Zhe Lu
+ * 
+ */
+final class FlatTreeFormat {
+
+  static final int MAGIC = 0x4A4F5454;
+  static final short VERSION = 2;
+  // the version before the tree flags
+  static final short VERSION_1 = 1;
+  static final int HARD_MODE = 1;
+
+
+  /*
+   * Only used internally.
+   */
+  private FlatTreeFormat() {
+  }
+
+
+  /**
+   * Whether a stream starts with the flat format magic number. Reads 4 bytes.
+   * 
+   * @param in
+   *          input stream
+   * @return true if the stream holds a flat format tree
+   * @throws IOException
+   *           on read error
+   */
+  static boolean isFlat(InputStream in) throws IOException {
+    int magic = 0;
+    for (int i = 0; i < 4; i++) {
+      int b = in.read();
+      if (b < 0) {
+        return false;
+      }
+      magic = (magic << 8) | b;
+    }
+    return magic == MAGIC;
+  }
+
+
+  /**
+   * Write a tree.
+   * 
+   * @param root
+   *          root node of the tree
+   * @param hardMode
+   *          whether the tree was built in hard mode
+   * @param file
+   *          file to write
+   * @throws IOException
+   *           on write error
+   */
+  static void write(Node root, boolean hardMode, File file)
+      throws IOException {
+    Set<Integer> ids = new HashSet<Integer>();
+    collectWords(root, ids);
+    List<String> words = new ArrayList<String>(ids.size());
+    for (int id : ids) {
+      words.add(WordPool.getDefault().word(id));
+    }
+    FlatTreeWriter writer = new FlatTreeWriter(file, words, hardMode);
+    try {
+      writer.finish(root == null ? 0 : write(root, writer));
+    } finally {
+      writer.close();
+    }
+  }
+
+
+  /*
+   * Write a subtree, returning the offset of its root.
+   */
+  private static long write(Node n, FlatTreeWriter writer) throws IOException {
+    int mask = n.getLinkMask();
+    long offset = writer.writeNode(n.getGuess(), n.getAnagrams(), mask);
+    long links = writer.lastLinks();
+    for (int i = 0; i < 6; i++) {
+      if (n.getLink(i) != null) {
+        long child = write(n.getLink(i), writer);
+        writer.setLink(FlatTreeWriter.linkOffset(links, mask, i), child);
+      }
+    }
+    return offset;
+  }
+
+
+  /*
+   * Add the word ids of a subtree.
+   */
+  private static void collectWords(Node n, Set<Integer> ids) {
+    if (n == null) {
+      return;
+    }
+    for (int[] words : new int[][] { n.getGuess(), n.getAnagrams() }) {
+      if (words != null) {
+        for (int id : words) {
+          ids.add(id);
+        }
+      }
+    }
+    for (int i = 0; i < 6; i++) {
+      collectWords(n.getLink(i), ids);
+    }
+  }
+
+
+  /**
+   * Read a whole tree.
+   * 
+   * @param file
+   *          file to read
+   * @return the tree, not started
+   * @throws IOException
+   *           on read error
+   * @throws DataFormatException
+   *           if the file is not a flat format tree
+   */
+  static QueryTree read(File file) throws IOException, DataFormatException {
+    InputStream in = new FileInputStream(file);
+    try {
+      return read(in);
+    } finally {
+      in.close();
+    }
+  }
+
+
+  /**
+   * Read a whole tree from a stream, leaving it open.
+   * 
+   * @param in
+   *          stream positioned at the start of the tree
+   * @return the tree, not started; its root is null for an empty tree
+   * @throws IOException
+   *           on read error
+   * @throws DataFormatException
+   *           if the stream does not hold a flat format tree
+   */
+  static QueryTree read(InputStream in) throws IOException, DataFormatException {
+    Reader reader = new Reader(new DataInputStream(new BufferedInputStream(in,
+        1 << 16)));
+    try {
+      return reader.readTree();
+    } catch (EOFException e) {
+      throw new DataFormatException("truncated tree file");
+    }
+  }
+
+
+  /*
+   * Reads nodes in file order, checking each is where its parent points.
+   */
+  private static class Reader {
+    private final DataInputStream in_;
+    private long position_ = 0;
+    private int[] ids_;
+
+
+    Reader(DataInputStream in) {
+      in_ = in;
+    }
+
+
+    QueryTree readTree() throws IOException, DataFormatException {
+      if (readInt() != MAGIC) {
+        throw new DataFormatException("not a flat tree file");
+      }
+      short version = in_.readShort();
+      position_ += 2;
+      if (version != VERSION && version != VERSION_1) {
+        throw new DataFormatException("unsupported version " + version);
+      }
+      int flags = version == VERSION_1 ? 0 : readByte();
+      ids_ = readWordTable();
+      long root = readLong();
+      readLong();
+      long length = version == VERSION_1 ? -1 : readLong();
+      Node n = root == 0 ? null : readNode(root);
+      if (length >= 0 && position_ != length) {
+        throw new DataFormatException("bad file length " + length);
+      }
+      return new QueryTree(n, (flags & HARD_MODE) != 0);
+    }
+
+
+    private int[] readWordTable() throws IOException, DataFormatException {
+      int count = readInt();
+      if (count < 0) {
+        throw new DataFormatException("bad word count");
+      }
+      int[] ids = new int[count];
+      byte[] word = new byte[WordPool.WORD_LENGTH];
+      WordPool pool = WordPool.getDefault();
+      for (int i = 0; i < count; i++) {
+        in_.readFully(word);
+        position_ += word.length;
+        String w = new String(word, "US-ASCII");
+        if (!WordPool.isWord(w)) {
+          throw new DataFormatException("bad word in table: " + w);
+        }
+        ids[i] = pool.intern(w);
+      }
+      return ids;
+    }
+
+
+    private Node readNode(long offset) throws IOException,
+        DataFormatException {
+      if (offset != position_) {
+        throw new DataFormatException("node out of order at " + position_);
+      }
+      int flags = readByte();
+      Node n = new Node();
+      if ((flags & 1) != 0) {
+        n.setGuessIds(readIds());
+      }
+      if ((flags & 2) != 0) {
+        n.setAnagramIds(readIds());
+      }
+      int mask = readByte();
+      long[] children = new long[6];
+      for (int i = 0; i < 6; i++) {
+        if ((mask & (1 << i)) != 0) {
+          children[i] = readLong();
+        }
+      }
+      for (int i = 0; i < 6; i++) {
+        if ((mask & (1 << i)) != 0) {
+          n.setLink(i, readNode(children[i]));
+        }
+      }
+      return n;
+    }
+
+
+    private int[] readIds() throws IOException, DataFormatException {
+      int count = readInt();
+      if (count < 0) {
+        throw new DataFormatException("bad word count");
+      }
+      int[] ids = new int[count];
+      for (int i = 0; i < count; i++) {
+        int index = readInt();
+        if (index < 0 || index >= ids_.length) {
+          throw new DataFormatException("bad word index " + index);
+        }
+        ids[i] = ids_[index];
+      }
+      return ids;
+    }
+
+
+    private int readByte() throws IOException {
+      position_++;
+      return in_.readUnsignedByte();
+    }
+
+
+    private int readInt() throws IOException {
+      position_ += 4;
+      return in_.readInt();
+    }
+
+
+    private long readLong() throws IOException {
+      position_ += 8;
+      return in_.readLong();
+    }
+  }
+}
@@ -0,0 +1,247 @@
+package jotto.engine;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.TreeSet;
+
+/**
+ * Writes a query tree in the flat format, one node at a time in depth-first
+ * order. Each node is written before its subtrees; the offsets of its children
+ * are filled in as they are written. See {@link FlatTreeFormat}.
+ * <p>
+ * Only a fixed size buffer is held in memory, so trees can be written while
+ * they are built without keeping them whole.
+ * 
+ * @author Zhe Lu
+ * 
+ */
+final class FlatTreeWriter implements Closeable {
+
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  private final RandomAccessFile file_;
+  private final FileChannel channel_;
+  private final ByteBuffer buffer_ = ByteBuffer.allocate(BUFFER_SIZE);
+  // file position of the start of the buffer
+  private long flushed_ = 0;
+  private final int[] tableIndex_;
+  private final long headerEnd_;
+  private long lastLinks_;
+  private long nodes_ = 0;
+
+
+  /**
+   * Create the file and write its header.
+   * 
+   * @param file
+   *          file to write
+   * @param words
+   *          every word the nodes will hold, in any order; the table is
+   *          written sorted so that it only depends on the set of words
+   * @param hardMode
+   *          whether the tree is built in hard mode
+   * @throws IOException
+   *           on write error
+   */
+  FlatTreeWriter(File file, Collection<String> words, boolean hardMode)
+      throws IOException {
+    file_ = new RandomAccessFile(file, "rw");
+    file_.setLength(0);
+    channel_ = file_.getChannel();
+    WordPool pool = WordPool.getDefault();
+    int[] ids = pool.intern(new ArrayList<String>(new TreeSet<String>(
+        words)));
+    int max = -1;
+    for (int id : ids) {
+      max = Math.max(max, id);
+    }
+    tableIndex_ = new int[max + 1];
+    buffer_.putInt(FlatTreeFormat.MAGIC);
+    buffer_.putShort(FlatTreeFormat.VERSION);
+    buffer_.put((byte) (hardMode ? FlatTreeFormat.HARD_MODE : 0));
+    buffer_.putInt(ids.length);
+    for (int i = 0; i < ids.length; i++) {
+      tableIndex_[ids[i]] = i;
+      ensure(WordPool.WORD_LENGTH);
+      for (int j = 0; j < WordPool.WORD_LENGTH; j++) {
+        buffer_.put((byte) pool.charAt(ids[i], j));
+      }
+    }
+    ensure(24);
+    headerEnd_ = position();
+    // root offset, node count and file length, written by finish()
+    buffer_.putLong(0);
+    buffer_.putLong(0);
+    buffer_.putLong(0);
+  }
+
+
+  /**
+   * Append a node.
+   * 
+   * @param guess
+   *          ids of the guess words, or null
+   * @param anagrams
+   *          ids of the anagrams, or null
+   * @param linkMask
+   *          bit i is set if the node has a link for i matching letters
+   * @return offset of the node
+   * @throws IOException
+   *           on write error
+   */
+  long writeNode(int[] guess, int[] anagrams, int linkMask) throws IOException {
+    ensure(1);
+    long offset = position();
+    buffer_.put((byte) ((guess != null ? 1 : 0) | (anagrams != null ? 2 : 0)));
+    writeIds(guess);
+    writeIds(anagrams);
+    ensure(1);
+    buffer_.put((byte) linkMask);
+    lastLinks_ = position();
+    for (int i = 0; i < Integer.bitCount(linkMask); i++) {
+      ensure(8);
+      buffer_.putLong(0);
+    }
+    nodes_++;
+    return offset;
+  }
+
+
+  /**
+   * @return offset of the first link of the last node written
+   */
+  long lastLinks() {
+    return lastLinks_;
+  }
+
+
+  /**
+   * Get the offset of a link of a node.
+   * 
+   * @param links
+   *          offset of the first link of the node
+   * @param linkMask
+   *          link mask of the node
+   * @param link
+   *          number of matching letters of the link
+   * @return offset of the link
+   */
+  static long linkOffset(long links, int linkMask, int link) {
+    return links + 8L * Integer.bitCount(linkMask & ((1 << link) - 1));
+  }
+
+
+  /**
+   * Fill in the offset of a child.
+   * 
+   * @param linkOffset
+   *          offset of the link, see {@link #linkOffset(long, int, int)}
+   * @param child
+   *          offset of the child node
+   * @throws IOException
+   *           on write error
+   */
+  void setLink(long linkOffset, long child) throws IOException {
+    putLong(linkOffset, child);
+  }
+
+
+  /**
+   * Record the root and the length of the file and flush it.
+   * 
+   * @param root
+   *          offset of the root node
+   * @throws IOException
+   *           on write error
+   */
+  void finish(long root) throws IOException {
+    putLong(headerEnd_, root);
+    putLong(headerEnd_ + 8, nodes_);
+    putLong(headerEnd_ + 16, position());
+    flush();
+  }
+
+
+  /**
+   * @return number of nodes written
+   */
+  long getNodeCount() {
+    return nodes_;
+  }
+
+
+  @Override
+  public void close() throws IOException {
+    flush();
+    file_.close();
+  }
+
+
+  /*
+   * Write a count and the table indices of word ids.
+   */
+  private void writeIds(int[] ids) throws IOException {
+    if (ids == null) {
+      return;
+    }
+    ensure(4);
+    buffer_.putInt(ids.length);
+    for (int id : ids) {
+      ensure(4);
+      buffer_.putInt(tableIndex_[id]);
+    }
+  }
+
+
+  /*
+   * Overwrite a long, in the buffer if it has not been flushed yet.
+   */
+  private void putLong(long offset, long value) throws IOException {
+    if (offset >= flushed_) {
+      buffer_.putLong((int) (offset - flushed_), value);
+    } else {
+      ByteBuffer b = ByteBuffer.allocate(8);
+      b.putLong(value).flip();
+      while (b.hasRemaining()) {
+        channel_.write(b, offset + b.position());
+      }
+    }
+  }
+
+
+  /*
+   * Current file position of the end of the data.
+   */
+  private long position() {
+    return flushed_ + buffer_.position();
+  }
+
+
+  /*
+   * Make room for n bytes in the buffer.
+   */
+  private void ensure(int n) throws IOException {
+    if (buffer_.remaining() < n) {
+      flush();
+    }
+  }
+
+
+  /*
+   * Write out the buffer.
+   */
+  private void flush() throws IOException {
+    buffer_.flip();
+    while (buffer_.hasRemaining()) {
+      channel_.write(buffer_, flushed_ + buffer_.position());
+    }
+    flushed_ += buffer_.limit();
+    buffer_.clear();
+  }
+}
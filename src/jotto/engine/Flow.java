@@ -0,0 +1,111 @@
+package jotto.engine;
+
+/**
+ * Interfaces for publishing items to subscribers with flow control, with the
+ * same shape and rules as {@code java.util.concurrent.Flow} of Java 9, which
+ * is not available on the Java versions this engine targets. Code written
+ * against these interfaces moves to the standard ones by changing imports.
+ * <p>
+ * A {@link Subscriber} receives {@link Subscriber#onSubscribe onSubscribe}
+ * first, then at most as many {@link Subscriber#onNext onNext} calls as it
+ * has {@link Subscription#request requested}, then possibly one of
+ * {@link Subscriber#onError onError} or {@link Subscriber#onComplete
+ * onComplete}. Calls to one subscriber never overlap.
+ * 
+ * @author Zhe Lu
+ * 
+ */
+public final class Flow {
+
+  /*
+   * Only used internally.
+   */
+  private Flow() {
+  }
+
+
+  /**
+   * A source of items.
+   * 
+   * @param <T>
+   *          type of the items
+   */
+  public interface Publisher<T> {
+
+    /**
+     * Add a subscriber. It is sent {@link Subscriber#onSubscribe} before
+     * anything else.
+     * 
+     * @param subscriber
+     *          the subscriber
+     * @throws NullPointerException
+     *           if subscriber is null
+     */
+    void subscribe(Subscriber<? super T> subscriber);
+  }
+
+
+  /**
+   * A receiver of items.
+   * 
+   * @param <T>
+   *          type of the items
+   */
+  public interface Subscriber<T> {
+
+    /**
+     * Called once before any other call, with the subscription used to
+     * request items.
+     * 
+     * @param subscription
+     *          the new subscription
+     */
+    void onSubscribe(Subscription subscription);
+
+
+    /**
+     * Called with the next item, only once requested.
+     * 
+     * @param item
+     *          the item
+     */
+    void onNext(T item);
+
+
+    /**
+     * Called when the subscription fails. No other calls follow.
+     * 
+     * @param throwable
+     *          the cause
+     */
+    void onError(Throwable throwable);
+
+
+    /**
+     * Called when there are no more items. No other calls follow.
+     */
+    void onComplete();
+  }
+
+
+  /**
+   * Link between a publisher and a subscriber.
+   */
+  public interface Subscription {
+
+    /**
+     * Allow n more items to be sent. A request that is not positive fails the
+     * subscription with an {@link IllegalArgumentException}.
+     * 
+     * @param n
+     *          number of items; demand is capped at Long.MAX_VALUE
+     */
+    void request(long n);
+
+
+    /**
+     * Stop sending items. Items may still arrive for a short while.
+     */
+    void cancel();
+  }
+}
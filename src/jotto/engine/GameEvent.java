@@ -0,0 +1,135 @@
+package jotto.engine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A change in the state of a game, published by a {@link GameSession}.
+ * Events are immutable. Guess events are created once per node of the query
+ * tree and shared by every game passing through it.
+ * 
+ * @author Zhe Lu
+ * 
+ */
+public final class GameEvent {
+
+  /**
+   * Kinds of events.
+   */
+  public enum Type {
+    /**
+     * The engine guesses a word and waits for the number of matching
+     * letters, or for confirmation that it is the word.
+     */
+    GUESS,
+    /**
+     * The possible words are narrowed down to a set of anagrams; the engine
+     * will propose them one at a time.
+     */
+    NARROWED,
+    /**
+     * The engine proposes one of the anagrams and waits to be told whether
+     * it is the word.
+     */
+    CANDIDATE,
+    /**
+     * The word is known.
+     */
+    SOLVED,
+    /**
+     * No word in the dictionary fits the responses.
+     */
+    FAILED
+  }
+
+  private final Type type_;
+  private final String word_;
+  private final int wordId_;
+  private final List<String> candidates_;
+  private final int guesses_;
+  private final int linkMask_;
+
+
+  /*
+   * Only used internally.
+   */
+  GameEvent(Type type, String word, List<String> candidates, int guesses,
+      int linkMask) {
+    type_ = type;
+    word_ = word;
+    wordId_ = word == null ? -1 : WordPool.getDefault().id(word);
+    candidates_ = candidates == null ? null : Collections
+        .unmodifiableList(new ArrayList<String>(candidates));
+    guesses_ = guesses;
+    linkMask_ = linkMask;
+  }
+
+
+  /**
+   * @return kind of event
+   */
+  public Type getType() {
+    return type_;
+  }
+
+
+  /**
+   * @return the word guessed, proposed or solved, or null for
+   *         {@link Type#NARROWED} and {@link Type#FAILED}
+   */
+  public String getWord() {
+    return word_;
+  }
+
+
+  /**
+   * @return id of {@link #getWord()} in the default {@link WordPool}, or -1
+   *         if there is no word
+   */
+  public int getWordId() {
+    return wordId_;
+  }
+
+
+  /**
+   * @return the remaining anagrams for {@link Type#NARROWED}, otherwise null
+   */
+  public List<String> getCandidates() {
+    return candidates_;
+  }
+
+
+  /**
+   * @return number of guesses so far, counting the current one
+   */
+  public int getGuesses() {
+    return guesses_;
+  }
+
+
+  /**
+   * Whether a number of matching letters is a possible response to a
+   * {@link Type#GUESS}.
+   * 
+   * @param n
+   *          number of matching letters
+   * @return true if some word of the dictionary gives that response
+   */
+  public boolean isLinkActive(int n) {
+    return (linkMask_ & (1 << n)) != 0;
+  }
+
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder(type_.toString());
+    if (word_ != null) {
+      sb.append(' ').append(word_);
+    }
+    if (candidates_ != null) {
+      sb.append(' ').append(candidates_);
+    }
+    return sb.append(" (").append(guesses_).append(" guesses)").toString();
+  }
+}
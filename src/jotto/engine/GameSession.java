@@ -0,0 +1,506 @@
+package jotto.engine;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.WeakHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A game against a {@link JottoCore} that pushes {@link GameEvent events} to
+ * subscribers instead of being polled. Each response moves the game once and
+ * the new state is computed once, whatever the number of subscribers.
+ * <p>
+ * A game is driven by {@link #start()}, then {@link #respond(int)} to each
+ * {@link GameEvent.Type#GUESS guess}, and {@link #confirm()} or
+ * {@link #reject()} for each {@link GameEvent.Type#CANDIDATE candidate} once
+ * the words are narrowed down. A session can play any number of games;
+ * {@link #close()} completes the subscribers.
+ * <p>
+ * Each subscriber has its own demand. Events it has not requested yet are
+ * held for it, up to {@link #BUFFER_SIZE}; past that it is failed with an
+ * {@link IllegalStateException}. A subscriber whose onNext throws is
+ * cancelled and sent the exception with onError; the others are unaffected.
+ * A new subscriber is first sent the event of
+ * the current state, if a game has started. Events are delivered on the
+ * thread that drives the game or requests them. The game must be driven by
+ * one thread at a time, which may be a subscriber responding from
+ * {@link Flow.Subscriber#onNext onNext}.
+ * <p>
+ * Each session walks the query tree of its core with a cursor of its own, so
+ * any number of sessions can play on one core at once without moving each
+ * other's games or the core's own position.
+ *
+ * @author Zhe Lu
+ *
+ */
+public class GameSession implements Flow.Publisher<GameEvent> {
+
+  /**
+   * Most events held for a subscriber that has not requested them.
+   */
+  public static final int BUFFER_SIZE = 256;
+
+  // guess events of each node by index of the guess, shared by the sessions
+  // so that moving to a guess allocates nothing; a node's guesses always come
+  // after the same number of guesses
+  private static final Map<Node, GameEvent[]> guessEvents_ = Collections
+      .synchronizedMap(new WeakHashMap<Node, GameEvent[]>());
+
+  private final JottoCore core_;
+  private final QueryTree tree_;
+  private final Random random_ = new Random(QueryTree.SEED);
+  private final List<SessionSubscription> subscriptions_ = new CopyOnWriteArrayList<SessionSubscription>();
+  private volatile GameEvent current_;
+  private String lastGuess_;
+  private Iterator<String> candidates_;
+  private int guesses_;
+  private volatile boolean closed_ = false;
+  // events published while subscribers are being sent an earlier one
+  private final Queue<GameEvent> pending_ = new ArrayDeque<GameEvent>();
+  private boolean publishing_ = false;
+
+
+  /**
+   * Constructor.
+   *
+   * @param core
+   *          engine making the guesses; its query tree is shared, not moved
+   */
+  public GameSession(JottoCore core) {
+    core_ = core;
+    tree_ = core.newCursor();
+  }
+
+
+  @Override
+  public void subscribe(Flow.Subscriber<? super GameEvent> subscriber) {
+    if (subscriber == null) {
+      throw new NullPointerException("subscriber");
+    }
+    SessionSubscription s = new SessionSubscription(subscriber);
+    subscriber.onSubscribe(s);
+    if (closed_) {
+      s.complete();
+      return;
+    }
+    subscriptions_.add(s);
+    if (current_ != null) {
+      s.offer(current_);
+    }
+  }
+
+
+  /**
+   * Seed the choice of guesses and the order of candidates, so that the same
+   * responses give the same events.
+   *
+   * @param seed
+   *          seed of the random choices
+   */
+  public void setSeed(long seed) {
+    tree_.setSeed(seed);
+    random_.setSeed(seed);
+  }
+
+
+  /**
+   * Start a new game.
+   */
+  public void start() {
+    tree_.start();
+    guesses_ = 1;
+    lastGuess_ = null;
+    candidates_ = null;
+    advance();
+  }
+
+
+  /**
+   * Respond to a {@link GameEvent.Type#GUESS guess}.
+   *
+   * @param n
+   *          number of letters the guess has in common with the word
+   * @throws IllegalStateException
+   *           if the engine is not waiting for a number of letters
+   * @throws IllegalArgumentException
+   *           if no word of the dictionary gives that response
+   */
+  public void respond(int n) {
+    expect(GameEvent.Type.GUESS);
+    if (!current_.isLinkActive(n)) {
+      throw new IllegalArgumentException("no word matches " + n
+          + " letters of " + current_.getWord());
+    }
+    guesses_++;
+    tree_.traverse(n);
+    advance();
+  }
+
+
+  /**
+   * Confirm that the word guessed or proposed is the word.
+   *
+   * @throws IllegalStateException
+   *           if no word is being guessed
+   */
+  public void confirm() {
+    if (current_ == null || (current_.getType() != GameEvent.Type.GUESS
+        && current_.getType() != GameEvent.Type.CANDIDATE)) {
+      throw new IllegalStateException("no word is being guessed");
+    }
+    publish(new GameEvent(GameEvent.Type.SOLVED, lastGuess_, null, guesses_,
+        0));
+  }
+
+
+  /**
+   * Reject the word proposed, moving to the next candidate.
+   *
+   * @throws IllegalStateException
+   *           if no candidate is being proposed
+   */
+  public void reject() {
+    expect(GameEvent.Type.CANDIDATE);
+    guesses_++;
+    advance();
+  }
+
+
+  /**
+   * Complete every subscriber. Later subscribers are completed at once.
+   */
+  public void close() {
+    closed_ = true;
+    for (SessionSubscription s : subscriptions_) {
+      s.complete();
+    }
+    subscriptions_.clear();
+  }
+
+
+  /**
+   * @return the event of the current state, or null before the first game
+   */
+  public GameEvent getCurrent() {
+    return current_;
+  }
+
+
+  /*
+   * Compute the next state and publish it, querying the engine once.
+   */
+  private void advance() {
+    if (candidates_ == null) {
+      boolean metrics = EngineMetrics.isCollecting();
+      long startTime = metrics ? System.nanoTime() : 0;
+      int index = tree_.getGuessIndex();
+      if (index >= 0) {
+        GameEvent guess = guessEvent(tree_.getCurrentNode(), index);
+        if (metrics) {
+          core_.guessed(System.nanoTime() - startTime);
+        }
+        lastGuess_ = guess.getWord();
+        publish(guess);
+        return;
+      }
+      List<String> candidates = tree_.getCandidates();
+      if (candidates == null) {
+        publish(new GameEvent(GameEvent.Type.FAILED, null, null, guesses_, 0));
+        return;
+      }
+      if (candidates.size() == 1) {
+        lastGuess_ = candidates.get(0);
+        publish(new GameEvent(GameEvent.Type.SOLVED, lastGuess_, null,
+            guesses_, 0));
+        return;
+      }
+      List<String> anagrams = new ArrayList<String>(candidates);
+      Collections.shuffle(anagrams, random_);
+      // the last guess was already ruled out
+      anagrams.remove(lastGuess_);
+      publish(new GameEvent(GameEvent.Type.NARROWED, null, anagrams,
+          guesses_, 0));
+      candidates_ = anagrams.iterator();
+    }
+    if (!candidates_.hasNext()) {
+      publish(new GameEvent(GameEvent.Type.FAILED, null, null, guesses_, 0));
+      return;
+    }
+    lastGuess_ = candidates_.next();
+    publish(new GameEvent(GameEvent.Type.CANDIDATE, lastGuess_, null,
+        guesses_, 0));
+  }
+
+
+  /*
+   * The event of the guess at an index of a node, made on first use.
+   */
+  private GameEvent guessEvent(Node n, int index) {
+    GameEvent[] events = guessEvents_.get(n);
+    if (events == null) {
+      events = new GameEvent[n.getGuess().length];
+      guessEvents_.put(n, events);
+    }
+    GameEvent event = events[index];
+    if (event == null || event.getGuesses() != guesses_) {
+      event = new GameEvent(GameEvent.Type.GUESS, WordPool.getDefault().word(
+          n.getGuess()[index]), null, guesses_, n.getLinkMask());
+      events[index] = event;
+    }
+    return event;
+  }
+
+
+  /*
+   * Most guesses a game takes to find a secret among the anagrams of a leaf
+   * reached after a number of guesses, as advance() plays it: if the last
+   * guess was the secret the game is over, otherwise the last guess is
+   * dropped from the shuffled anagrams and the secret may be proposed last.
+   */
+  static int worstGuesses(int guesses, int anagrams, boolean secretGuessed,
+      boolean guessInLeaf) {
+    return secretGuessed ? guesses : guesses + anagrams - (guessInLeaf ? 1 : 0);
+  }
+
+
+  /*
+   * Mean guesses to find a secret among the anagrams of a leaf, over the
+   * order of the shuffled anagrams. See worstGuesses().
+   */
+  static double expectedGuesses(int guesses, int anagrams,
+      boolean secretGuessed, boolean guessInLeaf) {
+    return secretGuessed ? guesses : guesses
+        + (anagrams - (guessInLeaf ? 1 : 0) + 1) / 2.0;
+  }
+
+
+  /*
+   * Most guesses to find the secret at an index of the anagrams of a leaf,
+   * the last guess being any of the parent's equal guesses, or none at the
+   * root.
+   */
+  static int worstGuesses(int guesses, int[] anagrams, int secret,
+      int[] parentGuess) {
+    if (parentGuess == null) {
+      return worstGuesses(guesses, anagrams.length, false, false);
+    }
+    int worst = 0;
+    for (int guess : parentGuess) {
+      worst = Math.max(worst, worstGuesses(guesses, anagrams.length,
+          guess == anagrams[secret], contains(anagrams, guess)));
+    }
+    return worst;
+  }
+
+
+  /*
+   * Mean guesses to find the secret at an index of the anagrams of a leaf,
+   * over the parent's equal guesses, chosen uniformly, and the order of the
+   * shuffled anagrams.
+   */
+  static double expectedGuesses(int guesses, int[] anagrams, int secret,
+      int[] parentGuess) {
+    if (parentGuess == null) {
+      return expectedGuesses(guesses, anagrams.length, false, false);
+    }
+    double sum = 0;
+    for (int guess : parentGuess) {
+      sum += expectedGuesses(guesses, anagrams.length,
+          guess == anagrams[secret], contains(anagrams, guess));
+    }
+    return sum / parentGuess.length;
+  }
+
+
+  private static boolean contains(int[] ids, int id) {
+    for (int i : ids) {
+      if (i == id) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+
+  /*
+   * Check the engine is waiting for a response to an event of a type.
+   */
+  private void expect(GameEvent.Type type) {
+    if (current_ == null || current_.getType() != type) {
+      throw new IllegalStateException("not waiting for a response to a "
+          + type);
+    }
+  }
+
+
+  /*
+   * Make an event the current state and send it to every subscriber. An
+   * event published by a subscriber responding in onNext is sent after the
+   * event being sent, so every subscriber sees events in order.
+   */
+  private void publish(GameEvent event) {
+    current_ = event;
+    pending_.add(event);
+    if (publishing_) {
+      return;
+    }
+    publishing_ = true;
+    try {
+      GameEvent e;
+      while ((e = pending_.poll()) != null) {
+        for (SessionSubscription s : subscriptions_) {
+          s.offer(e);
+        }
+      }
+    } finally {
+      publishing_ = false;
+    }
+  }
+
+
+  /*
+   * Events held for one subscriber and its demand. Events are delivered by
+   * whichever thread finds the subscriber idle; others only queue them.
+   */
+  private class SessionSubscription implements Flow.Subscription {
+    private final Flow.Subscriber<? super GameEvent> subscriber_;
+    private final Queue<GameEvent> queue_ = new ArrayDeque<GameEvent>();
+    private long demand_ = 0;
+    private boolean emitting_ = false;
+    private boolean cancelled_ = false;
+    private boolean completing_ = false;
+    private Throwable error_;
+
+
+    SessionSubscription(Flow.Subscriber<? super GameEvent> subscriber) {
+      subscriber_ = subscriber;
+    }
+
+
+    @Override
+    public void request(long n) {
+      synchronized (this) {
+        if (cancelled_) {
+          return;
+        }
+        if (n <= 0) {
+          error_ = new IllegalArgumentException(
+              "request must be positive: " + n);
+          queue_.clear();
+        } else {
+          demand_ = demand_ + n < 0 ? Long.MAX_VALUE : demand_ + n;
+        }
+      }
+      drain();
+    }
+
+
+    @Override
+    public void cancel() {
+      synchronized (this) {
+        cancelled_ = true;
+        queue_.clear();
+      }
+      subscriptions_.remove(this);
+    }
+
+
+    /*
+     * Queue an event, failing the subscriber if too many are waiting.
+     */
+    void offer(GameEvent event) {
+      synchronized (this) {
+        if (cancelled_ || error_ != null) {
+          return;
+        }
+        if (queue_.size() >= BUFFER_SIZE) {
+          error_ = new IllegalStateException("more than " + BUFFER_SIZE
+              + " events not requested");
+          queue_.clear();
+        } else {
+          queue_.add(event);
+        }
+      }
+      drain();
+    }
+
+
+    /*
+     * Complete once the queued events are delivered.
+     */
+    void complete() {
+      synchronized (this) {
+        completing_ = true;
+      }
+      drain();
+    }
+
+
+    /*
+     * Deliver what the demand allows, unless another call is delivering.
+     */
+    private void drain() {
+      synchronized (this) {
+        if (emitting_) {
+          return;
+        }
+        emitting_ = true;
+      }
+      while (true) {
+        GameEvent event = null;
+        Throwable error = null;
+        boolean complete = false;
+        synchronized (this) {
+          if (cancelled_) {
+            emitting_ = false;
+            return;
+          }
+          if (error_ != null) {
+            error = error_;
+            cancelled_ = true;
+          } else if (demand_ > 0 && !queue_.isEmpty()) {
+            event = queue_.poll();
+            demand_--;
+          } else if (completing_ && queue_.isEmpty()) {
+            complete = true;
+            cancelled_ = true;
+          } else {
+            emitting_ = false;
+            return;
+          }
+        }
+        if (error != null) {
+          subscriptions_.remove(this);
+          try {
+            subscriber_.onError(error);
+          } catch (RuntimeException e) {
+            // already dropped
+          }
+        } else if (complete) {
+          subscriptions_.remove(this);
+          try {
+            subscriber_.onComplete();
+          } catch (RuntimeException e) {
+            // already dropped
+          }
+        } else {
+          try {
+            subscriber_.onNext(event);
+          } catch (RuntimeException e) {
+            // drop the subscriber; the others keep receiving events
+            synchronized (this) {
+              error_ = e;
+              queue_.clear();
+            }
+          }
+        }
+      }
+    }
+  }
+}
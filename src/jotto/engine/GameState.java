@@ -0,0 +1,131 @@
+package jotto.engine;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The history of guesses and responses of one game. Game states are immutable;
+ * {@link #next(String, int)} returns the state after another response.
+ * 
+ * @author Zhe Lu
+ * 
+ */
+public final class GameState {
+
+  private final String[] guesses_;
+  private final int[] matches_;
+
+
+  /**
+   * A game with no guesses made yet.
+   */
+  public GameState() {
+    this(new String[0], new int[0]);
+  }
+
+
+  /*
+   * Only used internally.
+   */
+  private GameState(String[] guesses, int[] matches) {
+    guesses_ = guesses;
+    matches_ = matches;
+  }
+
+
+  /**
+   * Get the state after a guess was answered.
+   * 
+   * @param guess
+   *          the guessed word
+   * @param matches
+   *          the number of matching letters
+   * @return the new state
+   */
+  public GameState next(String guess, int matches) {
+    if (matches < 0 || matches > 5) {
+      throw new IllegalArgumentException(
+          "The number of matches must be between 0 and 5, inclusive.");
+    }
+    String[] guesses = Arrays.copyOf(guesses_, guesses_.length + 1);
+    int[] m = Arrays.copyOf(matches_, matches_.length + 1);
+    guesses[guesses_.length] = guess;
+    m[matches_.length] = matches;
+    return new GameState(guesses, m);
+  }
+
+
+  /**
+   * @return number of guesses answered
+   */
+  public int size() {
+    return guesses_.length;
+  }
+
+
+  /**
+   * @return the guessed words, in order
+   */
+  public List<String> getGuesses() {
+    return Collections.unmodifiableList(Arrays.asList(guesses_));
+  }
+
+
+  /**
+   * @param i
+   *          index of the guess
+   * @return the ith guessed word
+   */
+  public String getGuess(int i) {
+    return guesses_[i];
+  }
+
+
+  /**
+   * @param i
+   *          index of the guess
+   * @return the number of matching letters for the ith guess
+   */
+  public int getMatches(int i) {
+    return matches_[i];
+  }
+
+
+  /*
+   * Copy of the responses, parallel to the guesses.
+   */
+  int[] matches() {
+    return matches_.clone();
+  }
+
+
+  @Override
+  public boolean equals(Object o) {
+    if (!(o instanceof GameState)) {
+      return false;
+    }
+    GameState other = (GameState) o;
+    return Arrays.equals(guesses_, other.guesses_)
+        && Arrays.equals(matches_, other.matches_);
+  }
+
+
+  @Override
+  public int hashCode() {
+    return 31 * Arrays.hashCode(guesses_) + Arrays.hashCode(matches_);
+  }
+
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder("[");
+    for (int i = 0; i < guesses_.length; i++) {
+      if (i > 0) {
+        sb.append(", ");
+      }
+      sb.append(guesses_[i]).append(':').append(matches_[i]);
+    }
+    return sb.append(']').toString();
+  }
+}
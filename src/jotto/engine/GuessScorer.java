@@ -0,0 +1,22 @@
+package jotto.engine;
+
+/**
+ * Scores a guess by how it partitions the remaining words into bins by the
+ * number of matching letters. Higher scores are better.
+ * 
+ * @author Zhe Lu
+ * 
+ */
+public interface GuessScorer {
+
+  /**
+   * Score a partition.
+   * 
+   * @param counts
+   *          number of words in each bin, indexed by number of matching letters
+   * @param N
+   *          total number of words
+   * @return score of the partition, higher is better
+   */
+  double score(int[] counts, int N);
+}
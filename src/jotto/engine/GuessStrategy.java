@@ -0,0 +1,27 @@
+package jotto.engine;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Chooses the next guess word for a set of remaining possibilities. Used both
+ * when building a {@link QueryTree} and when solving interactively.
+ * 
+ * @author Zhe Lu
+ * 
+ */
+public interface GuessStrategy {
+
+  /**
+   * Determine the guess to make for the remaining possibilities.
+   * 
+   * @param possibilities
+   *          sorted-letter keys of the anagram classes still possible
+   * @param allWords
+   *          map of all sorted-letter keys to their anagrams
+   * @return sorted-letter key of the anagram class to guess
+   */
+  String findBestWord(Set<String> possibilities,
+      Map<String, List<String>> allWords);
+}
@@ -0,0 +1,247 @@
+package jotto.engine;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Restricts another strategy to guesses consistent with every previous
+ * response, as required by "hard mode" Jotto variants. The remaining
+ * possibilities are exactly the consistent words, so the wrapped strategy only
+ * considers those as candidates.
+ * <p>
+ * The candidates are given to the wrapped strategy as a view of the
+ * dictionary backed by a {@link ConsistencyIndex} bitset of the possibilities,
+ * so no map of them is copied per guess. The index is built on first use for
+ * each dictionary.
+ * 
+ * @author Zhe Lu
+ * 
+ */
+public class HardModeStrategy implements GuessStrategy {
+
+  private final GuessStrategy strategy_;
+  // index of the dictionary last seen; racing builds may each make one
+  private volatile Indexed indexed_;
+
+
+  /**
+   * Hard mode for the exhaustive strategy.
+   */
+  public HardModeStrategy() {
+    this(new ExhaustiveStrategy());
+  }
+
+
+  /**
+   * Constructor.
+   * 
+   * @param strategy
+   *          strategy choosing among the consistent words
+   */
+  public HardModeStrategy(GuessStrategy strategy) {
+    strategy_ = strategy;
+  }
+
+
+  @Override
+  public String findBestWord(Set<String> possibilities,
+      Map<String, List<String>> allWords) {
+    if (possibilities.size() == allWords.size()) {
+      return strategy_.findBestWord(possibilities, allWords);
+    }
+    Indexed indexed = index(allWords);
+    long[] set = new long[indexed.index_.words()];
+    for (String w : possibilities) {
+      int id = indexed.index_.keyId(w);
+      set[id >>> 6] |= 1L << id;
+    }
+    return strategy_.findBestWord(possibilities, new Consistent(indexed, set,
+        possibilities.size()));
+  }
+
+
+  @Override
+  public String toString() {
+    return "hard " + strategy_;
+  }
+
+
+  /*
+   * The index of a dictionary, reused while the same dictionary is given.
+   */
+  private Indexed index(Map<String, List<String>> allWords) {
+    Indexed indexed = indexed_;
+    if (indexed == null || indexed.allWords_ != allWords) {
+      indexed = new Indexed(allWords);
+      indexed_ = indexed;
+    }
+    return indexed;
+  }
+
+
+  /*
+   * A dictionary, its index and the anagrams of each class by id.
+   */
+  private static final class Indexed {
+    private final Map<String, List<String>> allWords_;
+    private final ConsistencyIndex index_;
+    private final List<List<String>> anagrams_;
+
+
+    Indexed(Map<String, List<String>> allWords) {
+      allWords_ = allWords;
+      index_ = new ConsistencyIndex(allWords.keySet());
+      anagrams_ = new ArrayList<List<String>>(index_.size());
+      for (int id = 0; id < index_.size(); id++) {
+        anagrams_.add(allWords.get(index_.key(id)));
+      }
+    }
+  }
+
+
+  /*
+   * Read-only view of the dictionary restricted to a set of classes. Keys
+   * iterate in sorted order.
+   */
+  private static final class Consistent extends
+      AbstractMap<String, List<String>> {
+    private final ConsistencyIndex index_;
+    private final List<List<String>> anagrams_;
+    private final long[] set_;
+    private final int size_;
+
+
+    Consistent(Indexed indexed, long[] set, int size) {
+      index_ = indexed.index_;
+      anagrams_ = indexed.anagrams_;
+      set_ = set;
+      size_ = size;
+    }
+
+
+    @Override
+    public int size() {
+      return size_;
+    }
+
+
+    @Override
+    public boolean containsKey(Object key) {
+      return id(key) >= 0;
+    }
+
+
+    @Override
+    public List<String> get(Object key) {
+      int id = id(key);
+      return id < 0 ? null : anagrams_.get(id);
+    }
+
+
+    /*
+     * Id of a key in the set, or -1.
+     */
+    private int id(Object key) {
+      if (!(key instanceof String)) {
+        return -1;
+      }
+      int id = index_.keyId((String) key);
+      return id >= 0 && (set_[id >>> 6] & (1L << id)) != 0 ? id : -1;
+    }
+
+
+    @Override
+    public Set<String> keySet() {
+      return new AbstractSet<String>() {
+        @Override
+        public Iterator<String> iterator() {
+          return new Ids<String>() {
+            @Override
+            String element(int id) {
+              return index_.key(id);
+            }
+          };
+        }
+
+
+        @Override
+        public boolean contains(Object o) {
+          return containsKey(o);
+        }
+
+
+        @Override
+        public int size() {
+          return size_;
+        }
+      };
+    }
+
+
+    @Override
+    public Set<Map.Entry<String, List<String>>> entrySet() {
+      return new AbstractSet<Map.Entry<String, List<String>>>() {
+        @Override
+        public Iterator<Map.Entry<String, List<String>>> iterator() {
+          return new Ids<Map.Entry<String, List<String>>>() {
+            @Override
+            Map.Entry<String, List<String>> element(int id) {
+              return new SimpleImmutableEntry<String, List<String>>(index_
+                  .key(id), anagrams_.get(id));
+            }
+          };
+        }
+
+
+        @Override
+        public int size() {
+          return size_;
+        }
+      };
+    }
+
+
+    /*
+     * Iterates the classes of the set in id order.
+     */
+    private abstract class Ids<E> implements Iterator<E> {
+      private int word_ = 0;
+      private long bits_ = set_.length == 0 ? 0 : set_[0];
+
+
+      abstract E element(int id);
+
+
+      @Override
+      public boolean hasNext() {
+        while (bits_ == 0 && word_ + 1 < set_.length) {
+          bits_ = set_[++word_];
+        }
+        return bits_ != 0;
+      }
+
+
+      @Override
+      public E next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        int id = (word_ << 6) + Long.numberOfTrailingZeros(bits_);
+        bits_ &= bits_ - 1;
+        return element(id);
+      }
+
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    }
+  }
+}
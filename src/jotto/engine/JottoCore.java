@@ -3,14 +3,17 @@ package jotto.engine;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Scanner;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.List;
 import java.util.zip.DataFormatException;
 
@@ -23,15 +26,63 @@ import java.util.zip.DataFormatException;
  */
 public class JottoCore {
 
-  private Map<String, List<String>> allWords_ = new HashMap<String, List<String>>();
+  /**
+   * Classpath resource holding the tree of the bundled word list, in the flat
+   * format. Rebuild it whenever words.txt or the default strategy changes:
+   * 
+   * <pre>
+   * TreeTool build src/jotto/resources/words.txt src/jotto/resources/words.jtf
+   * </pre>
+   * 
+   * Builds are deterministic, so an unchanged tree rebuilds byte for byte.
+   */
+  public static final String DEFAULT_TREE_RESOURCE = "jotto/resources/words.jtf";
+
+  /**
+   * Classpath resource holding the bundled word list, from which
+   * {@link #DEFAULT_TREE_RESOURCE} is built.
+   */
+  public static final String DEFAULT_WORDS_RESOURCE = "jotto/resources/words.txt";
+
+  // taken from the words of the tree on first use when loaded from a tree
+  private Map<String, List<String>> allWords_;
   private QueryTree qt_;
+  private GuessStrategy strategy_ = new ExhaustiveStrategy();
+  // built on first use
+  private ConsistencyIndex index_;
+  // 0 when the tree was read rather than built
+  private long buildNanos_ = 0;
+  private final LatencyHistogram guessLatency_ = new LatencyHistogram();
 
 
   /*
-   * Only used internally.
+   * Only used internally. Searches off the tree keep to hard mode if the tree
+   * was built in it.
    */
-  private JottoCore(QueryTree qt) {
+  JottoCore(QueryTree qt) {
     qt_ = qt;
+    if (qt.isHardMode()) {
+      strategy_ = new HardModeStrategy();
+    }
+  }
+
+
+  /*
+   * Only used internally, for a query tree whose dictionary is known.
+   */
+  JottoCore(QueryTree qt, Map<String, List<String>> allWords) {
+    this(qt);
+    allWords_ = allWords;
+  }
+
+
+  /*
+   * Only used internally, for a query tree built elsewhere.
+   */
+  private JottoCore(Map<String, List<String>> allWords,
+      GuessStrategy strategy) {
+    allWords_ = allWords;
+    strategy_ = strategy;
   }
 
 
@@ -44,25 +95,67 @@ public class JottoCore {
    */
   public JottoCore(File file) throws FileNotFoundException,
       DataFormatException {
-    Scanner sc = new Scanner(file);
-    while (sc.hasNext()) {
-      String word = sc.next().trim().toLowerCase();
-      if (word.length() != 5)
-        continue;
-      String letters = sortLetters(word);
-      if (allWords_.containsKey(letters)) {
-        allWords_.get(letters).add(word);
-      } else {
-        List<String> words = new ArrayList<String>();
-        words.add(word);
-        allWords_.put(letters, words);
-      }
-    }
-    sc.close();
-    if (allWords_.size() == 0) {
-      throw new DataFormatException();
+    this(file, new ExhaustiveStrategy());
+  }
+
+
+  /**
+   * Constructor searching every word for the best score of a scorer.
+   * 
+   * @param file
+   *          list of words
+   * @param scorer
+   *          scorer used to build the query tree and for solving
+   * @throws FileNotFoundException
+   *           when words resource not found
+   * @throws DataFormatException
+   */
+  public JottoCore(File file, GuessScorer scorer)
+      throws FileNotFoundException, DataFormatException {
+    this(file, new ExhaustiveStrategy(scorer));
+  }
+
+
+  /**
+   * Constructor using a specific strategy for choosing guess words.
+   * 
+   * @param file
+   *          list of words
+   * @param strategy
+   *          strategy used to build the query tree and for solving
+   * @throws FileNotFoundException
+   *           when words resource not found
+   * @throws DataFormatException
+   */
+  public JottoCore(File file, GuessStrategy strategy)
+      throws FileNotFoundException, DataFormatException {
+    this(file, strategy, 1);
+  }
+
+
+  /**
+   * Constructor building the query tree with several threads.
+   * 
+   * @param file
+   *          list of words
+   * @param strategy
+   *          strategy used to build the query tree and for solving; must be
+   *          thread-safe if parallelism is more than 1
+   * @param parallelism
+   *          number of threads building the query tree
+   * @throws FileNotFoundException
+   *           when words resource not found
+   * @throws DataFormatException
+   */
+  public JottoCore(File file, GuessStrategy strategy, int parallelism)
+      throws FileNotFoundException, DataFormatException {
+    strategy_ = strategy;
+    long startTime = System.nanoTime();
+    allWords_ = readWordList(file);
+    if (EngineMetrics.isCollecting()) {
+      EngineMetrics.parsed(System.nanoTime() - startTime);
     }
-    buildQueryTree();
+    buildQueryTree(parallelism);
   }
 
 
@@ -70,7 +163,15 @@ public class JottoCore {
    * Determine word that gives highest information gain
    */
   private String findBestWord(Set<String> orderedLetters) {
-    return findBestWord(orderedLetters, allWords_);
+    if (!EngineMetrics.isCollecting()) {
+      return strategy_.findBestWord(orderedLetters, getAllWords());
+    }
+    long startTime = System.nanoTime();
+    String w = strategy_.findBestWord(orderedLetters, getAllWords());
+    long nanos = System.nanoTime() - startTime;
+    EngineMetrics.findBestWord(nanos);
+    EngineMetrics.guess(guessLatency_, nanos);
+    return w;
   }
 
 
@@ -78,28 +179,84 @@ public class JottoCore {
    * Determine word that gives highest information gain
    */
   static String findBestWord(Set<String> orderedLetters,
-      Map<String, List<String>> allWords) {
+      Map<String, List<String>> allWords, GuessScorer scorer) {
+    return findBestWord(orderedLetters, allWords.keySet(), allWords, scorer);
+  }
+
+
+  /*
+   * Determine the word among candidates with the best score. Candidates that
+   * do not separate the words are never chosen; returns an empty string if no
+   * candidate separates them.
+   */
+  static String findBestWord(Set<String> orderedLetters,
+      Collection<String> candidates, Map<String, List<String>> allWords,
+      GuessScorer scorer) {
     String bestWord = "";
-    double bestEntropy = 0;
-    for (String w : allWords.keySet()) {
-      int[] count = new int[6];
-      int N = 0;
-      for (String word : orderedLetters) {
-        int match = numMatchingLetters(w, word);
-        int numWords = allWords.get(word).size();
-        count[match] += numWords;
-        N += numWords;
-      }
-      double entropy = getEntropy(count, N);
-      if (entropy > bestEntropy) {
-        bestWord = w;
-        bestEntropy = entropy;
+    double bestScore = Double.NEGATIVE_INFINITY;
+    int[] count = new int[6];
+    for (String w : candidates) {
+      int N = partition(w, orderedLetters, allWords, count);
+      if (separates(count, N)) {
+        double score = scorer.score(count, N);
+        // ties go to the first word in sorted order, whatever the order of
+        // the candidates
+        if (score > bestScore
+            || (score == bestScore && w.compareTo(bestWord) < 0)) {
+          bestWord = w;
+          bestScore = score;
+        }
       }
     }
     return bestWord;
   }
 
 
+  /*
+   * Score of the partition of orderedLetters induced by guessing w
+   */
+  static double getScore(String w, Set<String> orderedLetters,
+      Map<String, List<String>> allWords, GuessScorer scorer) {
+    int[] count = new int[6];
+    int N = partition(w, orderedLetters, allWords, count);
+    return scorer.score(count, N);
+  }
+
+
+  /*
+   * Count the words of orderedLetters matching each number of letters of w.
+   * Returns the total number of words.
+   */
+  private static int partition(String w, Set<String> orderedLetters,
+      Map<String, List<String>> allWords, int[] count) {
+    if (EngineMetrics.isCollecting()) {
+      EngineMetrics.numMatchingLetters(orderedLetters.size());
+    }
+    Arrays.fill(count, 0);
+    int N = 0;
+    for (String word : orderedLetters) {
+      int match = numMatchingLetters(w, word);
+      int numWords = allWords.get(word).size();
+      count[match] += numWords;
+      N += numWords;
+    }
+    return N;
+  }
+
+
+  /*
+   * Whether a partition has more than one non-empty bin.
+   */
+  private static boolean separates(int[] count, int N) {
+    for (int i = 0; i < count.length; i++) {
+      if (count[i] == N) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+
   /**
    * Prints a path to the target
    * 
@@ -108,31 +265,14 @@ public class JottoCore {
    * @return a List of Strings that match the target word
    */
   public List<String> solve(String target) {
-    String sortedTarget = sortLetters(target);
-    if (!allWords_.containsKey(sortedTarget)
-        || !allWords_.get(sortedTarget).contains(target)) {
+    Map<String, List<String>> allWords = getAllWords();
+    String sortedTarget = WordPool.isWord(target) ? sortLetters(target) : null;
+    if (sortedTarget == null || !allWords.containsKey(sortedTarget)
+        || !allWords.get(sortedTarget).contains(target)) {
       System.out.println("Sorry I don't know this word...");
       System.exit(0);
     }
-    Set<String> letterSet = allWords_.keySet();
-    while (letterSet.size() > 1) {
-      String w = findBestWord(letterSet);
-      int match = numMatchingLetters(sortedTarget, w);
-      System.out.println(allWords_.get(w).get(0) + ": " + match);
-      Set<String> workingSet = new HashSet<String>();
-      for (String s : letterSet) {
-        if (numMatchingLetters(s, w) == match) {
-          workingSet.add(s);
-        }
-      }
-      letterSet = workingSet;
-    }
-    if (letterSet.size() == 0) {
-      return null;
-    } else {
-      Iterator<String> it = letterSet.iterator();
-      return allWords_.get(it.next());
-    }
+    return solve(sortedTarget, null);
   }
 
 
@@ -143,44 +283,98 @@ public class JottoCore {
    */
   public List<String> solve() {
     Scanner sc = new Scanner(System.in);
-    Set<String> letterSet = allWords_.keySet();
+    List<String> retValue = solve(null, sc);
+    sc.close();
+    return retValue;
+  }
+
+
+  /*
+   * Follow the query tree, so each guess is a lookup. If the responses leave
+   * the tree (e.g. a guess was mis-scored) or there is no tree, continue by
+   * searching for guesses among the words consistent with the responses.
+   * A core loaded from a tree searches the words of the tree. Responses come
+   * from the sorted target if given, otherwise from sc. Returns null if no
+   * word gives the responses.
+   */
+  private List<String> solve(String sortedTarget, Scanner sc) {
+    List<String> guesses = new ArrayList<String>();
+    int[] matches = new int[8];
+    Node n = qt_ == null ? null : qt_.getRoot();
+    while (n != null && n.getGuess() != null) {
+      boolean metrics = EngineMetrics.isCollecting();
+      long startTime = metrics ? System.nanoTime() : 0;
+      String w = WordPool.getDefault().word(n.getGuess()[0]);
+      if (metrics) {
+        EngineMetrics.guess(guessLatency_, System.nanoTime() - startTime);
+      }
+      int match = respond(w, sortedTarget, sc);
+      if (guesses.size() == matches.length) {
+        matches = Arrays.copyOf(matches, matches.length * 2);
+      }
+      matches[guesses.size()] = match;
+      guesses.add(w);
+      n = n.getLink(match);
+    }
+    if (n != null) {
+      return WordPool.getDefault().words(n.getAnagrams());
+    }
+
+    ConsistencyIndex index = getIndex();
+    long[] remaining = index.consistent(guesses, matches);
+    Set<String> letterSet = index.toKeys(remaining);
     while (letterSet.size() > 1) {
       String w = findBestWord(letterSet);
-      System.out.print("How many letters does your word match in \""
-          + allWords_.get(w).get(0) + "\": ");
-      int match = sc.nextInt();
-      Set<String> workingSet = new HashSet<String>();
-      for (String s : letterSet) {
-        if (numMatchingLetters(s, w) == match) {
-          workingSet.add(s);
-        }
-      }
-      letterSet = workingSet;
+      int match = respond(getAllWords().get(w).get(0), sortedTarget, sc);
+      index.filter(remaining, w, match);
+      letterSet = index.toKeys(remaining);
     }
-    sc.close();
     if (letterSet.size() == 0) {
       return null;
     } else {
       Iterator<String> it = letterSet.iterator();
-      return allWords_.get(it.next());
+      return getAllWords().get(it.next());
     }
-
   }
 
 
   /*
-   * Get the entropy of a set of N items divided into bins each with count[i]
+   * Print a guess and get its number of matching letters, either computed
+   * from the sorted target or read from sc.
    */
-  private static double getEntropy(int[] counts, int N) {
-    double entropy = 0;
-    for (int i = 0; i < counts.length; i++) {
-      if (counts[i] == 0) {
-        continue;
+  private static int respond(String guess, String sortedTarget, Scanner sc) {
+    if (sortedTarget != null) {
+      int match = numMatchingLetters(sortedTarget, sortLetters(guess));
+      if (EngineMetrics.isCollecting()) {
+        EngineMetrics.numMatchingLetters(1);
       }
-      double p = (double) counts[i] / N;
-      entropy -= p * Math.log(p);
+      System.out.println(guess + ": " + match);
+      return match;
     }
-    return entropy;
+    while (true) {
+      System.out.print("How many letters does your word match in \""
+          + guess + "\": ");
+      int match = sc.nextInt();
+      if (match >= 0 && match <= 5) {
+        return match;
+      }
+      System.out.println("The number of matches must be between 0 and 5, "
+          + "inclusive.");
+    }
+  }
+
+
+  /**
+   * Start a game that tolerates mis-reported responses.
+   * 
+   * @param k
+   *          number of mis-reported responses to tolerate, at most 8
+   * @return the new game
+   * @throws IllegalArgumentException
+   *           if k is out of range or there are no words
+   */
+  public TolerantSession tolerantSession(int k) {
+    return new TolerantSession(this, k);
   }
 
 
@@ -192,6 +386,18 @@ public class JottoCore {
   }
 
 
+  /**
+   * Seed the choice among equally good guess words, so that the same
+   * responses give the same guesses from here on.
+   * 
+   * @param seed
+   *          seed of the random choice
+   */
+  public void setSeed(long seed) {
+    qt_.setSeed(seed);
+  }
+
+
   /**
    * Input the number of matching letters for the current guess word.
    * 
@@ -219,7 +425,24 @@ public class JottoCore {
     if (qt_ == null) {
       throw new NullPointerException("no query tree has been initialized");
     }
-    return qt_.getGuessWord();
+    if (!EngineMetrics.isCollecting()) {
+      return qt_.getGuessWord();
+    }
+    long startTime = System.nanoTime();
+    String guess = qt_.getGuessWord();
+    EngineMetrics.guess(guessLatency_, System.nanoTime() - startTime);
+    return guess;
+  }
+
+
+  /**
+   * Get the latencies of the guesses of this engine. Only recorded when
+   * {@link EngineMetrics#isCollecting() metrics are collected}.
+   * 
+   * @return histogram of guess latencies
+   */
+  public LatencyHistogram getGuessLatency() {
+    return guessLatency_;
   }
 
 
@@ -253,6 +476,138 @@ public class JottoCore {
   }
 
 
+  /**
+   * Get the anagrams of the current set of guesses without copying them. The
+   * list cannot be changed and is shared between calls; use
+   * {@link #getAnagrams()} for a list to shuffle or edit.
+   * 
+   * @return read-only list of anagrams, or null if not narrowed to a single
+   *         set of anagrams
+   */
+  public List<String> getCandidates() {
+    if (qt_ == null) {
+      throw new NullPointerException("no query tree has been initialized");
+    }
+    return qt_.getCandidates();
+  }
+
+
+  /**
+   * Get the best guess word as an id, without allocating. Use
+   * {@link WordPool#word(int)} on the default pool to get the word.
+   * 
+   * @return id of the guess word in the default {@link WordPool}, or -1 if
+   *         narrowed to a single set of anagrams
+   */
+  public int getGuessId() {
+    if (qt_ == null) {
+      throw new NullPointerException("no query tree has been initialized");
+    }
+    if (!EngineMetrics.isCollecting()) {
+      return qt_.getGuessId();
+    }
+    long startTime = System.nanoTime();
+    int guess = qt_.getGuessId();
+    EngineMetrics.guess(guessLatency_, System.nanoTime() - startTime);
+    return guess;
+  }
+
+
+  /*
+   * A cursor of its own over the query tree, at the root, so that a game can
+   * be played without moving this core's position.
+   */
+  QueryTree newCursor() {
+    if (qt_ == null) {
+      throw new NullPointerException("no query tree has been initialized");
+    }
+    return qt_.cursor();
+  }
+
+
+  /*
+   * Record the time of a guess looked up on a cursor of this core.
+   */
+  void guessed(long nanos) {
+    EngineMetrics.guess(guessLatency_, nanos);
+  }
+
+
+  /**
+   * Get which numbers of matching letters are possible for the current guess,
+   * without allocating.
+   * 
+   * @return bit i is set if some word matches i letters of the guess
+   */
+  public int getActiveLinkMask() {
+    if (qt_ == null) {
+      throw new NullPointerException("no query tree has been initialized");
+    }
+    return qt_.getActiveLinkMask();
+  }
+
+
+  /**
+   * Whether guesses are kept to words consistent with the previous responses,
+   * both on the query tree and when searching off it. A core read from a tree
+   * is in hard mode if the tree was built in it.
+   * 
+   * @return true in hard mode
+   */
+  public boolean isHardMode() {
+    return strategy_ instanceof HardModeStrategy;
+  }
+
+
+  /**
+   * Get the time taken to build the query tree. Building does not print it;
+   * it is also recorded in {@link EngineMetrics} when metrics are enabled.
+   * 
+   * @return nanoseconds spent building the query tree, or 0 if it was read
+   *         from a file or stream
+   */
+  public long getBuildNanos() {
+    return buildNanos_;
+  }
+
+
+  /**
+   * Play a game against the query tree, answering each guess for a secret.
+   * The anagrams of the leaf are proposed in order, leaving out the last
+   * guess, as a {@link GameSession} proposes them after shuffling.
+   * 
+   * @param secret
+   *          the secret word
+   * @return number of guesses to find the secret, including the guess that
+   *         finds it, or -1 if the tree does not hold it
+   */
+  public int play(String secret) {
+    restart();
+    int guesses = 0;
+    String guess = null;
+    int id;
+    while ((id = getGuessId()) >= 0) {
+      guess = WordPool.getDefault().word(id);
+      guesses++;
+      if (guess.equals(secret)) {
+        return guesses;
+      }
+      int match = matchingLetters(guess, secret);
+      if ((getActiveLinkMask() & (1 << match)) == 0) {
+        return -1;
+      }
+      numMatches(match);
+    }
+    List<String> anagrams = getCandidates();
+    if (anagrams == null || !anagrams.contains(secret)) {
+      return -1;
+    }
+    int index = anagrams.indexOf(secret);
+    int skipped = anagrams.indexOf(guess);
+    return guesses + index + (skipped >= 0 && skipped < index ? 0 : 1);
+  }
+
+
   /**
    * Use a query tree from a file.
    * 
@@ -266,23 +621,297 @@ public class JottoCore {
    */
   public static JottoCore useQueryTreeFromFile(File file) throws IOException,
       DataFormatException {
+    long startTime = System.nanoTime();
     QueryTree qt = QueryTree.readFromFile(file);
+    if (EngineMetrics.isCollecting()) {
+      EngineMetrics.loaded(qt.getRoot(), System.nanoTime() - startTime);
+    }
     return new JottoCore(qt);
   }
 
 
+  /**
+   * Build the query tree with worker processes on this machine. The top of the
+   * tree is built here and the subtrees below it by the workers, which are
+   * started with the classpath of this JVM. If the workers cannot be started
+   * the tree is built in this process instead. The tree is the same as one
+   * built in a single process.
+   * 
+   * @param file
+   *          list of words
+   * @param spec
+   *          strategy, as for {@link StrategySpec}; it is sent to the workers
+   *          by name since strategies may not be serializable
+   * @param workers
+   *          number of worker processes
+   * @return JottoCore object with the query tree
+   * @throws IOException
+   *           on file access error or if interrupted while building
+   * @throws DataFormatException
+   *           if the list holds no usable words
+   * @throws IllegalArgumentException
+   *           if the strategy cannot be parsed
+   */
+  public static JottoCore buildWithWorkers(File file, String spec,
+      int workers) throws IOException, DataFormatException {
+    return buildWithWorkers(file, spec, workers, null);
+  }
+
+
+  /**
+   * Build the query tree with worker processes on this machine, telling a
+   * listener which workers connected and what failed. See
+   * {@link #buildWithWorkers(File, String, int)}.
+   * 
+   * @param file
+   *          list of words
+   * @param spec
+   *          strategy, as for {@link StrategySpec}
+   * @param workers
+   *          number of worker processes
+   * @param listener
+   *          told how the build goes, or null
+   * @return JottoCore object with the query tree
+   * @throws IOException
+   *           on file access error or if interrupted while building
+   * @throws DataFormatException
+   *           if the list holds no usable words
+   * @throws IllegalArgumentException
+   *           if the strategy cannot be parsed
+   */
+  public static JottoCore buildWithWorkers(File file, String spec,
+      int workers, BuildListener listener) throws IOException,
+      DataFormatException {
+    Map<String, List<String>> allWords = readWordList(file);
+    JottoCore core = new JottoCore(allWords, StrategySpec.parse(spec,
+        allWords.size(), false));
+    long startTime = System.nanoTime();
+    core.qt_ = new QueryTree(new BuildCoordinator(core.allWords_, spec,
+        workers, listener).build(), core.isHardMode());
+    core.qt_.start();
+    core.buildNanos_ = System.nanoTime() - startTime;
+    if (EngineMetrics.isCollecting()) {
+      EngineMetrics.built(core.qt_.getRoot(), core.buildNanos_);
+    }
+    return core;
+  }
+
+
+  /**
+   * Build a query tree from a list of words straight into a file in the flat
+   * format. Nodes are written as they are built, so only the path being built
+   * is held in memory rather than the whole tree. The file can be opened with
+   * {@link #useFlatQueryTreeFromFile(File)} or read whole with
+   * {@link #useQueryTreeFromFile(File)}.
+   * 
+   * @param wordFile
+   *          list of words
+   * @param strategy
+   *          strategy deciding the guess at each node
+   * @param out
+   *          file to write
+   * @return number of nodes written
+   * @throws IOException
+   *           on file access error
+   * @throws DataFormatException
+   *           if the list holds no usable words
+   */
+  public static long streamQueryTree(File wordFile, GuessStrategy strategy,
+      File out) throws IOException, DataFormatException {
+    Map<String, List<String>> allWords = readWordList(wordFile);
+    return QueryTree.streamTree(allWords.keySet(), allWords, strategy, out);
+  }
+
+
+  /**
+   * Use a query tree read from a stream in either format.
+   * 
+   * @param in
+   *          stream holding a saved QueryTree; left open
+   * @return JottoCore object with QueryTree
+   * @throws IOException
+   *           on read error
+   * @throws DataFormatException
+   *           if the stream does not hold a saved QueryTree
+   */
+  public static JottoCore useQueryTreeFromStream(InputStream in)
+      throws IOException, DataFormatException {
+    long startTime = System.nanoTime();
+    QueryTree qt = QueryTree.readFromStream(in);
+    if (EngineMetrics.isCollecting()) {
+      EngineMetrics.loaded(qt.getRoot(), System.nanoTime() - startTime);
+    }
+    return new JottoCore(qt);
+  }
+
+
+  /**
+   * Use the prebuilt query tree of the bundled word list, read from
+   * {@link #DEFAULT_TREE_RESOURCE} on the classpath.
+   * 
+   * @return JottoCore object with QueryTree
+   * @throws FileNotFoundException
+   *           if the resource is not on the classpath
+   * @throws IOException
+   *           on read error
+   * @throws DataFormatException
+   *           if the resource is not a saved QueryTree
+   */
+  public static JottoCore useDefaultQueryTree() throws IOException,
+      DataFormatException {
+    InputStream in = JottoCore.class.getClassLoader().getResourceAsStream(
+        DEFAULT_TREE_RESOURCE);
+    if (in == null) {
+      throw new FileNotFoundException(DEFAULT_TREE_RESOURCE);
+    }
+    try {
+      return useQueryTreeFromStream(in);
+    } finally {
+      in.close();
+    }
+  }
+
+
+  /**
+   * Build a query tree of the bundled word list, read from
+   * {@link #DEFAULT_WORDS_RESOURCE} on the classpath, for a strategy the
+   * prebuilt tree was not built with, such as {@link HardModeStrategy}.
+   * 
+   * @param strategy
+   *          strategy used to build the query tree and for solving
+   * @return JottoCore object with QueryTree
+   * @throws FileNotFoundException
+   *           if the resource is not on the classpath
+   * @throws IOException
+   *           on read error
+   * @throws DataFormatException
+   *           if the resource holds no usable words
+   */
+  public static JottoCore useDefaultWordList(GuessStrategy strategy)
+      throws IOException, DataFormatException {
+    InputStream in = JottoCore.class.getClassLoader().getResourceAsStream(
+        DEFAULT_WORDS_RESOURCE);
+    if (in == null) {
+      throw new FileNotFoundException(DEFAULT_WORDS_RESOURCE);
+    }
+    List<String> words;
+    try {
+      words = readWords(new Scanner(in, "US-ASCII"));
+    } finally {
+      in.close();
+    }
+    if (words.isEmpty()) {
+      throw new DataFormatException();
+    }
+    JottoCore core = new JottoCore(dictionary(words), strategy);
+    core.buildQueryTree(1);
+    return core;
+  }
+
+
+  /**
+   * Use a query tree from a flat format file without reading it into memory.
+   * Nodes are read from the file as the game reaches them.
+   * 
+   * @param file
+   *          file saved in the flat format
+   * @return JottoCore object with QueryTree
+   * @throws IOException
+   *           on file access error
+   * @throws DataFormatException
+   *           if file is not a flat format QueryTree
+   */
+  public static JottoCore useFlatQueryTreeFromFile(File file)
+      throws IOException, DataFormatException {
+    return new JottoCore(QueryTree.openFlatFile(file));
+  }
+
+
+  /**
+   * Read the usable words of a word list: the five letter words, in the
+   * order of the list, lowercased.
+   * 
+   * @param file
+   *          list of words separated by white space
+   * @return list of words, possibly empty
+   * @throws FileNotFoundException
+   *           when the word list is not found
+   */
+  public static List<String> readWords(File file)
+      throws FileNotFoundException {
+    return readWords(new Scanner(file));
+  }
+
+
+  /*
+   * Read the usable words from a scanner and close it.
+   */
+  private static List<String> readWords(Scanner sc) {
+    List<String> words = new ArrayList<String>();
+    while (sc.hasNext()) {
+      String word = sc.next().trim().toLowerCase();
+      if (WordPool.isWord(word)) {
+        words.add(word);
+      }
+    }
+    sc.close();
+    return words;
+  }
+
+
+  /*
+   * Read a list of words into a map of sorted letters to anagrams. Keys
+   * iterate in sorted order and anagrams are sorted, so that trees built from
+   * the same words do not depend on hashing or on the order of the list.
+   */
+  static Map<String, List<String>> readWordList(File file)
+      throws FileNotFoundException, DataFormatException {
+    List<String> words = readWords(file);
+    if (words.isEmpty()) {
+      throw new DataFormatException();
+    }
+    return dictionary(words);
+  }
+
+
+  /*
+   * Map five letter words to their sorted letters, in the order of
+   * readWordList().
+   */
+  static Map<String, List<String>> dictionary(Collection<String> words) {
+    Map<String, List<String>> allWords = new TreeMap<String, List<String>>();
+    for (String word : words) {
+      String letters = sortLetters(word);
+      if (allWords.containsKey(letters)) {
+        allWords.get(letters).add(word);
+      } else {
+        List<String> anagrams = new ArrayList<String>();
+        anagrams.add(word);
+        allWords.put(letters, anagrams);
+      }
+    }
+    for (List<String> anagrams : allWords.values()) {
+      Collections.sort(anagrams);
+    }
+    return new LinkedHashMap<String, List<String>>(allWords);
+  }
+
+
   /*
    * Builds a query tree using the list of words. The root node contains an
    * array of links to subtrees where the index of the link is the number of
    * matching letters for all words in the subtree to the current guess word.
    */
-  private void buildQueryTree() {
-    long startTime = System.currentTimeMillis();
+  private void buildQueryTree(int parallelism) {
+    long startTime = System.nanoTime();
     Set<String> possibilities = allWords_.keySet();
-    qt_ = new QueryTree(QueryTree.recursivelyBuildTree(possibilities, allWords_));
+    qt_ = new QueryTree(QueryTree.buildTree(possibilities, allWords_,
+        strategy_, parallelism), isHardMode());
     qt_.start();
-    System.out.println("Building tree took "
-        + (System.currentTimeMillis() - startTime) + " ms");
+    buildNanos_ = System.nanoTime() - startTime;
+    if (EngineMetrics.isCollecting()) {
+      EngineMetrics.built(qt_.getRoot(), buildNanos_);
+    }
   }
 
 
@@ -302,6 +931,104 @@ public class JottoCore {
   }
 
 
+  /**
+   * Save the query tree to file in the flat format
+   * 
+   * @param file
+   *          filename to save into
+   * @throws IOException
+   *           on file write error
+   */
+  public void saveFlatQueryTree(File file) throws IOException {
+    if (qt_ == null) {
+      throw new NullPointerException("no query tree has been initialized");
+    }
+    qt_.saveToFlatFile(file);
+  }
+
+
+  /*
+   * Dictionary of sorted-letter keys to anagrams. A core loaded from a tree
+   * takes the words of the tree, reading a lazily opened tree whole.
+   */
+  Map<String, List<String>> getAllWords() {
+    if (allWords_ == null) {
+      allWords_ = dictionary(qt_ == null ? Collections.<String> emptyList()
+          : qt_.getSolutionWords());
+    }
+    return allWords_;
+  }
+
+
+  /*
+   * Strategy for choosing guesses.
+   */
+  GuessStrategy getStrategy() {
+    return strategy_;
+  }
+
+
+  /*
+   * Index of the anagram classes of the dictionary.
+   */
+  ConsistencyIndex getIndex() {
+    if (index_ == null) {
+      index_ = new ConsistencyIndex(getAllWords().keySet());
+    }
+    return index_;
+  }
+
+
+  /*
+   * The query tree, or null if none has been initialized.
+   */
+  QueryTree getQueryTree() {
+    return qt_;
+  }
+
+
+  /**
+   * Number of letters two words have in common, counting duplicates.
+   * 
+   * @param a
+   *          a word
+   * @param b
+   *          another word
+   * @return number of matching letters
+   */
+  public static int matchingLetters(String a, String b) {
+    return numMatchingLetters(sortLetters(a), sortLetters(b));
+  }
+
+
+  /**
+   * Number of letters two words of the default {@link WordPool} have in
+   * common, counting duplicates, without allocating.
+   * 
+   * @param a
+   *          id of a word
+   * @param b
+   *          id of another word
+   * @return number of matching letters
+   */
+  public static int matchingLetters(int a, int b) {
+    WordPool pool = WordPool.getDefault();
+    int used = 0;
+    int match = 0;
+    for (int i = 0; i < WordPool.WORD_LENGTH; i++) {
+      char c = pool.charAt(a, i);
+      for (int j = 0; j < WordPool.WORD_LENGTH; j++) {
+        if ((used & (1 << j)) == 0 && pool.charAt(b, j) == c) {
+          used |= 1 << j;
+          match++;
+          break;
+        }
+      }
+    }
+    return match;
+  }
+
+
   /*
    * Matching letters in both strings. a and b must have letters sorted in
    * ascending alphabetical order. See sortLetters() method.
@@ -329,10 +1056,47 @@ public class JottoCore {
    * Given a string, return the string with the letters sorted in ascending
    * alphabetical order.
    */
-  private static String sortLetters(String s) {
+  static String sortLetters(String s) {
     char[] chars = s.toCharArray();
     Arrays.sort(chars);
     return new String(chars);
   }
 
+
+  /**
+   * Command line solver. Plays against the target word if one is given,
+   * otherwise asks for the number of matching letters of each guess.
+   * <p>
+   * Usage: JottoCore [-tree] file [target]
+   * 
+   * @param args
+   *          -tree if the file is a saved QueryTree rather than a list of
+   *          words, the file, and an optional target word
+   * @throws IOException
+   *           on file access error
+   * @throws DataFormatException
+   *           if the file holds no usable words or is not a saved QueryTree
+   */
+  public static void main(String[] args) throws IOException,
+      DataFormatException {
+    int arg = 0;
+    boolean tree = args.length > 0 && args[0].equals("-tree");
+    if (tree) {
+      arg++;
+    }
+    if (args.length <= arg) {
+      System.err.println("usage: JottoCore [-tree] file [target]");
+      System.exit(1);
+    }
+    File file = new File(args[arg++]);
+    JottoCore core = tree ? useQueryTreeFromFile(file) : new JottoCore(file);
+    if (!tree) {
+      System.out.println("Building tree took " + core.getBuildNanos()
+          / 1000000 + " ms");
+    }
+    List<String> words = arg < args.length ? core.solve(args[arg].trim()
+        .toLowerCase()) : core.solve();
+    System.out.println(words == null ? "Sorry. I don't know your word..."
+        : "Your word is one of " + words);
+  }
 }
@@ -0,0 +1,98 @@
+package jotto.engine;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread-safe histogram of latencies with power-of-two buckets. Bucket i counts
+ * latencies of at least 2^(i-1) and less than 2^i nanoseconds; bucket 0 counts
+ * zero latencies.
+ * 
+ * @author Zhe Lu
+ * 
+ */
+public class LatencyHistogram {
+
+  private final AtomicLongArray buckets_ = new AtomicLongArray(64);
+
+
+  /**
+   * Record a latency.
+   * 
+   * @param nanos
+   *          latency in nanoseconds
+   */
+  public void record(long nanos) {
+    buckets_.incrementAndGet(nanos <= 0 ? 0
+        : 64 - Long.numberOfLeadingZeros(nanos));
+  }
+
+
+  /**
+   * @return number of latencies recorded
+   */
+  public long getCount() {
+    long n = 0;
+    for (int i = 0; i < buckets_.length(); i++) {
+      n += buckets_.get(i);
+    }
+    return n;
+  }
+
+
+  /**
+   * @return counts of each bucket
+   */
+  public long[] getBuckets() {
+    long[] retValue = new long[buckets_.length()];
+    for (int i = 0; i < retValue.length; i++) {
+      retValue[i] = buckets_.get(i);
+    }
+    return retValue;
+  }
+
+
+  /**
+   * Get an upper bound of a percentile.
+   * 
+   * @param p
+   *          percentile between 0 and 100
+   * @return upper bound in nanoseconds of the bucket holding the percentile, or
+   *         0 if nothing was recorded
+   */
+  public long getPercentile(double p) {
+    long[] buckets = getBuckets();
+    long n = 0;
+    for (long b : buckets) {
+      n += b;
+    }
+    if (n == 0) {
+      return 0;
+    }
+    long rank = (long) Math.ceil(p / 100 * n);
+    long seen = 0;
+    for (int i = 0; i < buckets.length; i++) {
+      seen += buckets[i];
+      if (seen >= rank && buckets[i] > 0) {
+        return i == 0 ? 0 : (1L << i) - 1;
+      }
+    }
+    return Long.MAX_VALUE;
+  }
+
+
+  /**
+   * Clear the histogram.
+   */
+  public void reset() {
+    for (int i = 0; i < buckets_.length(); i++) {
+      buckets_.set(i, 0);
+    }
+  }
+
+
+  @Override
+  public String toString() {
+    return "n=" + getCount() + " p50<=" + getPercentile(50) + "ns p90<="
+        + getPercentile(90) + "ns p99<=" + getPercentile(99) + "ns";
+  }
+}
@@ -0,0 +1,264 @@
+package jotto.engine;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectStreamException;
+import java.io.RandomAccessFile;
+import java.lang.ref.SoftReference;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.zip.DataFormatException;
+
+/**
+ * A node of a flat format tree file read on demand. Each node decodes its own
+ * words and the offsets of its children; a child is only read from the mapped
+ * file when it is first followed. Decoded children are softly referenced, so
+ * games replaying a path do not read it again, while the collector can still
+ * reclaim nodes not in use when memory runs low. See {@link FlatTreeFormat}.
+ * <p>
+ * Lazy nodes cannot be changed. They are written out as ordinary nodes.
+ * 
+ * @author Zhe Lu
+ * 
+ */
+class LazyNode extends Node {
+
+  private static final long serialVersionUID = -1658307563862735364L;
+  private final transient Source source_;
+  private final transient long[] children_ = new long[6];
+  // children already read; racing threads may each read one, which is
+  // harmless since nodes do not change
+  private final transient SoftReference<?>[] decoded_ = new SoftReference<?>[6];
+
+
+  /*
+   * Read the node at an offset.
+   */
+  private LazyNode(Source source, long offset) throws DataFormatException {
+    source_ = source;
+    try {
+      long pos = offset;
+      int flags = source.get(pos++);
+      if ((flags & 1) != 0) {
+        setGuessIds(source.readIds(pos));
+        pos += 4 + 4L * getGuess().length;
+      }
+      if ((flags & 2) != 0) {
+        setAnagramIds(source.readIds(pos));
+        pos += 4 + 4L * getAnagrams().length;
+      }
+      int mask = source.get(pos++) & 0xff;
+      for (int i = 0; i < 6; i++) {
+        if ((mask & (1 << i)) != 0) {
+          long child = source.getLong(pos);
+          pos += 8;
+          // children follow their parent, so reading cannot loop
+          if (child <= offset || child >= source.size_) {
+            throw new DataFormatException("bad link at " + offset);
+          }
+          children_[i] = child;
+        }
+      }
+    } catch (IndexOutOfBoundsException e) {
+      throw new DataFormatException("truncated node at " + offset);
+    } catch (BufferUnderflowException e) {
+      throw new DataFormatException("truncated node at " + offset);
+    }
+  }
+
+
+  /*
+   * Map a flat format file and read its root node. The root of the tree is
+   * null for an empty tree.
+   */
+  static QueryTree open(File file) throws IOException, DataFormatException {
+    Source source = new Source(file);
+    return new QueryTree(source.root_ == 0 ? null : new LazyNode(source,
+        source.root_), source.hardMode_);
+  }
+
+
+  /**
+   * Read the node corresponding to a match of n letters in the guess word,
+   * unless it was read before and is still held.
+   * 
+   * @throws IllegalStateException
+   *           if the file holds a bad node
+   */
+  @Override
+  protected Node getLink(int n) {
+    if (children_[n] == 0) {
+      return null;
+    }
+    SoftReference<?> ref = decoded_[n];
+    LazyNode child = ref == null ? null : (LazyNode) ref.get();
+    if (child == null) {
+      try {
+        child = new LazyNode(source_, children_[n]);
+      } catch (DataFormatException e) {
+        throw new IllegalStateException(e.getMessage());
+      }
+      decoded_[n] = new SoftReference<LazyNode>(child);
+    }
+    return child;
+  }
+
+
+  @Override
+  int getLinkMask() {
+    int mask = 0;
+    for (int i = 0; i < 6; i++) {
+      if (children_[i] != 0) {
+        mask |= 1 << i;
+      }
+    }
+    return mask;
+  }
+
+
+  @Override
+  protected void setLink(int n, Node node) {
+    throw new UnsupportedOperationException("lazy nodes are read-only");
+  }
+
+
+  @Override
+  protected void setGuess(List<String> guesses) {
+    throw new UnsupportedOperationException("lazy nodes are read-only");
+  }
+
+
+  /*
+   * Serialize the subtree as ordinary nodes.
+   */
+  private Object writeReplace() throws ObjectStreamException {
+    Node n = new Node();
+    n.setGuessIds(getGuess());
+    n.setAnagramIds(getAnagrams());
+    for (int i = 0; i < 6; i++) {
+      n.setLink(i, getLink(i));
+    }
+    return n;
+  }
+
+
+  /*
+   * A mapped tree file and its word table. Files over 1 GB are mapped in
+   * segments that overlap by 8 bytes, so that every read falls inside the
+   * segment it starts in.
+   */
+  private static final class Source {
+    private static final int SEGMENT_BITS = 30;
+    private static final long SEGMENT_MASK = (1L << SEGMENT_BITS) - 1;
+    private final ByteBuffer[] segments_;
+    private final long size_;
+    private final int[] ids_;
+    private final long root_;
+    private final boolean hardMode_;
+
+
+    Source(File file) throws IOException, DataFormatException {
+      RandomAccessFile raf = new RandomAccessFile(file, "r");
+      try {
+        FileChannel channel = raf.getChannel();
+        size_ = channel.size();
+        segments_ = new ByteBuffer[(int) (size_ >>> SEGMENT_BITS) + 1];
+        for (int i = 0; i < segments_.length; i++) {
+          long start = (long) i << SEGMENT_BITS;
+          long length = Math.min(size_ - start, (1L << SEGMENT_BITS) + 8);
+          segments_[i] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+              length);
+        }
+      } finally {
+        raf.close();
+      }
+      try {
+        if (size_ < 10 || getInt(0) != FlatTreeFormat.MAGIC) {
+          throw new DataFormatException("not a flat tree file");
+        }
+        short version = (short) (((get(4) & 0xff) << 8) | (get(5) & 0xff));
+        long table;
+        int header;
+        if (version == FlatTreeFormat.VERSION) {
+          hardMode_ = (get(6) & FlatTreeFormat.HARD_MODE) != 0;
+          table = 7;
+          header = 24;
+        } else if (version == FlatTreeFormat.VERSION_1) {
+          hardMode_ = false;
+          table = 6;
+          header = 16;
+        } else {
+          throw new DataFormatException("unsupported version " + version);
+        }
+        int count = getInt(table);
+        long end = table + 4 + (long) count * WordPool.WORD_LENGTH;
+        if (count < 0 || end + header > size_) {
+          throw new DataFormatException("bad word count");
+        }
+        if (header == 24 && getLong(end + 16) != size_) {
+          throw new DataFormatException("truncated tree file");
+        }
+        ids_ = new int[count];
+        WordPool pool = WordPool.getDefault();
+        byte[] word = new byte[WordPool.WORD_LENGTH];
+        long pos = table + 4;
+        for (int i = 0; i < count; i++) {
+          for (int j = 0; j < word.length; j++) {
+            word[j] = get(pos++);
+          }
+          String w = new String(word, "US-ASCII");
+          if (!WordPool.isWord(w)) {
+            throw new DataFormatException("bad word in table: " + w);
+          }
+          ids_[i] = pool.intern(w);
+        }
+        root_ = getLong(pos);
+        if (root_ != 0 && (root_ < pos + header || root_ >= size_)) {
+          throw new DataFormatException("bad root offset");
+        }
+      } catch (IndexOutOfBoundsException e) {
+        throw new DataFormatException("truncated tree file");
+      }
+    }
+
+
+    byte get(long pos) {
+      return segments_[(int) (pos >>> SEGMENT_BITS)]
+          .get((int) (pos & SEGMENT_MASK));
+    }
+
+
+    int getInt(long pos) {
+      return segments_[(int) (pos >>> SEGMENT_BITS)]
+          .getInt((int) (pos & SEGMENT_MASK));
+    }
+
+
+    long getLong(long pos) {
+      return segments_[(int) (pos >>> SEGMENT_BITS)]
+          .getLong((int) (pos & SEGMENT_MASK));
+    }
+
+
+    /*
+     * Read a count and that many word table indices, as word ids.
+     */
+    int[] readIds(long pos) throws DataFormatException {
+      int count = getInt(pos);
+      if (count < 0 || pos + 4 + 4L * count > size_) {
+        throw new DataFormatException("bad word count at " + pos);
+      }
+      int[] ids = new int[count];
+      for (int i = 0; i < count; i++) {
+        int index = getInt(pos + 4 + 4L * i);
+        if (index < 0 || index >= ids_.length) {
+          throw new DataFormatException("bad word index " + index);
+        }
+        ids[i] = ids_[index];
+      }
+      return ids;
+    }
+  }
+}
@@ -0,0 +1,26 @@
+package jotto.engine;
+
+/**
+ * Scores a partition by the size of its largest bin, preferring guesses with
+ * the smallest worst case.
+ * 
+ * @author Zhe Lu
+ * 
+ */
+public class MaxBinScorer implements GuessScorer {
+
+  @Override
+  public double score(int[] counts, int N) {
+    int max = 0;
+    for (int i = 0; i < counts.length; i++) {
+      max = Math.max(max, counts[i]);
+    }
+    return -max;
+  }
+
+
+  @Override
+  public String toString() {
+    return "maxbin";
+  }
+}
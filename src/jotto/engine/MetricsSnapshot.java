@@ -0,0 +1,156 @@
+package jotto.engine;
+
+/**
+ * Values of the {@link EngineMetrics} at one point in time.
+ * 
+ * @author Zhe Lu
+ * 
+ */
+public final class MetricsSnapshot {
+
+  private final boolean enabled_;
+  private final long findBestWordCalls_;
+  private final long findBestWordNanos_;
+  private final long numMatchingLettersCalls_;
+  private final long nodesBuilt_;
+  private final long treeSize_;
+  private final int treeDepth_;
+  private final long parseNanos_;
+  private final long buildNanos_;
+  private final long loadNanos_;
+  private final long[] guessLatency_;
+
+
+  MetricsSnapshot(boolean enabled, long findBestWordCalls,
+      long findBestWordNanos, long numMatchingLettersCalls, long nodesBuilt,
+      long treeSize, int treeDepth, long parseNanos, long buildNanos,
+      long loadNanos, long[] guessLatency) {
+    enabled_ = enabled;
+    findBestWordCalls_ = findBestWordCalls;
+    findBestWordNanos_ = findBestWordNanos;
+    numMatchingLettersCalls_ = numMatchingLettersCalls;
+    nodesBuilt_ = nodesBuilt;
+    treeSize_ = treeSize;
+    treeDepth_ = treeDepth;
+    parseNanos_ = parseNanos;
+    buildNanos_ = buildNanos;
+    loadNanos_ = loadNanos;
+    guessLatency_ = guessLatency;
+  }
+
+
+  /**
+   * @return whether metrics are collected
+   */
+  public boolean isEnabled() {
+    return enabled_;
+  }
+
+
+  /**
+   * @return number of guess selections
+   */
+  public long getFindBestWordCalls() {
+    return findBestWordCalls_;
+  }
+
+
+  /**
+   * @return cumulative time of guess selections in nanoseconds
+   */
+  public long getFindBestWordNanos() {
+    return findBestWordNanos_;
+  }
+
+
+  /**
+   * @return number of letter matching computations
+   */
+  public long getNumMatchingLettersCalls() {
+    return numMatchingLettersCalls_;
+  }
+
+
+  /**
+   * @return number of query tree nodes built
+   */
+  public long getNodesBuilt() {
+    return nodesBuilt_;
+  }
+
+
+  /**
+   * @return number of nodes of the last tree built or loaded
+   */
+  public long getTreeSize() {
+    return treeSize_;
+  }
+
+
+  /**
+   * @return depth of the last tree built or loaded
+   */
+  public int getTreeDepth() {
+    return treeDepth_;
+  }
+
+
+  /**
+   * @return time to read and parse the last word list in nanoseconds
+   */
+  public long getParseNanos() {
+    return parseNanos_;
+  }
+
+
+  /**
+   * @return time to build the last query tree in nanoseconds
+   */
+  public long getBuildNanos() {
+    return buildNanos_;
+  }
+
+
+  /**
+   * @return time to load the last query tree file in nanoseconds
+   */
+  public long getLoadNanos() {
+    return loadNanos_;
+  }
+
+
+  /**
+   * @return guess latency histogram buckets, see {@link LatencyHistogram}
+   */
+  public long[] getGuessLatency() {
+    return guessLatency_.clone();
+  }
+
+
+  @Override
+  public String toString() {
+    if (!enabled_) {
+      return "Metrics are disabled. Start with -Djotto.metrics=true.";
+    }
+    StringBuilder sb = new StringBuilder();
+    sb.append("findBestWord calls: ").append(findBestWordCalls_).append('\n');
+    sb.append("findBestWord time: ").append(findBestWordNanos_ / 1000000)
+        .append(" ms\n");
+    sb.append("numMatchingLetters calls: ").append(numMatchingLettersCalls_)
+        .append('\n');
+    sb.append("nodes built: ").append(nodesBuilt_).append('\n');
+    sb.append("tree size: ").append(treeSize_).append(" nodes, depth ")
+        .append(treeDepth_).append('\n');
+    sb.append("parse time: ").append(parseNanos_ / 1000000).append(" ms\n");
+    sb.append("build time: ").append(buildNanos_ / 1000000).append(" ms\n");
+    sb.append("load time: ").append(loadNanos_ / 1000000).append(" ms\n");
+    sb.append("guess latency:");
+    for (int i = 0; i < guessLatency_.length; i++) {
+      if (guessLatency_[i] > 0) {
+        sb.append(" <").append(i == 0 ? 1 : 1L << i).append("ns:")
+            .append(guessLatency_[i]);
+      }
+    }
+    return sb.toString();
+  }
+}
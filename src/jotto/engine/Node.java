@@ -0,0 +1,239 @@
+package jotto.engine;
+
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Represents nodes of the decision tree. Interior nodes have a list of words
+ * for what to guess. Leaf nodes have a list of anagrams of proposed solution
+ * words. Words are held as ids in the default {@link WordPool}.
+ * <p>
+ * The serialized form is unchanged from when nodes held lists of strings, so
+ * saved trees remain readable. Words read back are interned into the pool.
+ * 
+ * @author Zhe Lu
+ * 
+ */
+class Node implements Serializable {
+
+  private static final long serialVersionUID = 2694492917093744338L;
+  private static final ObjectStreamField[] serialPersistentFields = {
+      new ObjectStreamField("guess_", List.class),
+      new ObjectStreamField("links_", Node[].class),
+      new ObjectStreamField("words_", List.class) };
+  // word lists already written by the current thread, shared so the stream
+  // writes each list once
+  private static final ThreadLocal<Map<String, List<String>>> written_ = new ThreadLocal<Map<String, List<String>>>();
+  private int[] guess_;
+  private Node[] links_ = new Node[6];
+  private int[] words_;
+  // read-only strings of words_, created on first use
+  private transient volatile List<String> anagramView_;
+
+
+  /**
+   * Create an internal node from a list of guess
+   * 
+   * @param guesses
+   * @return
+   */
+  protected static Node nodeFromGuesses(List<String> guesses) {
+    Node retValue = new Node();
+    retValue.guess_ = WordPool.getDefault().intern(guesses);
+    return retValue;
+  }
+
+
+  /**
+   * Create a leaf node from a list of anagrams
+   * 
+   * @param anagrams
+   * @return
+   */
+  protected static Node nodeFromAnagrams(List<String> anagrams) {
+    Node retValue = new Node();
+    retValue.words_ = WordPool.getDefault().intern(anagrams);
+    return retValue;
+  }
+
+
+  /**
+   * Get the anagrams associated with this node
+   * 
+   * @return ids of the anagrams representing the guesses for the current game
+   */
+  protected int[] getAnagrams() {
+    return words_;
+  }
+
+
+  /**
+   * Get the guesses for the current node
+   * 
+   * @return ids of the guess words we can use
+   */
+  protected int[] getGuess() {
+    return guess_;
+  }
+
+
+  /**
+   * Set the guesses for the current node
+   * 
+   * @param guesses
+   *          a list of guesses
+   */
+  protected void setGuess(List<String> guesses) {
+    guess_ = WordPool.getDefault().intern(guesses);
+  }
+
+
+  /*
+   * Set the ids of the guesses.
+   */
+  void setGuessIds(int[] guesses) {
+    guess_ = guesses;
+  }
+
+
+  /*
+   * Set the ids of the anagrams.
+   */
+  void setAnagramIds(int[] anagrams) {
+    words_ = anagrams;
+    anagramView_ = null;
+  }
+
+
+  /*
+   * Read-only list of the anagrams, shared by every caller; null for an
+   * interior node.
+   */
+  List<String> getAnagramView() {
+    List<String> view = anagramView_;
+    if (view == null && words_ != null) {
+      view = Collections.unmodifiableList(WordPool.getDefault().words(words_));
+      anagramView_ = view;
+    }
+    return view;
+  }
+
+
+  /*
+   * Bit i is set if the node has a link for i matching letters.
+   */
+  int getLinkMask() {
+    int mask = 0;
+    for (int i = 0; i < 6; i++) {
+      if (links_[i] != null) {
+        mask |= 1 << i;
+      }
+    }
+    return mask;
+  }
+
+
+  /**
+   * Get the node corresponding to a match of n letters in the guess word
+   * 
+   * @param n
+   *          the number of letters matching in the guess word
+   * @return the next node in the tree traversal
+   */
+  protected Node getLink(int n) {
+    return links_[n];
+  }
+
+
+  /**
+   * Set the node corresponding to a match of n letters in the guess word
+   * 
+   * @param n
+   *          the number of matches
+   * @param node
+   *          the next node
+   */
+  protected void setLink(int n, Node node) {
+    links_[n] = node;
+  }
+
+
+  /*
+   * Share word lists between the nodes written by this thread until
+   * endWrite().
+   */
+  static void beginWrite() {
+    written_.set(new HashMap<String, List<String>>());
+  }
+
+
+  /*
+   * Stop sharing word lists.
+   */
+  static void endWrite() {
+    written_.remove();
+  }
+
+
+  /*
+   * Write the words as lists of strings.
+   */
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    ObjectOutputStream.PutField fields = out.putFields();
+    fields.put("guess_", toList(guess_));
+    fields.put("links_", links_);
+    fields.put("words_", toList(words_));
+    out.writeFields();
+  }
+
+
+  /*
+   * Read lists of strings and intern them.
+   */
+  @SuppressWarnings("unchecked")
+  private void readObject(ObjectInputStream in) throws IOException,
+      ClassNotFoundException {
+    ObjectInputStream.GetField fields = in.readFields();
+    WordPool pool = WordPool.getDefault();
+    try {
+      guess_ = pool.intern((List<String>) fields.get("guess_", null));
+      words_ = pool.intern((List<String>) fields.get("words_", null));
+    } catch (IllegalArgumentException e) {
+      throw new InvalidObjectException(e.getMessage());
+    }
+    links_ = (Node[]) fields.get("links_", null);
+    if (links_ == null || links_.length != 6) {
+      throw new InvalidObjectException("node must have 6 links");
+    }
+  }
+
+
+  /*
+   * Words of the ids, shared with earlier nodes of the same write.
+   */
+  private static List<String> toList(int[] ids) {
+    if (ids == null) {
+      return null;
+    }
+    Map<String, List<String>> written = written_.get();
+    if (written == null) {
+      return WordPool.getDefault().words(ids);
+    }
+    String key = Arrays.toString(ids);
+    List<String> words = written.get(key);
+    if (words == null) {
+      words = WordPool.getDefault().words(ids);
+      written.put(key, words);
+    }
+    return words;
+  }
+}
@@ -0,0 +1,162 @@
+package jotto.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Ranks every anagram class by a cheap letter-coverage score over the
+ * remaining possibilities and only computes the exact score for the top k.
+ * This reduces a selection from O(N^2) to O(kN).
+ * <p>
+ * A letter present in f of the N remaining words scores f * (N - f), so
+ * letters splitting the remaining set evenly are preferred. Each distinct
+ * letter of a candidate counts once, which penalizes repeated and rare letters.
+ * <p>
+ * With its {@link SelectionAudit} enabled, every selection is also computed
+ * exhaustively and the score lost against the exhaustive choice is recorded.
+ * 
+ * @author Zhe Lu
+ * 
+ */
+public class PreselectStrategy implements GuessStrategy {
+
+  private final int k_;
+  private final GuessScorer scorer_;
+  private final SelectionAudit audit_ = new SelectionAudit();
+
+
+  /**
+   * Constructor using entropy for the full scoring.
+   * 
+   * @param k
+   *          number of candidates sent to full entropy scoring
+   */
+  public PreselectStrategy(int k) {
+    this(k, new EntropyScorer());
+  }
+
+
+  /**
+   * Constructor.
+   * 
+   * @param k
+   *          number of candidates sent to full scoring
+   * @param scorer
+   *          scorer of the shortlisted candidates
+   */
+  public PreselectStrategy(int k, GuessScorer scorer) {
+    if (k < 1) {
+      throw new IllegalArgumentException("k must be positive");
+    }
+    k_ = k;
+    scorer_ = scorer;
+  }
+
+
+  /**
+   * @return the record of quality lost against the exhaustive search
+   */
+  public SelectionAudit getAudit() {
+    return audit_;
+  }
+
+
+  @Override
+  public String findBestWord(Set<String> possibilities,
+      Map<String, List<String>> allWords) {
+    List<String> shortlist = shortlist(possibilities, allWords);
+    String best = JottoCore.findBestWord(possibilities, shortlist, allWords,
+        scorer_);
+    if (best.isEmpty()) {
+      // no shortlisted word separates the possibilities
+      best = JottoCore.findBestWord(possibilities, allWords, scorer_);
+    }
+    audit_.record(best, possibilities, allWords, scorer_);
+    return best;
+  }
+
+
+  /*
+   * The k candidates with the highest letter-coverage score.
+   */
+  List<String> shortlist(Set<String> possibilities,
+      Map<String, List<String>> allWords) {
+    int[] freq = new int[26];
+    int N = 0;
+    for (String word : possibilities) {
+      int numWords = allWords.get(word).size();
+      N += numWords;
+      for (int i = 0; i < 5; i++) {
+        if (i == 0 || word.charAt(i) != word.charAt(i - 1)) {
+          freq[word.charAt(i) - 'a'] += numWords;
+        }
+      }
+    }
+    PriorityQueue<Candidate> top = new PriorityQueue<Candidate>(k_ + 1);
+    for (String w : allWords.keySet()) {
+      long score = 0;
+      for (int i = 0; i < 5; i++) {
+        if (i == 0 || w.charAt(i) != w.charAt(i - 1)) {
+          long f = freq[w.charAt(i) - 'a'];
+          score += f * (N - f);
+        }
+      }
+      if (top.size() < k_) {
+        top.add(new Candidate(w, score));
+      } else {
+        Candidate c = new Candidate(w, score);
+        if (c.compareTo(top.peek()) > 0) {
+          top.poll();
+          top.add(c);
+        }
+      }
+    }
+    List<String> retValue = new ArrayList<String>(top.size());
+    for (Candidate c : top) {
+      retValue.add(c.word_);
+    }
+    return retValue;
+  }
+
+
+  /**
+   * @return the number of candidates scored exactly per selection
+   */
+  public int getK() {
+    return k_;
+  }
+
+
+  @Override
+  public String toString() {
+    return "preselect k=" + k_ + " " + scorer_ + ": " + audit_;
+  }
+
+
+  /*
+   * A word and its letter-coverage score, ordered by score, then by word.
+   */
+  private static class Candidate implements Comparable<Candidate> {
+    private final String word_;
+    private final long score_;
+
+
+    Candidate(String word, long score) {
+      word_ = word;
+      score_ = score;
+    }
+
+
+    @Override
+    public int compareTo(Candidate o) {
+      if (score_ != o.score_) {
+        return score_ < o.score_ ? -1 : 1;
+      }
+      // on equal scores the word first in sorted order ranks higher
+      return o.word_.compareTo(word_);
+    }
+  }
+}
@@ -1,19 +1,24 @@
 package jotto.engine;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Random;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 import java.util.zip.DataFormatException;
 
 /**
@@ -24,10 +29,21 @@ import java.util.zip.DataFormatException;
  */
 public class QueryTree implements Serializable {
 
+  /**
+   * Seed of the choice among equally good guesses unless -Djotto.seed is set
+   * or {@link #setSeed(long)} is called.
+   */
+  public static final long DEFAULT_SEED = 0;
+
   private static final long serialVersionUID = -647157552718128746L;
+  // seed of new trees and sessions
+  static final long SEED = Long.getLong("jotto.seed", DEFAULT_SEED);
   private final Node root_;
+  // whether the tree was built in hard mode; false in trees saved before
+  // this was recorded
+  private final boolean hardMode_;
   private Node current_;
-  private final Random rand_ = new Random(System.currentTimeMillis());
+  private final Random rand_ = new Random(SEED);
 
 
   /**
@@ -37,7 +53,41 @@ public class QueryTree implements Serializable {
    *          the root node
    */
   public QueryTree(Node n) {
+    this(n, false);
+  }
+
+
+  /**
+   * Create a new query tree with its root at node n, recording whether it was
+   * built in hard mode
+   * 
+   * @param n
+   *          the root node
+   * @param hardMode
+   *          whether every guess of the tree is consistent with the responses
+   *          before it, see {@link HardModeStrategy}
+   */
+  public QueryTree(Node n, boolean hardMode) {
     root_ = n;
+    hardMode_ = hardMode;
+  }
+
+
+  /**
+   * @return whether the tree was built in hard mode
+   */
+  public boolean isHardMode() {
+    return hardMode_;
+  }
+
+
+  /*
+   * A new tree over the same nodes, at the root, with a position of its own.
+   */
+  QueryTree cursor() {
+    QueryTree cursor = new QueryTree(root_, hardMode_);
+    cursor.start();
+    return cursor;
   }
 
 
@@ -49,6 +99,21 @@ public class QueryTree implements Serializable {
   }
 
 
+  /**
+   * Seed the choice of guess word among the equally good guesses of a node.
+   * New trees are seeded with -Djotto.seed if set, otherwise with
+   * {@link #DEFAULT_SEED}, so games are repeatable unless this is called.
+   * Trees read from a file saved with {@link #saveToFile(File)} continue the
+   * sequence they were saved with.
+   * 
+   * @param seed
+   *          seed of the random choice
+   */
+  public void setSeed(long seed) {
+    rand_.setSeed(seed);
+  }
+
+
   /**
    * Follow the link to the node matching n letters.
    * 
@@ -56,8 +121,9 @@ public class QueryTree implements Serializable {
    *          the number of matching letters of the guess word.
    */
   public void traverse(int n) {
-    if (current_.getLink(n) != null) {
-      current_ = current_.getLink(n);
+    Node next = current_.getLink(n);
+    if (next != null) {
+      current_ = next;
     }
   }
 
@@ -69,16 +135,30 @@ public class QueryTree implements Serializable {
    *         there is a Node corresponding to a match of that many letters.
    */
   public boolean[] getActiveLinks() {
+    int mask = current_.getLinkMask();
     boolean[] retValue = new boolean[6];
     for (int i = 0; i < 6; i++) {
-      retValue[i] = (current_.getLink(i) != null);
+      retValue[i] = (mask & (1 << i)) != 0;
     }
     return retValue;
   }
 
 
   /**
-   * Returns a query tree opened from a file.
+   * Query whether the links are active, without allocating.
+   * 
+   * @return bit i is set if there is a Node corresponding to a match of i
+   *         letters
+   */
+  public int getActiveLinkMask() {
+    return current_.getLinkMask();
+  }
+
+
+  /**
+   * Returns a query tree opened from a file, either saved by
+   * {@link #saveToFile(File)} or in the flat format saved by
+   * {@link #saveToFlatFile(File)}.
    * 
    * @param file
    *          file to open
@@ -88,16 +168,65 @@ public class QueryTree implements Serializable {
    */
   public static QueryTree readFromFile(File file) throws IOException,
       DataFormatException {
-    FileInputStream fis = new FileInputStream(file);
-    ObjectInputStream ois = new ObjectInputStream(fis);
-    QueryTree qt = null;
+    InputStream in = new FileInputStream(file);
     try {
-      qt = (QueryTree) ois.readObject();
-    } catch (ClassNotFoundException e) {
-      throw new DataFormatException();
+      return readFromStream(in);
     } finally {
-      ois.close();
+      in.close();
+    }
+  }
+
+
+  /**
+   * Returns a query tree read from a stream in either format, such as a
+   * resource. The stream is left open.
+   * 
+   * @param in
+   *          stream positioned at the start of the tree
+   * @return the query tree
+   * @throws IOException
+   *           on read error
+   * @throws DataFormatException
+   *           if the stream does not hold a saved query tree
+   */
+  public static QueryTree readFromStream(InputStream in) throws IOException,
+      DataFormatException {
+    BufferedInputStream bin = new BufferedInputStream(in, 1 << 16);
+    bin.mark(4);
+    boolean flat = FlatTreeFormat.isFlat(bin);
+    bin.reset();
+    if (flat) {
+      QueryTree qt = FlatTreeFormat.read(bin);
+      qt.start();
+      return qt;
     }
+    ObjectInputStream ois = new ObjectInputStream(bin);
+    try {
+      return (QueryTree) ois.readObject();
+    } catch (ClassNotFoundException | ClassCastException e) {
+      throw new DataFormatException();
+    }
+  }
+
+
+  /**
+   * Open a query tree saved in the flat format without reading it into
+   * memory. The file is mapped and nodes are read from it as the tree is
+   * traversed, so large trees open in constant time and heap.
+   * 
+   * @param file
+   *          file saved by {@link #saveToFlatFile(File)} or built by
+   *          {@link JottoCore#streamQueryTree(File, GuessStrategy, File)}
+   * @return the query tree, started at its root
+   * @throws IOException
+   *           on read error
+   * @throws DataFormatException
+   *           if the file is not a flat format tree
+   */
+  public static QueryTree openFlatFile(File file) throws IOException,
+      DataFormatException {
+    QueryTree qt = LazyNode.open(file);
+    qt.start();
     return qt;
   }
 
@@ -113,171 +242,370 @@ public class QueryTree implements Serializable {
   public void saveToFile(File file) throws IOException {
     FileOutputStream fos = new FileOutputStream(file);
     ObjectOutputStream oos = new ObjectOutputStream(fos);
-    oos.writeObject(this);
-    oos.close();
+    Node.beginWrite();
+    try {
+      oos.writeObject(this);
+    } finally {
+      Node.endWrite();
+      oos.close();
+    }
   }
 
   
+  /**
+   * Write this QueryTree to file in the flat format. Unlike
+   * {@link #saveToFile(File)}, this does not rely on Java serialization and
+   * does not save the current position in the tree.
+   * 
+   * @param file
+   *          file name
+   * @throws IOException
+   *           on write error
+   */
+  public void saveToFlatFile(File file) throws IOException {
+    FlatTreeFormat.write(root_, hardMode_, file);
+  }
+
+
+  /**
+   * @return number of nodes of the tree
+   */
+  public int getNodeCount() {
+    return countNodes(root_);
+  }
+
+
+  /**
+   * @return number of nodes on the longest path from the root to a leaf
+   */
+  public int getDepth() {
+    return depth(root_);
+  }
+
+
+  /**
+   * @return every word of the leaves of the tree, in depth-first order
+   */
+  public List<String> getSolutionWords() {
+    List<String> words = new ArrayList<String>();
+    collectSolutionWords(root_, words);
+    return words;
+  }
+
+
+  /**
+   * Walk the whole tree to measure its shape, size and expected guesses. A
+   * tree opened with {@link #openFlatFile(File)} is read without being held
+   * in memory.
+   *
+   * @param parallelism
+   *          number of threads walking the tree
+   * @return the analysis of the tree
+   */
+  public TreeAnalysis analyze(int parallelism) {
+    return TreeAnalysis.analyze(root_, parallelism);
+  }
+
+
+  /*
+   * Add the words of the leaves of a subtree.
+   */
+  private static void collectSolutionWords(Node n, List<String> words) {
+    if (n == null) {
+      return;
+    }
+    if (n.getAnagrams() != null) {
+      words.addAll(WordPool.getDefault().words(n.getAnagrams()));
+    }
+    for (int i = 0; i < 6; i++) {
+      collectSolutionWords(n.getLink(i), words);
+    }
+  }
+
+
+  /*
+   * Number of nodes of a subtree.
+   */
+  private static int countNodes(Node n) {
+    if (n == null) {
+      return 0;
+    }
+    int count = 1;
+    for (int i = 0; i < 6; i++) {
+      count += countNodes(n.getLink(i));
+    }
+    return count;
+  }
+
+
+  /*
+   * Depth of a subtree.
+   */
+  private static int depth(Node n) {
+    if (n == null) {
+      return 0;
+    }
+    int depth = 0;
+    for (int i = 0; i < 6; i++) {
+      depth = Math.max(depth, depth(n.getLink(i)));
+    }
+    return depth + 1;
+  }
+
+
   /*
    * Create a subtree for each link using the current set of possibilities.
    */
-  static Node recursivelyBuildTree(Set<String> possibilities, Map<String, List<String>> allWords) {
+  static Node recursivelyBuildTree(Set<String> possibilities,
+      Map<String, List<String>> allWords, GuessStrategy strategy) {
     if (possibilities == null) {
       return null;
-    } else if (possibilities.size() == 1) {
+    }
+    Map<Integer, Set<String>> bins = new HashMap<Integer, Set<String>>();
+    Node n = newNode(possibilities, allWords, strategy, bins);
+    for (int i = 0; i < 6; i++) {
+      n.setLink(i, recursivelyBuildTree(bins.get(i), allWords, strategy));
+    }
+    return n;
+  }
+
+
+  /*
+   * Build the tree using up to parallelism threads. Subtrees with fewer than
+   * PARALLEL_THRESHOLD possibilities are built by a single thread.
+   */
+  static Node buildTree(Set<String> possibilities,
+      Map<String, List<String>> allWords, GuessStrategy strategy,
+      int parallelism) {
+    if (parallelism <= 1) {
+      return recursivelyBuildTree(possibilities, allWords, strategy);
+    }
+    ForkJoinPool pool = new ForkJoinPool(parallelism);
+    try {
+      return pool.invoke(new BuildTask(possibilities, allWords, strategy));
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+
+  /*
+   * Create the node for a set of possibilities without its links. For an
+   * interior node, the possibilities of each link are put in bins by number
+   * of matching letters; empty bins are left out.
+   */
+  static Node newNode(Set<String> possibilities,
+      Map<String, List<String>> allWords, GuessStrategy strategy,
+      Map<Integer, Set<String>> bins) {
+    if (EngineMetrics.isCollecting()) {
+      EngineMetrics.nodeBuilt();
+    }
+    if (possibilities.size() == 1) {
       // get the single element
       Iterator<String> it = possibilities.iterator();
       return Node.nodeFromAnagrams(allWords.get(it.next()));
     }
-    String guess = JottoCore.findBestWord(possibilities, allWords);
+    boolean metrics = EngineMetrics.isCollecting();
+    long startTime = metrics ? System.nanoTime() : 0;
+    String guess = strategy.findBestWord(possibilities, allWords);
+    if (metrics) {
+      EngineMetrics.findBestWord(System.nanoTime() - startTime);
+      EngineMetrics.numMatchingLetters(possibilities.size());
+    }
     Node n = Node.nodeFromGuesses(allWords.get(guess));
-    HashMap<Integer, Set<String>> bins = new HashMap<Integer, Set<String>>();
     for (String w : possibilities) {
       int match = JottoCore.numMatchingLetters(guess, w);
       if (!bins.containsKey(match)) {
-        bins.put(match, new HashSet<String>());
+        bins.put(match, new LinkedHashSet<String>());
       }
       bins.get(match).add(w);
     }
-    for (int i = 0; i < 6; i++) {
-      n.setLink(i, recursivelyBuildTree(bins.get(i), allWords));
-    }
     return n;
   }
 
-  /**
-   * Query the system for possible words.
-   * 
-   * @return a List<String> of possible anagrams. Returns null if options are
-   *         narrowed only to one set of anagrams.
+
+  /*
+   * Build a tree into a flat format file, writing each node before building
+   * its subtrees. Returns the number of nodes.
    */
-  public List<String> getWords() {
-    return current_.getAnagrams();
+  static long streamTree(Set<String> possibilities,
+      Map<String, List<String>> allWords, GuessStrategy strategy, File file)
+      throws IOException {
+    List<String> words = new ArrayList<String>();
+    for (List<String> anagrams : allWords.values()) {
+      words.addAll(anagrams);
+    }
+    FlatTreeWriter writer = new FlatTreeWriter(file, words,
+        strategy instanceof HardModeStrategy);
+    try {
+      writer.finish(possibilities.isEmpty() ? 0 : streamSubtree(
+          possibilities, allWords, strategy, writer));
+    } finally {
+      writer.close();
+    }
+    return writer.getNodeCount();
   }
 
 
-  /**
-   * Query the system for the next guess
-   * 
-   * @return the next word to guess
+  /*
+   * Build and write a subtree, returning the offset of its root. Each bin is
+   * released once its subtree is written.
    */
-  public String getGuessWord() {
-    if (current_.getGuess() == null) {
-      return null;
+  private static long streamSubtree(Set<String> possibilities,
+      Map<String, List<String>> allWords, GuessStrategy strategy,
+      FlatTreeWriter writer) throws IOException {
+    Map<Integer, Set<String>> bins = new HashMap<Integer, Set<String>>();
+    Node n = newNode(possibilities, allWords, strategy, bins);
+    int mask = 0;
+    for (int i : bins.keySet()) {
+      mask |= 1 << i;
+    }
+    long offset = writer.writeNode(n.getGuess(), n.getAnagrams(), mask);
+    long links = writer.lastLinks();
+    for (int i = 0; i < 6; i++) {
+      Set<String> bin = bins.remove(i);
+      if (bin != null) {
+        long child = streamSubtree(bin, allWords, strategy, writer);
+        writer.setLink(FlatTreeWriter.linkOffset(links, mask, i), child);
+      }
     }
-    int n = rand_.nextInt(current_.getGuess().size());
-    return current_.getGuess().get(n);
+    return offset;
   }
 
 
-  /**
-   * @param args
-   * @throws IOException
-   * @throws ClassNotFoundException
+  /*
+   * The root node of the tree.
    */
-  public static void main(String[] args) throws IOException,
-      ClassNotFoundException {
-    // FileInputStream fos = new FileInputStream(new File("test"));
-    // ObjectInputStream oos = new ObjectInputStream(fos);
-    // QueryTree test = (QueryTree) oos.readObject();
-    // oos.close();
+  Node getRoot() {
+    return root_;
   }
-}
-
-/**
- * Represents nodes of the decision tree. Interior nodes have a list of words
- * for what to guess. Leaf nodes have a list of anagrams of proposed solution
- * words.
- * 
- * @author Zhe Lu
- * 
- */
-class Node implements Serializable {
-
-  private static final long serialVersionUID = 2694492917093744338L;
-  private List<String> guess_;
-  private Node[] links_ = new Node[6];
-  private List<String> words_;
 
 
   /**
-   * Create an internal node from a list of guess
+   * Query the system for possible words.
    * 
-   * @param guesses
-   * @return
+   * @return a new List<String> of possible anagrams. Returns null if options
+   *         are not narrowed to one set of anagrams.
    */
-  protected static Node nodeFromGuesses(List<String> guesses) {
-    Node retValue = new Node();
-    retValue.guess_ = guesses;
-    return retValue;
+  public List<String> getWords() {
+    return WordPool.getDefault().words(current_.getAnagrams());
   }
 
 
   /**
-   * Create a leaf node from a list of anagrams
+   * Query the system for possible words, without copying them. The list is
+   * created once per node and shared.
    * 
-   * @param anagrams
-   * @return
+   * @return a read-only list of possible anagrams. Returns null if options
+   *         are not narrowed to one set of anagrams.
    */
-  protected static Node nodeFromAnagrams(List<String> anagrams) {
-    Node retValue = new Node();
-    retValue.words_ = anagrams;
-    return retValue;
+  public List<String> getCandidates() {
+    return current_.getAnagramView();
   }
 
 
   /**
-   * Get the anagrams associated with this node
+   * Query the system for the next guess
    * 
-   * @return a list of anagrams representing the guesses for the current game
+   * @return the next word to guess
    */
-  protected List<String> getAnagrams() {
-    return words_;
+  public String getGuessWord() {
+    int id = getGuessId();
+    return id < 0 ? null : WordPool.getDefault().word(id);
   }
 
 
   /**
-   * Get the guesses for the current node
+   * Query the system for the next guess, without allocating.
    * 
-   * @return a list of guess words we can use
+   * @return id of the next word to guess in the default {@link WordPool}, or
+   *         -1 if options are narrowed to one set of anagrams
    */
-  protected List<String> getGuess() {
-    return guess_;
+  public int getGuessId() {
+    int[] guess = current_.getGuess();
+    if (guess == null) {
+      return -1;
+    }
+    return guess[rand_.nextInt(guess.length)];
   }
 
 
-  /**
-   * Set the guesses for the current node
-   * 
-   * @param guesses
-   *          a list of guesses
+  /*
+   * Index of the next guess among the equal guesses of the current node, or
+   * -1 if options are narrowed to one set of anagrams.
    */
-  protected void setGuess(List<String> guesses) {
-    guess_ = guesses;
+  int getGuessIndex() {
+    int[] guess = current_.getGuess();
+    return guess == null ? -1 : rand_.nextInt(guess.length);
   }
 
 
-  /**
-   * Get the node corresponding to a match of n letters in the guess word
-   * 
-   * @param n
-   *          the number of letters matching in the guess word
-   * @return the next node in the tree traversal
+  /*
+   * The node the game has reached.
    */
-  protected Node getLink(int n) {
-    return links_[n];
+  Node getCurrentNode() {
+    return current_;
   }
 
 
   /**
-   * Set the node corresponding to a match of n letters in the guess word
-   * 
-   * @param n
-   *          the number of matches
-   * @param node
-   *          the next node
+   * @param args
+   * @throws IOException
+   * @throws ClassNotFoundException
    */
-  protected void setLink(int n, Node node) {
-    links_[n] = node;
+  public static void main(String[] args) throws IOException,
+      ClassNotFoundException {
+    // FileInputStream fos = new FileInputStream(new File("test"));
+    // ObjectInputStream oos = new ObjectInputStream(fos);
+    // QueryTree test = (QueryTree) oos.readObject();
+    // oos.close();
+  }
+}
+
+/**
+ * Builds a subtree, forking a task for each link with enough possibilities.
+ * 
+ * @author Zhe Lu
+ * 
+ */
+class BuildTask extends RecursiveTask<Node> {
+
+  private static final long serialVersionUID = 4468512372251306271L;
+  // smallest set of possibilities built in a task of its own
+  private static final int PARALLEL_THRESHOLD = 64;
+  private final Set<String> possibilities_;
+  private final Map<String, List<String>> allWords_;
+  private final GuessStrategy strategy_;
+
+
+  BuildTask(Set<String> possibilities, Map<String, List<String>> allWords,
+      GuessStrategy strategy) {
+    possibilities_ = possibilities;
+    allWords_ = allWords;
+    strategy_ = strategy;
+  }
+
+
+  @Override
+  protected Node compute() {
+    if (possibilities_.size() < PARALLEL_THRESHOLD) {
+      return QueryTree.recursivelyBuildTree(possibilities_, allWords_,
+          strategy_);
+    }
+    Map<Integer, Set<String>> bins = new HashMap<Integer, Set<String>>();
+    Node n = QueryTree.newNode(possibilities_, allWords_, strategy_, bins);
+    BuildTask[] tasks = new BuildTask[6];
+    for (int i = 0; i < 6; i++) {
+      if (bins.get(i) != null) {
+        tasks[i] = new BuildTask(bins.get(i), allWords_, strategy_);
+        tasks[i].fork();
+      }
+    }
+    for (int i = 0; i < 6; i++) {
+      if (tasks[i] != null) {
+        n.setLink(i, tasks[i].join());
+      }
+    }
+    return n;
   }
-}
\ No newline at end of file
+}
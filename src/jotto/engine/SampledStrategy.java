@@ -0,0 +1,249 @@
+package jotto.engine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Estimates the entropy of every candidate from a seeded random sample of the
+ * remaining possibilities and re-scores only the most promising candidates
+ * exactly. Possibility sets no larger than the sample size are searched
+ * exhaustively.
+ * <p>
+ * A candidate is re-scored if the upper bound of its confidence interval
+ * reaches the best lower bound, limited to the candidates with the highest
+ * estimates. The interval uses the standard error of the plug-in entropy
+ * estimate, sqrt(Var[-ln p] / m) for a sample of m possibilities. The estimate
+ * always uses entropy; the strategy's scorer decides among the re-scored
+ * candidates.
+ * 
+ * @author Zhe Lu
+ * 
+ */
+public class SampledStrategy implements GuessStrategy {
+
+  private final int sampleSize_;
+  private final double z_;
+  private final int maxRescore_;
+  private final long seed_;
+  private final GuessScorer scorer_;
+  private final SelectionAudit audit_ = new SelectionAudit();
+
+
+  /**
+   * Constructor.
+   * 
+   * @param sampleSize
+   *          number of possibilities sampled to estimate bin distributions
+   * @param confidence
+   *          two-sided confidence level in (0, 1) of the entropy intervals
+   * @param maxRescore
+   *          largest number of candidates re-scored exactly
+   * @param seed
+   *          random seed for sampling
+   */
+  public SampledStrategy(int sampleSize, double confidence, int maxRescore,
+      long seed) {
+    this(sampleSize, confidence, maxRescore, seed, new EntropyScorer());
+  }
+
+
+  /**
+   * Constructor.
+   * 
+   * @param sampleSize
+   *          number of possibilities sampled to estimate bin distributions
+   * @param confidence
+   *          two-sided confidence level in (0, 1) of the entropy intervals
+   * @param maxRescore
+   *          largest number of candidates re-scored exactly
+   * @param seed
+   *          random seed for sampling
+   * @param scorer
+   *          scorer of the re-scored candidates
+   */
+  public SampledStrategy(int sampleSize, double confidence, int maxRescore,
+      long seed, GuessScorer scorer) {
+    if (sampleSize < 1 || maxRescore < 1) {
+      throw new IllegalArgumentException(
+          "sample size and number of candidates to rescore must be positive");
+    }
+    if (confidence <= 0 || confidence >= 1) {
+      throw new IllegalArgumentException(
+          "confidence must be between 0 and 1, exclusive");
+    }
+    sampleSize_ = sampleSize;
+    z_ = normalQuantile(0.5 + confidence / 2);
+    maxRescore_ = maxRescore;
+    seed_ = seed;
+    scorer_ = scorer;
+  }
+
+
+  /**
+   * Constructor with 95% confidence and at most 16 candidates re-scored.
+   * 
+   * @param sampleSize
+   *          number of possibilities sampled to estimate bin distributions
+   * @param seed
+   *          random seed for sampling
+   */
+  public SampledStrategy(int sampleSize, long seed) {
+    this(sampleSize, 0.95, 16, seed);
+  }
+
+
+  /**
+   * @return the record of quality lost against the exhaustive search
+   */
+  public SelectionAudit getAudit() {
+    return audit_;
+  }
+
+
+  @Override
+  public String findBestWord(Set<String> possibilities,
+      Map<String, List<String>> allWords) {
+    if (possibilities.size() <= sampleSize_) {
+      String best = JottoCore.findBestWord(possibilities, allWords, scorer_);
+      audit_.record(best, possibilities, allWords, scorer_);
+      return best;
+    }
+    String[] sample = sample(possibilities);
+    int[] weights = new int[sample.length];
+    int N = 0;
+    for (int i = 0; i < sample.length; i++) {
+      weights[i] = allWords.get(sample[i]).size();
+      N += weights[i];
+    }
+
+    if (EngineMetrics.isCollecting()) {
+      EngineMetrics.numMatchingLetters((long) allWords.size() * sample.length);
+    }
+    List<Estimate> estimates = new ArrayList<Estimate>(allWords.size());
+    double bestLower = 0;
+    for (String w : allWords.keySet()) {
+      int[] count = new int[6];
+      for (int i = 0; i < sample.length; i++) {
+        count[JottoCore.numMatchingLetters(w, sample[i])] += weights[i];
+      }
+      Estimate e = estimate(w, count, N);
+      estimates.add(e);
+      bestLower = Math.max(bestLower, e.entropy_ - e.error_);
+    }
+    Collections.sort(estimates, new Comparator<Estimate>() {
+      @Override
+      public int compare(Estimate a, Estimate b) {
+        return Double.compare(b.entropy_, a.entropy_);
+      }
+    });
+
+    List<String> rescore = new ArrayList<String>(maxRescore_);
+    for (Estimate e : estimates) {
+      if (rescore.size() == maxRescore_) {
+        break;
+      }
+      // intervals differ in width, so a lower estimate may still reach the
+      // best lower bound
+      if (e.entropy_ + e.error_ >= bestLower) {
+        rescore.add(e.word_);
+      }
+    }
+    String best = JottoCore.findBestWord(possibilities, rescore, allWords,
+        scorer_);
+    if (best.isEmpty()) {
+      // the sample did not separate the possibilities
+      best = JottoCore.findBestWord(possibilities, allWords, scorer_);
+    }
+    audit_.record(best, possibilities, allWords, scorer_);
+    return best;
+  }
+
+
+  /*
+   * Sample possibilities without replacement. The seed depends only on the
+   * strategy seed and the set, so selections are repeatable.
+   */
+  private String[] sample(Set<String> possibilities) {
+    String[] all = possibilities.toArray(new String[possibilities.size()]);
+    Random rand = new Random(seed_ * 31 + possibilities.hashCode());
+    for (int i = 0; i < sampleSize_; i++) {
+      int j = i + rand.nextInt(all.length - i);
+      String tmp = all[i];
+      all[i] = all[j];
+      all[j] = tmp;
+    }
+    String[] retValue = new String[sampleSize_];
+    System.arraycopy(all, 0, retValue, 0, sampleSize_);
+    return retValue;
+  }
+
+
+  /*
+   * Entropy estimate and confidence half-width from sampled bin counts.
+   */
+  private Estimate estimate(String w, int[] count, int N) {
+    double entropy = 0;
+    double secondMoment = 0;
+    for (int i = 0; i < count.length; i++) {
+      if (count[i] == 0) {
+        continue;
+      }
+      double p = (double) count[i] / N;
+      double info = -Math.log(p);
+      entropy += p * info;
+      secondMoment += p * info * info;
+    }
+    double variance = Math.max(0, secondMoment - entropy * entropy);
+    return new Estimate(w, entropy, z_ * Math.sqrt(variance / sampleSize_));
+  }
+
+
+  /*
+   * Quantile of the standard normal distribution (Abramowitz and Stegun
+   * 26.2.23, absolute error below 4.5e-4).
+   */
+  static double normalQuantile(double p) {
+    if (p < 0.5) {
+      return -normalQuantile(1 - p);
+    }
+    double t = Math.sqrt(-2 * Math.log(1 - p));
+    return t - (2.515517 + 0.802853 * t + 0.010328 * t * t)
+        / (1 + 1.432788 * t + 0.189269 * t * t + 0.001308 * t * t * t);
+  }
+
+
+  /**
+   * @return the number of possibilities sampled
+   */
+  public int getSampleSize() {
+    return sampleSize_;
+  }
+
+
+  @Override
+  public String toString() {
+    return "sample m=" + sampleSize_ + " " + scorer_ + ": " + audit_;
+  }
+
+
+  /*
+   * Estimated entropy of a candidate.
+   */
+  private static class Estimate {
+    private final String word_;
+    private final double entropy_;
+    private final double error_;
+
+
+    Estimate(String word, double entropy, double error) {
+      word_ = word;
+      entropy_ = entropy;
+      error_ = error;
+    }
+  }
+}
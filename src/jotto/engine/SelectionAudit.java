@@ -0,0 +1,133 @@
+package jotto.engine;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Records how much worse the guesses of an approximate strategy are than the
+ * exhaustive result. Losses are measured as the score of the exhaustive guess
+ * minus the score of the chosen guess, in nats for entropy scorers.
+ * 
+ * @author Zhe Lu
+ * 
+ */
+public class SelectionAudit {
+
+  private volatile boolean enabled_ = false;
+  private long selections_ = 0;
+  private long audited_ = 0;
+  private long suboptimal_ = 0;
+  private double totalLoss_ = 0;
+  private double maxLoss_ = 0;
+
+
+  /**
+   * Enable or disable comparing each selection against the exhaustive result.
+   * Auditing costs a full O(N^2) search per selection.
+   * 
+   * @param enabled
+   *          whether to audit selections
+   */
+  public void setEnabled(boolean enabled) {
+    enabled_ = enabled;
+  }
+
+
+  /**
+   * @return whether selections are audited
+   */
+  public boolean isEnabled() {
+    return enabled_;
+  }
+
+
+  /*
+   * Record a selection, auditing it if enabled.
+   */
+  void record(String chosen, Set<String> possibilities,
+      Map<String, List<String>> allWords, GuessScorer scorer) {
+    if (!enabled_) {
+      synchronized (this) {
+        selections_++;
+      }
+      return;
+    }
+    double loss = 0;
+    String exact = JottoCore.findBestWord(possibilities, allWords, scorer);
+    if (!exact.isEmpty()) {
+      loss = JottoCore.getScore(exact, possibilities, allWords, scorer)
+          - JottoCore.getScore(chosen, possibilities, allWords, scorer);
+    }
+    synchronized (this) {
+      selections_++;
+      audited_++;
+      if (loss > 1e-12) {
+        suboptimal_++;
+        totalLoss_ += loss;
+        maxLoss_ = Math.max(maxLoss_, loss);
+      }
+    }
+  }
+
+
+  /**
+   * @return number of selections made
+   */
+  public synchronized long getSelections() {
+    return selections_;
+  }
+
+
+  /**
+   * @return number of selections compared against the exhaustive result
+   */
+  public synchronized long getAudited() {
+    return audited_;
+  }
+
+
+  /**
+   * @return number of audited selections worse than the exhaustive result
+   */
+  public synchronized long getSuboptimal() {
+    return suboptimal_;
+  }
+
+
+  /**
+   * @return total score lost over all audited selections
+   */
+  public synchronized double getTotalLoss() {
+    return totalLoss_;
+  }
+
+
+  /**
+   * @return largest score lost in a single audited selection
+   */
+  public synchronized double getMaxLoss() {
+    return maxLoss_;
+  }
+
+
+  /**
+   * Clear the statistics.
+   */
+  public synchronized void reset() {
+    selections_ = 0;
+    audited_ = 0;
+    suboptimal_ = 0;
+    totalLoss_ = 0;
+    maxLoss_ = 0;
+  }
+
+
+  @Override
+  public synchronized String toString() {
+    return selections_ + " selections, " + audited_ + " audited, "
+        + suboptimal_ + " suboptimal, total loss "
+        + String.format("%.4f", totalLoss_) + ", max loss "
+        + String.format("%.4f", maxLoss_);
+  }
+}
@@ -0,0 +1,102 @@
+package jotto.engine;
+
+/**
+ * Parses textual descriptions of guess strategies, as used by the command line
+ * tools.
+ * <p>
+ * A strategy is exhaustive, preselect:k (or just k) for
+ * {@link PreselectStrategy}, or sample:m[:confidence[:rescore]] for
+ * {@link SampledStrategy}. A hard: prefix restricts any of them to
+ * {@link HardModeStrategy hard mode}; hard alone is the exhaustive search in
+ * hard mode. A suffix of @entropy, @table, @maxbin or {@literal @}expected
+ * selects the {@link GuessScorer}.
+ * 
+ * @author Zhe Lu
+ * 
+ */
+public final class StrategySpec {
+
+  /*
+   * Only used internally.
+   */
+  private StrategySpec() {
+  }
+
+
+  /**
+   * Parse a strategy.
+   * 
+   * @param spec
+   *          description of the strategy
+   * @param words
+   *          number of words in the dictionary, used to size tables
+   * @param audit
+   *          whether approximate strategies audit their selections
+   * @return the strategy
+   * @throws IllegalArgumentException
+   *           if the description cannot be parsed
+   */
+  public static GuessStrategy parse(String spec, int words, boolean audit) {
+    String[] parts = spec.split("@");
+    GuessScorer scorer = parts.length > 1 ? parseScorer(parts[1], words)
+        : new EntropyScorer();
+    try {
+      return parseStrategy(parts[0].split(":"), 0, scorer, audit);
+    } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+      throw new IllegalArgumentException("bad strategy: " + spec);
+    }
+  }
+
+
+  /**
+   * Parse the name of a scorer: entropy, table, maxbin or expected.
+   * 
+   * @param name
+   *          name of the scorer
+   * @param words
+   *          number of words in the dictionary, used to size tables
+   * @return the scorer
+   * @throws IllegalArgumentException
+   *           if the name is unknown
+   */
+  public static GuessScorer parseScorer(String name, int words) {
+    if (name.equals("entropy")) {
+      return new EntropyScorer();
+    } else if (name.equals("table")) {
+      return new TableEntropyScorer(words);
+    } else if (name.equals("maxbin")) {
+      return new MaxBinScorer();
+    } else if (name.equals("expected")) {
+      return new ExpectedSizeScorer();
+    }
+    throw new IllegalArgumentException("unknown scorer: " + name);
+  }
+
+
+  /*
+   * Parse a strategy specification starting at spec[from].
+   */
+  private static GuessStrategy parseStrategy(String[] spec, int from,
+      GuessScorer scorer, boolean audit) {
+    if (spec[from].equals("hard")) {
+      if (spec.length == from + 1) {
+        return new HardModeStrategy(new ExhaustiveStrategy(scorer));
+      }
+      return new HardModeStrategy(parseStrategy(spec, from + 1, scorer,
+          audit));
+    } else if (spec[from].equals("exhaustive")) {
+      return new ExhaustiveStrategy(scorer);
+    } else if (spec[from].equals("sample")) {
+      SampledStrategy s = new SampledStrategy(Integer.parseInt(spec[from + 1]),
+          spec.length > from + 2 ? Double.parseDouble(spec[from + 2]) : 0.95,
+          spec.length > from + 3 ? Integer.parseInt(spec[from + 3]) : 16, 0,
+          scorer);
+      s.getAudit().setEnabled(audit);
+      return s;
+    }
+    PreselectStrategy p = new PreselectStrategy(
+        Integer.parseInt(spec[spec.length - 1]), scorer);
+    p.getAudit().setEnabled(audit);
+    return p;
+  }
+}
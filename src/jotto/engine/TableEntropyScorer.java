@@ -0,0 +1,53 @@
+package jotto.engine;
+
+/**
+ * Computes the same entropy as {@link EntropyScorer} from a precomputed table
+ * of c ln c, using H = ln N - sum(c ln c) / N. Counts beyond the table are
+ * computed directly.
+ * 
+ * @author Zhe Lu
+ * 
+ */
+public class TableEntropyScorer implements GuessScorer {
+
+  private final double[] cLogC_;
+
+
+  /**
+   * Constructor.
+   * 
+   * @param maxCount
+   *          largest count kept in the table, typically the number of words in
+   *          the dictionary
+   */
+  public TableEntropyScorer(int maxCount) {
+    cLogC_ = new double[maxCount + 1];
+    for (int c = 1; c <= maxCount; c++) {
+      cLogC_[c] = c * Math.log(c);
+    }
+  }
+
+
+  @Override
+  public double score(int[] counts, int N) {
+    double sum = 0;
+    for (int i = 0; i < counts.length; i++) {
+      sum += cLogC(counts[i]);
+    }
+    return (cLogC(N) - sum) / N;
+  }
+
+
+  /*
+   * c ln c, with 0 ln 0 = 0.
+   */
+  private double cLogC(int c) {
+    return c < cLogC_.length ? cLogC_[c] : c * Math.log(c);
+  }
+
+
+  @Override
+  public String toString() {
+    return "table";
+  }
+}
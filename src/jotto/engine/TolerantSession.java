@@ -0,0 +1,297 @@
+package jotto.engine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A game that tolerates up to k mis-reported responses. Instead of dropping
+ * every word inconsistent with a response, each word keeps a count of the
+ * responses it disagrees with and is only dropped once that count exceeds k.
+ * <p>
+ * The counts are kept as bit-sliced counters over the anagram class ids of the
+ * {@link ConsistencyIndex}, so a response updates 64 classes at a time in
+ * O(log k) operations, without revisiting earlier responses.
+ * <p>
+ * Guesses are chosen by scoring how candidates partition the remaining words,
+ * where a word with e errors is weighted by 2^(k - e). Words already guessed
+ * are not guessed again.
+ * 
+ * @author Zhe Lu
+ * 
+ */
+public class TolerantSession {
+
+  private final Map<String, List<String>> allWords_;
+  private final ConsistencyIndex index_;
+  private final GuessScorer scorer_;
+  private final int k_;
+  private final long[] alive_;
+  // bit p of the error count of each class
+  private final long[][] errors_;
+  private final boolean[] guessed_;
+  private int guess_ = -1;
+
+
+  /**
+   * Constructor scoring guesses by entropy.
+   * 
+   * @param core
+   *          engine built from a list of words
+   * @param k
+   *          number of mis-reported responses to tolerate, at most 8
+   * @throws IllegalArgumentException
+   *           if k is out of range or the engine has no words
+   */
+  public TolerantSession(JottoCore core, int k) {
+    this(core, k, new EntropyScorer());
+  }
+
+
+  /**
+   * Constructor.
+   * 
+   * @param core
+   *          engine built from a list of words
+   * @param k
+   *          number of mis-reported responses to tolerate, at most 8
+   * @param scorer
+   *          scorer of guesses
+   * @throws IllegalArgumentException
+   *           if k is out of range or the engine has no words
+   */
+  public TolerantSession(JottoCore core, int k, GuessScorer scorer) {
+    if (k < 0 || k > 8) {
+      throw new IllegalArgumentException(
+          "The number of errors tolerated must be between 0 and 8, inclusive.");
+    }
+    if (core.getAllWords().isEmpty()) {
+      throw new IllegalArgumentException("the engine has no words");
+    }
+    allWords_ = core.getAllWords();
+    index_ = core.getIndex();
+    scorer_ = scorer;
+    k_ = k;
+    alive_ = new long[index_.words()];
+    errors_ = new long[32 - Integer.numberOfLeadingZeros(k + 1)][index_
+        .words()];
+    guessed_ = new boolean[index_.size()];
+    restart();
+  }
+
+
+  /**
+   * Restart the game.
+   */
+  public void restart() {
+    System.arraycopy(index_.all(), 0, alive_, 0, alive_.length);
+    for (long[] plane : errors_) {
+      Arrays.fill(plane, 0);
+    }
+    Arrays.fill(guessed_, false);
+    guess_ = -1;
+  }
+
+
+  /**
+   * Get the best guess word.
+   * 
+   * @return best guess word or null if no more guesses are needed
+   */
+  public String getGuess() {
+    if (guess_ < 0) {
+      guess_ = findBestWord();
+    }
+    return guess_ < 0 ? null : allWords_.get(index_.key(guess_)).get(0);
+  }
+
+
+  /**
+   * Input the number of matching letters for the current guess word.
+   * 
+   * @param n
+   *          number of matching letters
+   */
+  public void numMatches(int n) {
+    if (n < 0 || n > 5) {
+      throw new IllegalArgumentException(
+          "The number of matches must be between 0 and 5, inclusive.");
+    }
+    if (getGuess() == null) {
+      throw new IllegalStateException("no guess has been made");
+    }
+    long[][] terms = index_.terms(index_.key(guess_));
+    int limit = k_ + 1;
+    for (int i = 0; i < alive_.length; i++) {
+      long alive = alive_[i];
+      if (alive == 0) {
+        continue;
+      }
+      // increment the counters of the classes disagreeing with the response
+      long carry = alive & ~ConsistencyIndex.equalTo(terms, i, n);
+      for (int p = 0; p < errors_.length && carry != 0; p++) {
+        long next = errors_[p][i] & carry;
+        errors_[p][i] ^= carry;
+        carry = next;
+      }
+      // drop the classes whose count reached k + 1
+      long over = alive;
+      for (int p = 0; p < errors_.length; p++) {
+        over &= ((limit >>> p) & 1) != 0 ? errors_[p][i] : ~errors_[p][i];
+      }
+      alive_[i] = alive & ~over;
+    }
+    guessed_[guess_] = true;
+    guess_ = -1;
+  }
+
+
+  /**
+   * Get the anagrams with the fewest errors once no more guesses are needed.
+   * 
+   * @return List of Strings of anagrams, or null if more guesses are needed or
+   *         no word is within k errors
+   */
+  public List<String> getAnagrams() {
+    if (getGuess() != null) {
+      return null;
+    }
+    List<Integer> ids = candidateIds();
+    return ids.isEmpty() ? null : allWords_.get(index_.key(ids.get(0)));
+  }
+
+
+  /**
+   * Get the words still within k errors.
+   * 
+   * @return words ordered by increasing number of errors
+   */
+  public List<String> getCandidates() {
+    List<String> words = new ArrayList<String>();
+    for (int id : candidateIds()) {
+      words.addAll(allWords_.get(index_.key(id)));
+    }
+    return words;
+  }
+
+
+  /**
+   * Get the number of responses a word disagrees with.
+   * 
+   * @param word
+   *          a word
+   * @return number of errors, or -1 if the word is unknown or has more than k
+   *         errors
+   */
+  public int getErrors(String word) {
+    int id = index_.id(word);
+    if (id < 0 || (alive_[id >>> 6] & (1L << id)) == 0) {
+      return -1;
+    }
+    return errors(id);
+  }
+
+
+  /**
+   * @return number of mis-reported responses tolerated
+   */
+  public int getTolerance() {
+    return k_;
+  }
+
+
+  /*
+   * Error count of a class.
+   */
+  private int errors(int id) {
+    int e = 0;
+    for (int p = 0; p < errors_.length; p++) {
+      if ((errors_[p][id >>> 6] & (1L << id)) != 0) {
+        e |= 1 << p;
+      }
+    }
+    return e;
+  }
+
+
+  /*
+   * Ids of the classes within k errors, by increasing errors.
+   */
+  private List<Integer> candidateIds() {
+    List<Integer> ids = new ArrayList<Integer>();
+    for (int i = 0; i < alive_.length; i++) {
+      long bits = alive_[i];
+      while (bits != 0) {
+        ids.add((i << 6) + Long.numberOfTrailingZeros(bits));
+        bits &= bits - 1;
+      }
+    }
+    final int[] errors = new int[index_.size()];
+    for (int id : ids) {
+      errors[id] = errors(id);
+    }
+    Collections.sort(ids, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer a, Integer b) {
+        return errors[a] != errors[b] ? errors[a] - errors[b] : a - b;
+      }
+    });
+    return ids;
+  }
+
+
+  /*
+   * Id of the unguessed class with the best weighted partition of the
+   * candidates, or -1 if there is at most one candidate or no class separates
+   * them.
+   */
+  private int findBestWord() {
+    List<Integer> ids = candidateIds();
+    if (ids.size() <= 1) {
+      return -1;
+    }
+    boolean metrics = EngineMetrics.isCollecting();
+    long startTime = metrics ? System.nanoTime() : 0;
+    String[] keys = new String[ids.size()];
+    int[] weights = new int[ids.size()];
+    for (int j = 0; j < keys.length; j++) {
+      int id = ids.get(j);
+      keys[j] = index_.key(id);
+      weights[j] = allWords_.get(keys[j]).size() << (k_ - errors(id));
+    }
+    int best = -1;
+    double bestScore = Double.NEGATIVE_INFINITY;
+    int[] count = new int[6];
+    for (int c = 0; c < guessed_.length; c++) {
+      if (guessed_[c]) {
+        continue;
+      }
+      String w = index_.key(c);
+      Arrays.fill(count, 0);
+      int N = 0;
+      for (int j = 0; j < keys.length; j++) {
+        count[JottoCore.numMatchingLetters(w, keys[j])] += weights[j];
+        N += weights[j];
+      }
+      boolean separates = true;
+      for (int i = 0; i < count.length; i++) {
+        separates &= count[i] != N;
+      }
+      if (separates) {
+        double score = scorer_.score(count, N);
+        if (score > bestScore) {
+          best = c;
+          bestScore = score;
+        }
+      }
+    }
+    if (metrics) {
+      EngineMetrics.findBestWord(System.nanoTime() - startTime);
+      EngineMetrics.numMatchingLetters((long) guessed_.length * keys.length);
+    }
+    return best;
+  }
+}
@@ -0,0 +1,467 @@
+package jotto.engine;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Shape, size and quality of a query tree, computed by walking every node.
+ * Subtrees near the root are walked in parallel; the tree may be loaded or
+ * opened lazily from a flat file. See {@link QueryTree#analyze(int)}.
+ * <p>
+ * Depths count nodes from the root, which is at depth 1, as
+ * {@link QueryTree#getDepth()} does. Guesses are counted as a
+ * {@link GameSession} plays a game: one for each interior node on the path,
+ * then one for each anagram of the leaf proposed, in shuffled order, up to
+ * the secret. The last guess, chosen at random among its equal guesses, is
+ * not proposed again; if it is the secret the game ends there. Expected
+ * guesses are over a secret chosen uniformly among the words of the tree,
+ * the guesses chosen and the order of the anagrams; the most guesses are
+ * over every choice.
+ * <p>
+ * Heap bytes are estimated for a tree loaded into a 64-bit JVM with
+ * compressed references, not counting the strings of the {@link WordPool}.
+ * Flat bytes are the size of each part of the tree saved in the flat format.
+ *
+ * @author Zhe Lu
+ *
+ */
+public final class TreeAnalysis {
+
+  // subtrees at most this deep are walked in tasks of their own
+  private static final int FORK_DEPTH = 4;
+  private static final int OBJECT_HEADER = 12;
+  private static final int ARRAY_HEADER = 16;
+  private static final int REFERENCE = 4;
+
+  private final Stats stats_;
+
+
+  private TreeAnalysis(Stats stats) {
+    stats_ = stats;
+  }
+
+
+  /*
+   * Analyze the tree under a root with up to parallelism threads.
+   */
+  static TreeAnalysis analyze(Node root, int parallelism) {
+    if (root == null) {
+      return new TreeAnalysis(new Stats());
+    }
+    AnalysisTask task = new AnalysisTask(root, 1, 0, null);
+    if (parallelism <= 1) {
+      return new TreeAnalysis(task.compute());
+    }
+    ForkJoinPool pool = new ForkJoinPool(parallelism);
+    try {
+      return new TreeAnalysis(pool.invoke(task));
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+
+  /**
+   * @return number of nodes
+   */
+  public long getNodeCount() {
+    return sum(stats_.nodes_);
+  }
+
+
+  /**
+   * @return number of leaves, each holding one set of anagrams
+   */
+  public long getLeafCount() {
+    return sum(stats_.leaves_);
+  }
+
+
+  /**
+   * @return number of words in the leaves
+   */
+  public long getWordCount() {
+    return stats_.words_;
+  }
+
+
+  /**
+   * @return depth of the deepest node
+   */
+  public int getDepth() {
+    return stats_.depth_;
+  }
+
+
+  /**
+   * @return number of nodes at each depth, from the root at index 0
+   */
+  public long[] getNodesByDepth() {
+    return Arrays.copyOf(stats_.nodes_, stats_.depth_);
+  }
+
+
+  /**
+   * @return number of leaves at each depth, from the root at index 0
+   */
+  public long[] getLeavesByDepth() {
+    return Arrays.copyOf(stats_.leaves_, stats_.depth_);
+  }
+
+
+  /**
+   * @return mean number of links of the interior nodes at each depth, from
+   *         the root at index 0; 0 where there are none
+   */
+  public double[] getBranchingByDepth() {
+    double[] branching = new double[stats_.depth_];
+    for (int i = 0; i < branching.length; i++) {
+      long interior = stats_.nodes_[i] - stats_.leaves_[i];
+      branching[i] = interior == 0 ? 0 : (double) stats_.links_[i] / interior;
+    }
+    return branching;
+  }
+
+
+  /**
+   * @return number of leaves of each number of anagrams
+   */
+  public Map<Integer, Long> getLeafSizes() {
+    return new TreeMap<Integer, Long>(stats_.leafSizes_);
+  }
+
+
+  /**
+   * @return mean number of guesses to find a secret chosen uniformly among
+   *         the words of the tree
+   */
+  public double getExpectedGuesses() {
+    return stats_.words_ == 0 ? 0 : stats_.guesses_ / stats_.words_;
+  }
+
+
+  /**
+   * @return most guesses any secret can take
+   */
+  public int getMaxGuesses() {
+    return stats_.maxGuesses_;
+  }
+
+
+  /**
+   * @return estimated heap bytes of the tree when loaded
+   */
+  public long getHeapBytes() {
+    return stats_.heapNodes_ + stats_.heapLinks_ + stats_.heapGuesses_
+        + stats_.heapAnagrams_;
+  }
+
+
+  /**
+   * @return bytes of the tree saved in the flat format
+   */
+  public long getFlatBytes() {
+    return flatHeader() + flatWordTable() + stats_.flatNodes_
+        + stats_.flatGuesses_ + stats_.flatAnagrams_ + stats_.flatLinks_;
+  }
+
+
+  /**
+   * The analysis as a JSON object. Equal trees give identical text, so it
+   * can be kept and compared across word lists and strategies.
+   *
+   * @return JSON text ending with a newline
+   */
+  public String toJson() {
+    StringBuilder sb = new StringBuilder();
+    sb.append("{\n");
+    sb.append("  \"nodes\": ").append(getNodeCount()).append(",\n");
+    sb.append("  \"interiorNodes\": ").append(
+        getNodeCount() - getLeafCount()).append(",\n");
+    sb.append("  \"leaves\": ").append(getLeafCount()).append(",\n");
+    sb.append("  \"words\": ").append(stats_.words_).append(",\n");
+    sb.append("  \"distinctWords\": ").append(stats_.distinct_.cardinality())
+        .append(",\n");
+    sb.append("  \"depth\": ").append(stats_.depth_).append(",\n");
+    sb.append("  \"expectedGuesses\": ").append(
+        String.format(Locale.ROOT, "%.6f", getExpectedGuesses())).append(
+        ",\n");
+    sb.append("  \"maxGuesses\": ").append(stats_.maxGuesses_).append(",\n");
+    sb.append("  \"levels\": [");
+    double[] branching = getBranchingByDepth();
+    for (int i = 0; i < stats_.depth_; i++) {
+      sb.append(i == 0 ? "\n" : ",\n");
+      sb.append("    {\"depth\": ").append(i + 1);
+      sb.append(", \"nodes\": ").append(stats_.nodes_[i]);
+      sb.append(", \"leaves\": ").append(stats_.leaves_[i]);
+      sb.append(", \"words\": ").append(stats_.wordsByDepth_[i]);
+      sb.append(", \"branching\": ").append(
+          String.format(Locale.ROOT, "%.4f", branching[i]));
+      sb.append('}');
+    }
+    sb.append(stats_.depth_ == 0 ? "],\n" : "\n  ],\n");
+    sb.append("  \"leafSizes\": {");
+    boolean first = true;
+    for (Map.Entry<Integer, Long> e : getLeafSizes().entrySet()) {
+      sb.append(first ? "" : ", ").append('"').append(e.getKey())
+          .append("\": ").append(e.getValue());
+      first = false;
+    }
+    sb.append("},\n");
+    sb.append("  \"heapBytes\": {\"nodes\": ").append(stats_.heapNodes_);
+    sb.append(", \"links\": ").append(stats_.heapLinks_);
+    sb.append(", \"guesses\": ").append(stats_.heapGuesses_);
+    sb.append(", \"anagrams\": ").append(stats_.heapAnagrams_);
+    sb.append(", \"total\": ").append(getHeapBytes()).append("},\n");
+    sb.append("  \"flatBytes\": {\"header\": ").append(flatHeader());
+    sb.append(", \"wordTable\": ").append(flatWordTable());
+    sb.append(", \"nodes\": ").append(stats_.flatNodes_);
+    sb.append(", \"guesses\": ").append(stats_.flatGuesses_);
+    sb.append(", \"anagrams\": ").append(stats_.flatAnagrams_);
+    sb.append(", \"links\": ").append(stats_.flatLinks_);
+    sb.append(", \"total\": ").append(getFlatBytes()).append("}\n");
+    sb.append("}\n");
+    return sb.toString();
+  }
+
+
+  @Override
+  public String toString() {
+    return toJson();
+  }
+
+
+  /*
+   * Magic, version, word count, root offset and node count.
+   */
+  private static long flatHeader() {
+    return 4 + 2 + 4 + 8 + 8;
+  }
+
+
+  private long flatWordTable() {
+    return (long) WordPool.WORD_LENGTH * stats_.distinct_.cardinality();
+  }
+
+
+  private static long sum(long[] values) {
+    long sum = 0;
+    for (long v : values) {
+      sum += v;
+    }
+    return sum;
+  }
+
+
+  /*
+   * Bytes of an object or array, padded to 8 bytes.
+   */
+  private static long align(long bytes) {
+    return (bytes + 7) & ~7L;
+  }
+
+
+  private static long intArrayBytes(int[] a) {
+    return a == null ? 0 : align(ARRAY_HEADER + 4L * a.length);
+  }
+
+
+  /*
+   * Counts of a subtree, or of the whole tree once merged. Counts by depth
+   * are indexed by absolute depth, so subtrees merge by adding.
+   */
+  private static final class Stats {
+    private long[] nodes_ = new long[16];
+    private long[] leaves_ = new long[16];
+    private long[] links_ = new long[16];
+    private long[] wordsByDepth_ = new long[16];
+    private int depth_ = 0;
+    private final Map<Integer, Long> leafSizes_ = new TreeMap<Integer, Long>();
+    private final BitSet distinct_ = new BitSet();
+    private long words_ = 0;
+    private double guesses_ = 0;
+    private int maxGuesses_ = 0;
+    private long heapNodes_ = 0;
+    private long heapLinks_ = 0;
+    private long heapGuesses_ = 0;
+    private long heapAnagrams_ = 0;
+    private long flatNodes_ = 0;
+    private long flatGuesses_ = 0;
+    private long flatAnagrams_ = 0;
+    private long flatLinks_ = 0;
+
+
+    /*
+     * Count a node, not its children, at a depth after a number of guesses.
+     * Guesses are the ids of the parent's guesses, to end games early.
+     */
+    void add(Node n, int depth, int guesses, int[] parentGuess, int links) {
+      ensure(depth);
+      depth_ = Math.max(depth_, depth);
+      nodes_[depth - 1]++;
+      links_[depth - 1] += links;
+      int[] guess = n.getGuess();
+      int[] anagrams = n.getAnagrams();
+      heapNodes_ += align(OBJECT_HEADER + 4 * REFERENCE);
+      heapLinks_ += align(ARRAY_HEADER + 6 * REFERENCE);
+      heapGuesses_ += intArrayBytes(guess);
+      heapAnagrams_ += intArrayBytes(anagrams);
+      flatNodes_ += 2;
+      flatLinks_ += 8L * links;
+      if (guess != null) {
+        flatGuesses_ += 4 + 4L * guess.length;
+        for (int id : guess) {
+          distinct_.set(id);
+        }
+      }
+      if (anagrams == null) {
+        return;
+      }
+      flatAnagrams_ += 4 + 4L * anagrams.length;
+      leaves_[depth - 1]++;
+      wordsByDepth_[depth - 1] += anagrams.length;
+      Long count = leafSizes_.get(anagrams.length);
+      leafSizes_.put(anagrams.length, count == null ? 1 : count + 1);
+      for (int i = 0; i < anagrams.length; i++) {
+        distinct_.set(anagrams[i]);
+        words_++;
+        guesses_ += GameSession.expectedGuesses(guesses, anagrams, i,
+            parentGuess);
+        maxGuesses_ = Math.max(maxGuesses_, GameSession.worstGuesses(guesses,
+            anagrams, i, parentGuess));
+      }
+    }
+
+
+    void merge(Stats other) {
+      ensure(other.depth_);
+      for (int i = 0; i < other.depth_; i++) {
+        nodes_[i] += other.nodes_[i];
+        leaves_[i] += other.leaves_[i];
+        links_[i] += other.links_[i];
+        wordsByDepth_[i] += other.wordsByDepth_[i];
+      }
+      depth_ = Math.max(depth_, other.depth_);
+      for (Map.Entry<Integer, Long> e : other.leafSizes_.entrySet()) {
+        Long count = leafSizes_.get(e.getKey());
+        leafSizes_.put(e.getKey(), count == null ? e.getValue() : count
+            + e.getValue());
+      }
+      distinct_.or(other.distinct_);
+      words_ += other.words_;
+      guesses_ += other.guesses_;
+      maxGuesses_ = Math.max(maxGuesses_, other.maxGuesses_);
+      heapNodes_ += other.heapNodes_;
+      heapLinks_ += other.heapLinks_;
+      heapGuesses_ += other.heapGuesses_;
+      heapAnagrams_ += other.heapAnagrams_;
+      flatNodes_ += other.flatNodes_;
+      flatGuesses_ += other.flatGuesses_;
+      flatAnagrams_ += other.flatAnagrams_;
+      flatLinks_ += other.flatLinks_;
+    }
+
+
+    private void ensure(int depth) {
+      if (depth > nodes_.length) {
+        int length = Math.max(depth, 2 * nodes_.length);
+        nodes_ = Arrays.copyOf(nodes_, length);
+        leaves_ = Arrays.copyOf(leaves_, length);
+        links_ = Arrays.copyOf(links_, length);
+        wordsByDepth_ = Arrays.copyOf(wordsByDepth_, length);
+      }
+    }
+
+  }
+
+
+  /*
+   * Walks a subtree, forking a task for each link near the root.
+   */
+  private static final class AnalysisTask extends RecursiveTask<Stats> {
+
+    private static final long serialVersionUID = -3154178409561728393L;
+    private final Node node_;
+    private final int depth_;
+    private final int guesses_;
+    private final int[] parentGuess_;
+
+
+    AnalysisTask(Node node, int depth, int guesses, int[] parentGuess) {
+      node_ = node;
+      depth_ = depth;
+      guesses_ = guesses;
+      parentGuess_ = parentGuess;
+    }
+
+
+    @Override
+    protected Stats compute() {
+      if (depth_ > FORK_DEPTH || !inForkJoinPool()) {
+        Stats stats = new Stats();
+        walk(node_, depth_, guesses_, parentGuess_, stats);
+        return stats;
+      }
+      Node[] children = children(node_);
+      Stats stats = new Stats();
+      stats.add(node_, depth_, guesses_, parentGuess_, count(children));
+      AnalysisTask[] tasks = new AnalysisTask[6];
+      for (int i = 0; i < 6; i++) {
+        if (children[i] != null) {
+          tasks[i] = new AnalysisTask(children[i], depth_ + 1, guesses_ + 1,
+              node_.getGuess());
+          tasks[i].fork();
+        }
+      }
+      for (int i = 0; i < 6; i++) {
+        if (tasks[i] != null) {
+          stats.merge(tasks[i].join());
+        }
+      }
+      return stats;
+    }
+
+
+    /*
+     * Walk a subtree on this thread.
+     */
+    private static void walk(Node n, int depth, int guesses,
+        int[] parentGuess, Stats stats) {
+      Node[] children = children(n);
+      stats.add(n, depth, guesses, parentGuess, count(children));
+      for (int i = 0; i < 6; i++) {
+        if (children[i] != null) {
+          walk(children[i], depth + 1, guesses + 1, n.getGuess(), stats);
+        }
+      }
+    }
+
+
+    /*
+     * The links of a node, each read once since lazy nodes read them anew.
+     */
+    private static Node[] children(Node n) {
+      Node[] children = new Node[6];
+      for (int i = 0; i < 6; i++) {
+        children[i] = n.getLink(i);
+      }
+      return children;
+    }
+
+
+    private static int count(Node[] children) {
+      int count = 0;
+      for (Node child : children) {
+        if (child != null) {
+          count++;
+        }
+      }
+      return count;
+    }
+  }
+}
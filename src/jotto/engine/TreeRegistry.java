@@ -0,0 +1,331 @@
+package jotto.engine;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.zip.DataFormatException;
+
+/**
+ * Query trees of several dictionaries, loaded on demand by dictionary id. The
+ * words of every tree live in the shared {@link WordPool}, so dictionaries that
+ * overlap store their common words once.
+ * <p>
+ * Loaded trees are kept within a heap budget, each with its dictionary, which
+ * games need to solve off the tree and for tolerant and hard mode play. When
+ * the estimated size of the resident trees and dictionaries exceeds the
+ * budget, the least recently used are evicted and reloaded on their next use.
+ * Games already started on an evicted tree keep working. Concurrent first
+ * requests for the same dictionary share one load.
+ * <p>
+ * The estimate counts, for each tree, its node objects, link arrays and word
+ * id arrays, and for each dictionary its keys, anagram lists and word
+ * strings, at typical 64-bit sizes. It does not count the tree's share of the
+ * {@link WordPool}, nor the anagram strings cached by leaves that games have
+ * reached. The pool never forgets a word, so eviction does not reclaim its
+ * bytes, up to 26 per distinct word of every dictionary ever loaded; the
+ * heap used is the budget plus {@link WordPool#bytes()}. Everything else of a
+ * dictionary is reclaimed once no game uses it.
+ * 
+ * @author Zhe Lu
+ * 
+ */
+public class TreeRegistry {
+
+  // estimated bytes of a node object, its link array and two array headers
+  private static final long NODE_BYTES = 24 + 40 + 2 * 16;
+  // estimated bytes of a dictionary entry: key string, anagram list and map
+  // entry, and of each word string in a list
+  private static final long KEY_BYTES = 48 + 40 + 40;
+  private static final long WORD_BYTES = 48 + 4;
+
+  private final long budget_;
+  private final Map<String, Callable<JottoCore>> sources_ = new HashMap<String, Callable<JottoCore>>();
+  private final LinkedHashMap<String, Entry> resident_ = new LinkedHashMap<String, Entry>(
+      16, 0.75f, true);
+  private final Map<String, FutureTask<Entry>> loading_ = new HashMap<String, FutureTask<Entry>>();
+  private long residentBytes_ = 0;
+  private long loads_ = 0;
+  private long evictions_ = 0;
+
+
+  /**
+   * Constructor.
+   * 
+   * @param budget
+   *          estimated heap in bytes the resident trees and dictionaries may
+   *          use, not counting the shared word pool
+   */
+  public TreeRegistry(long budget) {
+    budget_ = budget;
+  }
+
+
+  /**
+   * Register a dictionary whose tree is built from a list of words.
+   * 
+   * @param id
+   *          dictionary id
+   * @param file
+   *          list of words
+   * @param strategy
+   *          strategy used to build the tree
+   */
+  public void registerWordList(String id, final File file,
+      final GuessStrategy strategy) {
+    register(id, new Callable<JottoCore>() {
+      @Override
+      public JottoCore call() throws Exception {
+        return new JottoCore(file, strategy);
+      }
+    });
+  }
+
+
+  /**
+   * Register a dictionary whose tree is read from a saved tree file.
+   * 
+   * @param id
+   *          dictionary id
+   * @param file
+   *          file containing a QueryTree
+   */
+  public void registerTreeFile(String id, final File file) {
+    register(id, new Callable<JottoCore>() {
+      @Override
+      public JottoCore call() throws Exception {
+        return JottoCore.useQueryTreeFromFile(file);
+      }
+    });
+  }
+
+
+  /*
+   * Register the loader of a dictionary.
+   */
+  private synchronized void register(String id, Callable<JottoCore> source) {
+    if (sources_.containsKey(id)) {
+      throw new IllegalArgumentException("dictionary already registered: "
+          + id);
+    }
+    sources_.put(id, source);
+  }
+
+
+  /**
+   * Start a new game on a dictionary, loading its tree if needed.
+   * 
+   * @param id
+   *          dictionary id
+   * @return engine for a new game
+   * @throws IOException
+   *           on file access error
+   * @throws DataFormatException
+   *           if the file holds no usable words or is not a saved QueryTree
+   */
+  public JottoCore newGame(String id) throws IOException,
+      DataFormatException {
+    Entry e = getEntry(id);
+    return new JottoCore(e.tree_.cursor(), e.allWords_);
+  }
+
+
+  /*
+   * Tree and dictionary of a dictionary id.
+   */
+  private Entry getEntry(String id) throws IOException, DataFormatException {
+    FutureTask<Entry> task;
+    boolean load = false;
+    synchronized (this) {
+      Entry e = resident_.get(id);
+      if (e != null) {
+        return e;
+      }
+      task = loading_.get(id);
+      if (task == null) {
+        final Callable<JottoCore> source = sources_.get(id);
+        if (source == null) {
+          throw new IllegalArgumentException("unknown dictionary: " + id);
+        }
+        task = new FutureTask<Entry>(new Callable<Entry>() {
+          @Override
+          public Entry call() throws Exception {
+            JottoCore core = source.call();
+            QueryTree tree = core.getQueryTree();
+            Map<String, List<String>> allWords = core.getAllWords();
+            return new Entry(tree, allWords, estimateBytes(tree.getRoot())
+                + estimateBytes(allWords));
+          }
+        });
+        loading_.put(id, task);
+        load = true;
+      }
+    }
+    if (load) {
+      task.run();
+      synchronized (this) {
+        loading_.remove(id);
+        if (!task.isCancelled()) {
+          try {
+            Entry e = task.get();
+            resident_.put(id, e);
+            residentBytes_ += e.bytes_;
+            loads_++;
+            evict(id);
+          } catch (InterruptedException | ExecutionException e) {
+            // reported to every caller below
+          }
+        }
+      }
+    }
+    return getLoaded(task);
+  }
+
+
+  /*
+   * Result of a load, rethrowing its failure.
+   */
+  private static Entry getLoaded(FutureTask<Entry> task) throws IOException,
+      DataFormatException {
+    try {
+      return task.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("interrupted while loading", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof DataFormatException) {
+        throw (DataFormatException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IOException(cause);
+    }
+  }
+
+
+  /*
+   * Evict least recently used trees, other than keep, until within budget.
+   */
+  private void evict(String keep) {
+    Iterator<Map.Entry<String, Entry>> it = resident_.entrySet().iterator();
+    while (residentBytes_ > budget_ && it.hasNext()) {
+      Map.Entry<String, Entry> eldest = it.next();
+      if (eldest.getKey().equals(keep)) {
+        continue;
+      }
+      residentBytes_ -= eldest.getValue().bytes_;
+      evictions_++;
+      it.remove();
+    }
+  }
+
+
+  /**
+   * Evict the tree of a dictionary.
+   * 
+   * @param id
+   *          dictionary id
+   */
+  public synchronized void unload(String id) {
+    Entry e = resident_.remove(id);
+    if (e != null) {
+      residentBytes_ -= e.bytes_;
+      evictions_++;
+    }
+  }
+
+
+  /*
+   * Estimated heap used by the nodes of a tree, excluding the pool and the
+   * strings cached by leaves.
+   */
+  static long estimateBytes(Node n) {
+    if (n == null) {
+      return 0;
+    }
+    long bytes = NODE_BYTES;
+    if (n.getGuess() != null) {
+      bytes += 4L * n.getGuess().length;
+    }
+    if (n.getAnagrams() != null) {
+      bytes += 4L * n.getAnagrams().length;
+    }
+    for (int i = 0; i < 6; i++) {
+      bytes += estimateBytes(n.getLink(i));
+    }
+    return bytes;
+  }
+
+
+  /*
+   * Estimated heap used by a dictionary, excluding the pool.
+   */
+  static long estimateBytes(Map<String, List<String>> allWords) {
+    long bytes = 0;
+    for (List<String> anagrams : allWords.values()) {
+      bytes += KEY_BYTES + WORD_BYTES * anagrams.size();
+    }
+    return bytes;
+  }
+
+
+  /**
+   * @param id
+   *          dictionary id
+   * @return whether the tree of the dictionary is loaded
+   */
+  public synchronized boolean isResident(String id) {
+    return resident_.containsKey(id);
+  }
+
+
+  /**
+   * @return estimated heap in bytes used by the resident trees and their
+   *         dictionaries, not counting the shared word pool
+   */
+  public synchronized long getResidentBytes() {
+    return residentBytes_;
+  }
+
+
+  /**
+   * @return number of trees loaded
+   */
+  public synchronized long getLoads() {
+    return loads_;
+  }
+
+
+  /**
+   * @return number of trees evicted
+   */
+  public synchronized long getEvictions() {
+    return evictions_;
+  }
+
+
+  /*
+   * A resident tree, its dictionary and their estimated size.
+   */
+  private static class Entry {
+    private final QueryTree tree_;
+    private final Map<String, List<String>> allWords_;
+    private final long bytes_;
+
+
+    Entry(QueryTree tree, Map<String, List<String>> allWords, long bytes) {
+      tree_ = tree;
+      allWords_ = allWords;
+      bytes_ = bytes;
+    }
+  }
+}
@@ -0,0 +1,263 @@
+package jotto.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Storage for the five letter words of every dictionary and query tree in the
+ * JVM. Each distinct word is stored once as five ASCII bytes in one contiguous
+ * array and addressed by an int id. Strings are created only when a word is
+ * requested.
+ * <p>
+ * Ids are used by the query trees and the flat file format, which hold most
+ * of the words in memory. Everything else works with strings: the dictionary
+ * of a {@link JottoCore}, keyed by sorted letters, the sessions and solvers
+ * built on it, and the {@link GameEvent}s given to callers. They share the
+ * dictionary's one map and its strings rather than copying them. Leaves
+ * reached by a game or a {@link BatchSolver} also keep the strings of their
+ * anagrams, see {@link QueryTree#getCandidates()}.
+ * <p>
+ * Words are never removed, so ids stay valid for the life of the pool, and
+ * the pool is shared by every tree and {@link TreeRegistry} in the JVM. It
+ * grows with the distinct words ever loaded, at most 26 bytes per word: 5 for
+ * the letters and up to 21 for the slack of the array and hash table. A
+ * 100,000 word dictionary takes under 2.6 MB, and since there are only 26^5
+ * five letter words the pool never exceeds 220 MB whatever is loaded.
+ * {@link #bytes()} reports its current size.
+ * <p>
+ * Interning is synchronized; reading words is not.
+ * 
+ * @author Zhe Lu
+ * 
+ */
+public final class WordPool {
+
+  /**
+   * Length of every word in the pool.
+   */
+  public static final int WORD_LENGTH = 5;
+
+  private static final WordPool default_ = new WordPool();
+
+  private volatile byte[] data_ = new byte[WORD_LENGTH * 1024];
+  private int size_ = 0;
+  // open addressing table of id + 1, 0 for empty slots
+  private int[] table_ = new int[2048];
+
+
+  /**
+   * @return the pool shared by all query trees
+   */
+  public static WordPool getDefault() {
+    return default_;
+  }
+
+
+  /**
+   * Whether a string can be stored in the pool.
+   * 
+   * @param word
+   *          a string
+   * @return true if the string has five lowercase letters a to z
+   */
+  public static boolean isWord(String word) {
+    if (word.length() != WORD_LENGTH) {
+      return false;
+    }
+    for (int i = 0; i < WORD_LENGTH; i++) {
+      char c = word.charAt(i);
+      if (c < 'a' || c > 'z') {
+        return false;
+      }
+    }
+    return true;
+  }
+
+
+  /**
+   * Get the id of a word, adding it to the pool if needed.
+   * 
+   * @param word
+   *          five lowercase letters
+   * @return id of the word
+   */
+  public synchronized int intern(String word) {
+    if (!isWord(word)) {
+      throw new IllegalArgumentException("not a five letter word: " + word);
+    }
+    int code = encode(word);
+    int slot = find(code);
+    if (table_[slot] != 0) {
+      return table_[slot] - 1;
+    }
+    int id = size_;
+    byte[] data = data_;
+    if ((id + 1) * WORD_LENGTH > data.length) {
+      byte[] grown = new byte[data.length * 2];
+      System.arraycopy(data, 0, grown, 0, id * WORD_LENGTH);
+      data = grown;
+    }
+    for (int i = 0; i < WORD_LENGTH; i++) {
+      data[id * WORD_LENGTH + i] = (byte) word.charAt(i);
+    }
+    data_ = data;
+    size_++;
+    table_[slot] = id + 1;
+    if (size_ * 2 > table_.length) {
+      rehash();
+    }
+    return id;
+  }
+
+
+  /**
+   * Get the ids of a list of words, adding them to the pool if needed.
+   * 
+   * @param words
+   *          list of words, or null
+   * @return ids of the words in order, or null
+   */
+  public int[] intern(List<String> words) {
+    if (words == null) {
+      return null;
+    }
+    int[] ids = new int[words.size()];
+    for (int i = 0; i < ids.length; i++) {
+      ids[i] = intern(words.get(i));
+    }
+    return ids;
+  }
+
+
+  /**
+   * Get the id of a word without adding it.
+   * 
+   * @param word
+   *          a word
+   * @return id of the word, or -1 if it is not in the pool
+   */
+  public synchronized int id(String word) {
+    if (!isWord(word)) {
+      return -1;
+    }
+    return table_[find(encode(word))] - 1;
+  }
+
+
+  /**
+   * Create the string of a word.
+   * 
+   * @param id
+   *          id of the word
+   * @return the word
+   */
+  public String word(int id) {
+    char[] chars = new char[WORD_LENGTH];
+    byte[] data = data_;
+    for (int i = 0; i < WORD_LENGTH; i++) {
+      chars[i] = (char) data[id * WORD_LENGTH + i];
+    }
+    return new String(chars);
+  }
+
+
+  /**
+   * Create the strings of a list of words.
+   * 
+   * @param ids
+   *          ids of the words, or null
+   * @return new list of the words, or null
+   */
+  public List<String> words(int[] ids) {
+    if (ids == null) {
+      return null;
+    }
+    List<String> words = new ArrayList<String>(ids.length);
+    for (int id : ids) {
+      words.add(word(id));
+    }
+    return words;
+  }
+
+
+  /**
+   * Get one letter of a word.
+   * 
+   * @param id
+   *          id of the word
+   * @param i
+   *          index of the letter
+   * @return the letter
+   */
+  public char charAt(int id, int i) {
+    return (char) data_[id * WORD_LENGTH + i];
+  }
+
+
+  /**
+   * @return number of words in the pool
+   */
+  public synchronized int size() {
+    return size_;
+  }
+
+
+  /**
+   * @return bytes used by the pool's arrays
+   */
+  public synchronized long bytes() {
+    return data_.length + 4L * table_.length;
+  }
+
+
+  /*
+   * Pack five letters into 25 bits.
+   */
+  private static int encode(String word) {
+    int code = 0;
+    for (int i = 0; i < WORD_LENGTH; i++) {
+      code = (code << 5) | (word.charAt(i) - 'a');
+    }
+    return code;
+  }
+
+
+  /*
+   * Pack the five letters of a stored word into 25 bits.
+   */
+  private int encode(int id) {
+    int code = 0;
+    for (int i = 0; i < WORD_LENGTH; i++) {
+      code = (code << 5) | (data_[id * WORD_LENGTH + i] - 'a');
+    }
+    return code;
+  }
+
+
+  /*
+   * Slot holding the word with the given code, or the empty slot where it
+   * belongs.
+   */
+  private int find(int code) {
+    int mask = table_.length - 1;
+    int slot = (code * 0x9E3779B1) >>> 7 & mask;
+    while (table_[slot] != 0 && encode(table_[slot] - 1) != code) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+
+  /*
+   * Double the size of the table.
+   */
+  private void rehash() {
+    int[] old = table_;
+    table_ = new int[old.length * 2];
+    for (int entry : old) {
+      if (entry != 0) {
+        table_[find(encode(entry - 1))] = entry;
+      }
+    }
+  }
+}
@@ -2,6 +2,7 @@ package jotto.gui;
 
 import java.awt.EventQueue;
 
+import javax.swing.JCheckBoxMenuItem;
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
 import javax.swing.JMenuBar;
@@ -18,15 +19,20 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.URISyntaxException;
-import java.util.Collections;
-import java.util.Iterator;
-import java.util.List;
+import java.util.concurrent.ExecutionException;
 import java.util.zip.DataFormatException;
 
 import javax.swing.JButton;
 import javax.swing.JLabel;
 import javax.swing.SwingConstants;
-
+import javax.swing.SwingWorker;
+
+import jotto.engine.EngineMetrics;
+import jotto.engine.ExhaustiveStrategy;
+import jotto.engine.Flow;
+import jotto.engine.GameEvent;
+import jotto.engine.GameSession;
+import jotto.engine.HardModeStrategy;
 import jotto.engine.JottoCore;
 
 /**
@@ -41,15 +47,19 @@ public class Jotto {
   private final JFileChooser fileChooser_ = new JFileChooser();
   private JottoCore jottoCore_;
   private JButton[] buttonMatches_ = new JButton[6];
-  private String lastGuess_;
-  private List<String> anagrams_;
-  private Iterator<String> it_;
+  private GameSession session_;
+  private boolean confirmed_ = false;
   private JLabel labelInfo_;
-  private int guesses_ = 1;
   private JButton buttonYes_;
   private JButton buttonNo_;
   private JButton buttonStart_;
   private Help about_;
+  private JCheckBoxMenuItem hardMode_;
+  // word list of the game when loaded from one, or null for the bundled list
+  // or a Jotto file
+  private File wordList_;
+  // seed of every game when set with -Djotto.seed, for repeatable sessions
+  private static final Long SEED = Long.getLong("jotto.seed");
 
 
   /**
@@ -74,60 +84,166 @@ public class Jotto {
    */
   public Jotto() {
     initialize();
+    loadDefaultTree();
   }
 
 
   /*
-   * Go to the next word.
+   * Load the prebuilt tree of the bundled word list in the background, unless
+   * the user loads a file first.
    */
-  private void update() {
-    if (jottoCore_.getGuess() != null) {
-      lastGuess_ = jottoCore_.getGuess();
-      labelInfo_.setText("<HTML>I'm going to guess \""
-          + lastGuess_
-          + ".\" How many letters match?</HTML>");
-      boolean[] linkOK = jottoCore_.linksAvailableArray();
-      for (int i = 0; i < 6; i++) {
-        buttonMatches_[i].setEnabled(linkOK[i]);
+  private void loadDefaultTree() {
+    labelInfo_.setText("Loading ...");
+    new SwingWorker<JottoCore, Void>() {
+      @Override
+      protected JottoCore doInBackground() throws Exception {
+        return JottoCore.useDefaultQueryTree();
       }
-    } else {
-      if (jottoCore_.getAnagrams() == null
-          || (jottoCore_.getAnagrams() != null && it_ != null
-          && !it_.hasNext())) {
-        labelInfo_.setText("Sorry. I don't know your word...");
-        for (int i = 0; i < 6; i++) {
-          buttonMatches_[i].setEnabled(false);
+
+
+      @Override
+      protected void done() {
+        if (jottoCore_ != null) {
+          return;
         }
-        buttonYes_.setEnabled(false);
-        buttonNo_.setEnabled(false);
-      } else if (jottoCore_.getAnagrams().size() == 1) {
-        lastGuess_ = jottoCore_.getAnagrams().get(0);
-        labelInfo_.setText("<HTML>I think your word is \""
-            + lastGuess_ + ".\" It took "
-            + guesses_ + " guesses.</HTML>");
-        for (int i = 0; i < 6; i++) {
-          buttonMatches_[i].setEnabled(false);
+        try {
+          boolean hard = hardMode_.isSelected();
+          newSession(get());
+          if (hard) {
+            // hard mode was chosen while loading
+            switchHardMode(true);
+            return;
+          }
+          labelInfo_.setText("Press Start!");
+          buttonStart_.setEnabled(true);
+        } catch (InterruptedException | ExecutionException e) {
+          labelInfo_
+              .setText("Please load a list of words or a Jotto data file.");
+        }
+      }
+    }.execute();
+  }
+
+
+  /*
+   * Rebuild the game in or out of hard mode, from its word list or the
+   * bundled one, in the background. The bundled list has a prebuilt tree only
+   * for normal play.
+   */
+  private void switchHardMode(final boolean hard) {
+    final JottoCore from = jottoCore_;
+    final File wordList = wordList_;
+    labelInfo_.setText("Loading ...");
+    buttonStart_.setEnabled(false);
+    hardMode_.setEnabled(false);
+    new SwingWorker<JottoCore, Void>() {
+      @Override
+      protected JottoCore doInBackground() throws Exception {
+        if (wordList != null) {
+          return new JottoCore(wordList, hard ? new HardModeStrategy()
+              : new ExhaustiveStrategy());
         }
-        buttonYes_.setEnabled(false);
-        buttonNo_.setEnabled(false);
-      } else {
-        if (it_ == null) {
-          anagrams_ = jottoCore_.getAnagrams();
-          Collections.shuffle(anagrams_);
-          anagrams_.remove(lastGuess_);
-          it_ = anagrams_.iterator();
+        return hard ? JottoCore.useDefaultWordList(new HardModeStrategy())
+            : JottoCore.useDefaultQueryTree();
+      }
+
+
+      @Override
+      protected void done() {
+        if (jottoCore_ != from) {
+          // another file was loaded meanwhile
+          return;
         }
-        String w = it_.next();
-        lastGuess_ = w;
-        labelInfo_
-            .setText("<HTML>I'm going to guess \""
-                + w
-                + ".\" Is it your word?</HTML>");
-        for (int i = 0; i < 6; i++) {
-          buttonMatches_[i].setEnabled(false);
+        hardMode_.setEnabled(true);
+        try {
+          newSession(get());
+          labelInfo_.setText("Press Start!");
+          buttonStart_.setEnabled(true);
+        } catch (InterruptedException | ExecutionException e) {
+          hardMode_.setSelected(from != null && from.isHardMode());
+          buttonStart_.setEnabled(from != null);
+          labelInfo_.setText("Unable to rebuild the game.");
         }
-        buttonNo_.setEnabled(true);
       }
+    }.execute();
+  }
+
+
+  /*
+   * Start a session with a new engine, showing its events.
+   */
+  private void newSession(JottoCore core) {
+    if (session_ != null) {
+      session_.close();
+    }
+    jottoCore_ = core;
+    hardMode_.setSelected(core.isHardMode());
+    session_ = new GameSession(core);
+    session_.subscribe(new Flow.Subscriber<GameEvent>() {
+      public void onSubscribe(Flow.Subscription subscription) {
+        subscription.request(Long.MAX_VALUE);
+      }
+
+
+      public void onNext(GameEvent event) {
+        show(event);
+      }
+
+
+      public void onError(Throwable throwable) {
+        throwable.printStackTrace();
+      }
+
+
+      public void onComplete() {
+      }
+    });
+  }
+
+
+  /*
+   * Show the next state of the game.
+   */
+  private void show(GameEvent event) {
+    switch (event.getType()) {
+    case GUESS:
+      labelInfo_.setText("<HTML>I'm going to guess \""
+          + event.getWord()
+          + ".\" How many letters match?</HTML>");
+      for (int i = 0; i < 6; i++) {
+        buttonMatches_[i].setEnabled(event.isLinkActive(i));
+      }
+      break;
+    case CANDIDATE:
+      labelInfo_
+          .setText("<HTML>I'm going to guess \""
+              + event.getWord()
+              + ".\" Is it your word?</HTML>");
+      for (int i = 0; i < 6; i++) {
+        buttonMatches_[i].setEnabled(false);
+      }
+      buttonNo_.setEnabled(true);
+      break;
+    case SOLVED:
+      labelInfo_.setText("<HTML>" + (confirmed_ ? "Your word is \""
+          : "I think your word is \"") + event.getWord() + ".\" It took "
+          + event.getGuesses() + " guesses.</HTML>");
+      for (int i = 0; i < 6; i++) {
+        buttonMatches_[i].setEnabled(false);
+      }
+      buttonYes_.setEnabled(false);
+      buttonNo_.setEnabled(false);
+      break;
+    case FAILED:
+      labelInfo_.setText("Sorry. I don't know your word...");
+      for (int i = 0; i < 6; i++) {
+        buttonMatches_[i].setEnabled(false);
+      }
+      buttonYes_.setEnabled(false);
+      buttonNo_.setEnabled(false);
+      break;
+    default:
+      break;
     }
   }
 
@@ -161,9 +277,7 @@ public class Jotto {
     final JButton button_0 = new JButton("0");
     button_0.addActionListener(new ActionListener() {
       public void actionPerformed(ActionEvent arg0) {
-        guesses_++;
-        jottoCore_.numMatches(0);
-        update();
+        session_.respond(0);
       }
     });
     button_0.setEnabled(false);
@@ -175,9 +289,7 @@ public class Jotto {
     button_1.setEnabled(false);
     button_1.addActionListener(new ActionListener() {
       public void actionPerformed(ActionEvent e) {
-        guesses_++;
-        jottoCore_.numMatches(1);
-        update();
+        session_.respond(1);
       }
     });
     button_1.setBounds(136, 126, 44, 23);
@@ -187,9 +299,7 @@ public class Jotto {
     final JButton button_2 = new JButton("2");
     button_2.addActionListener(new ActionListener() {
       public void actionPerformed(ActionEvent e) {
-        guesses_++;
-        jottoCore_.numMatches(2);
-        update();
+        session_.respond(2);
       }
     });
     button_2.setEnabled(false);
@@ -200,9 +310,7 @@ public class Jotto {
     final JButton button_3 = new JButton("3");
     button_3.addActionListener(new ActionListener() {
       public void actionPerformed(ActionEvent e) {
-        guesses_++;
-        jottoCore_.numMatches(3);
-        update();
+        session_.respond(3);
       }
     });
     button_3.setEnabled(false);
@@ -213,9 +321,7 @@ public class Jotto {
     final JButton button_4 = new JButton("4");
     button_4.addActionListener(new ActionListener() {
       public void actionPerformed(ActionEvent e) {
-        guesses_++;
-        jottoCore_.numMatches(4);
-        update();
+        session_.respond(4);
       }
     });
     button_4.setEnabled(false);
@@ -226,9 +332,7 @@ public class Jotto {
     final JButton button_5 = new JButton("5");
     button_5.addActionListener(new ActionListener() {
       public void actionPerformed(ActionEvent e) {
-        guesses_++;
-        jottoCore_.numMatches(5);
-        update();
+        session_.respond(5);
       }
     });
     button_5.setEnabled(false);
@@ -240,14 +344,8 @@ public class Jotto {
     final JButton btnYes = new JButton("That's it!");
     btnYes.addActionListener(new ActionListener() {
       public void actionPerformed(ActionEvent e) {
-        labelInfo_.setText("<HTML>Your word is \""
-            + lastGuess_
-            + ".\" It took " + guesses_ + " guesses.</HTML>");
-        for (int i = 0; i < 6; i++) {
-          buttonMatches_[i].setEnabled(false);
-          buttonYes_.setEnabled(false);
-          buttonNo_.setEnabled(false);
-        }
+        confirmed_ = true;
+        session_.confirm();
       }
     });
     btnYes.setEnabled(false);
@@ -258,8 +356,7 @@ public class Jotto {
     final JButton btnNo = new JButton("No");
     btnNo.addActionListener(new ActionListener() {
       public void actionPerformed(ActionEvent e) {
-        guesses_++;
-        update();
+        session_.reject();
       }
     });
     btnNo.setEnabled(false);
@@ -283,8 +380,11 @@ public class Jotto {
           // load word list
 
           try {
-            jottoCore_ = new JottoCore(fileChooser_
-                .getSelectedFile());
+            newSession(new JottoCore(fileChooser_
+                .getSelectedFile(), hardMode_.isSelected()
+                ? new HardModeStrategy() : new ExhaustiveStrategy()));
+            wordList_ = fileChooser_.getSelectedFile();
+            hardMode_.setEnabled(true);
             int retValue = JOptionPane
                 .showConfirmDialog(
                     frmJotto,
@@ -330,15 +430,16 @@ public class Jotto {
     final JButton btnStart = new JButton("Start!");
     btnStart.addActionListener(new ActionListener() {
       public void actionPerformed(ActionEvent arg0) {
-        jottoCore_.restart();
+        if (SEED != null) {
+          session_.setSeed(SEED);
+        }
         for (int i = 0; i < 6; i++) {
           buttonMatches_[i].setEnabled(false);
         }
         btnNo.setEnabled(false);
         btnYes.setEnabled(true);
-        guesses_ = 1;
-        it_ = null;
-        update();
+        confirmed_ = false;
+        session_.start();
       }
     });
     btnStart.setEnabled(false);
@@ -353,9 +454,12 @@ public class Jotto {
         if (returnVal == JFileChooser.APPROVE_OPTION) {
           try {
             lblInfo.setText("Loading ...");
-            jottoCore_ = JottoCore
+            newSession(JottoCore
                 .useQueryTreeFromFile(fileChooser_
-                    .getSelectedFile());
+                    .getSelectedFile()));
+            // a saved tree keeps the mode it was built in
+            wordList_ = null;
+            hardMode_.setEnabled(false);
             lblInfo.setText("Press Start!");
             btnStart.setEnabled(true);
           } catch (DataFormatException | IOException e1) {
@@ -373,6 +477,21 @@ public class Jotto {
     });
     mnJotto.add(mntmLoadJottoFile);
 
+    // only guess words consistent with previous answers; rebuilds the game,
+    // and shows the mode of a loaded Jotto file
+    final JCheckBoxMenuItem mntmHardMode = new JCheckBoxMenuItem("Hard mode");
+    mntmHardMode.addActionListener(new ActionListener() {
+      public void actionPerformed(ActionEvent e) {
+        if (jottoCore_ == null) {
+          // applies to the next word list loaded
+          return;
+        }
+        switchHardMode(mntmHardMode.isSelected());
+      }
+    });
+    mnJotto.add(mntmHardMode);
+    hardMode_ = mntmHardMode;
+
     final JSeparator separator = new JSeparator();
     mnJotto.add(separator);
 
@@ -398,6 +517,19 @@ public class Jotto {
     mntmHowToPlay.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_F1, 0));
     mnHelp.add(mntmHowToPlay);
 
+    final JMenuItem mntmStatistics = new JMenuItem("Engine statistics");
+    mntmStatistics.addActionListener(new ActionListener() {
+      public void actionPerformed(ActionEvent e) {
+        String text = EngineMetrics.snapshot().toString();
+        if (EngineMetrics.isCollecting() && jottoCore_ != null) {
+          text += "\nthis game: " + jottoCore_.getGuessLatency();
+        }
+        JOptionPane.showMessageDialog(frmJotto, text, "Engine statistics",
+            JOptionPane.INFORMATION_MESSAGE);
+      }
+    });
+    mnHelp.add(mntmStatistics);
+
     final JSeparator separator_1 = new JSeparator();
     mnHelp.add(separator_1);
 
@@ -0,0 +1,185 @@
+package jotto.tools;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+
+import jotto.engine.AdversarySearch;
+import jotto.engine.AdversarySearch.Secret;
+import jotto.engine.QueryTree;
+import jotto.engine.StrategySpec;
+
+/**
+ * Command line tool to find the secrets that force the longest games and the
+ * most expensive solving, and write them out as a stress test corpus.
+ *
+ * <pre>
+ * AdversaryTool [-k n] [-strategy spec] [-tree file [-lazy]] [-prune]
+ *               [-corpus out] wordlist
+ * </pre>
+ *
+ * The words of the list are solved without a query tree, searching every
+ * sequence of responses with the strategy (see {@link AdversarySearch}), and
+ * the k worst secrets are reported by number of guesses and by solver time.
+ * With -tree, the k secrets of a built tree taking the most guesses are also
+ * reported. Strategies are described as for {@link StrategySpec}.
+ * With -prune, candidates estimated not to rank are skipped; the worst by
+ * guesses are unchanged, but secrets may be missed from the worst by time.
+ * <p>
+ * The corpus is a word list of the secrets reported, worst by guesses first,
+ * each once, so it can be read anywhere a word list is accepted. Solver times
+ * vary between runs; guesses do not, nor, without -prune, does the number of
+ * selections.
+ * <p>
+ * Exits with status 1 on bad usage or unreadable input.
+ *
+ * @author Zhe Lu
+ *
+ */
+public class AdversaryTool {
+
+  private static final String USAGE = "usage: AdversaryTool [-k n] "
+      + "[-strategy spec] [-tree file [-lazy]] [-prune] [-corpus out] "
+      + "wordlist";
+
+  private int k_ = 20;
+  private String strategy_ = "exhaustive";
+  private File tree_ = null;
+  private boolean lazy_ = false;
+  private boolean prune_ = false;
+  private File corpus_ = null;
+  private final List<String> args_ = new ArrayList<String>();
+
+
+  /**
+   * @param args
+   *          options and word list
+   */
+  public static void main(String[] args) {
+    AdversaryTool tool = new AdversaryTool();
+    try {
+      tool.parseOptions(args);
+      if (tool.args_.size() != 1) {
+        usage();
+      }
+      tool.run(new File(tool.args_.get(0)));
+    } catch (IOException | DataFormatException | IllegalArgumentException
+        | IllegalStateException e) {
+      System.err.println("error: " + e);
+      System.exit(1);
+    }
+  }
+
+
+  /*
+   * Print usage and exit.
+   */
+  private static void usage() {
+    System.err.println(USAGE);
+    System.exit(1);
+  }
+
+
+  /*
+   * Read options, keeping the other arguments.
+   */
+  private void parseOptions(String[] args) {
+    for (int i = 0; i < args.length; i++) {
+      String arg = args[i];
+      if (arg.equals("-lazy")) {
+        lazy_ = true;
+      } else if (arg.equals("-prune")) {
+        prune_ = true;
+      } else if (arg.startsWith("-") && i + 1 == args.length) {
+        usage();
+      } else if (arg.equals("-k")) {
+        k_ = Integer.parseInt(args[++i]);
+      } else if (arg.equals("-strategy")) {
+        strategy_ = args[++i];
+      } else if (arg.equals("-tree")) {
+        tree_ = new File(args[++i]);
+      } else if (arg.equals("-corpus")) {
+        corpus_ = new File(args[++i]);
+      } else if (arg.startsWith("-")) {
+        usage();
+      } else {
+        args_.add(arg);
+      }
+    }
+    if (lazy_ && tree_ == null) {
+      usage();
+    }
+  }
+
+
+  /*
+   * Search the words of a list, report the worst secrets and write the
+   * corpus.
+   */
+  private void run(File wordList) throws IOException, DataFormatException {
+    AdversarySearch search = AdversarySearch.forWordList(wordList, strategy_,
+        k_);
+    search.setPruning(prune_);
+    long startTime = System.nanoTime();
+    search.search();
+    long searchNanos = System.nanoTime() - startTime;
+    System.out.println("searched " + wordList + " with " + strategy_
+        + (prune_ ? " with pruning" : ""));
+    System.out.println("search time: " + searchNanos / 1000000 + " ms");
+    System.out.println("selections: " + search.getSelections()
+        + ", sets pruned: " + search.getPrunedSets() + " ("
+        + search.getPrunedWords() + " words)");
+
+    Set<String> corpus = new LinkedHashSet<String>();
+    print("worst by guesses:", search.getWorstByGuesses(), true, corpus);
+    print("worst by solver " + (search.isCpuTime() ? "cpu" : "wall")
+        + " time:", search.getWorstByTime(), true, corpus);
+    if (tree_ != null) {
+      QueryTree qt = lazy_ ? QueryTree.openFlatFile(tree_) : QueryTree
+          .readFromFile(tree_);
+      print("worst in " + tree_ + " by guesses:",
+          AdversarySearch.worstInTree(qt, k_), false, corpus);
+    }
+    if (corpus_ != null) {
+      writeCorpus(corpus);
+      System.out.println("corpus: " + corpus.size() + " words written to "
+          + corpus_);
+    }
+  }
+
+
+  /*
+   * Print a ranking and add its words to the corpus.
+   */
+  private static void print(String title, List<Secret> secrets,
+      boolean timed, Set<String> corpus) {
+    System.out.println(title);
+    for (Secret s : secrets) {
+      System.out.println(String.format("  %s %3d guesses%s %s", s.getWord(),
+          s.getGuesses(), timed ? String.format(" %9.3f ms",
+              s.getNanos() / 1e6) : "", s.getHistory()));
+      corpus.add(s.getWord());
+    }
+  }
+
+
+  /*
+   * Write the corpus, one word per line.
+   */
+  private void writeCorpus(Set<String> corpus) throws FileNotFoundException {
+    PrintWriter out = new PrintWriter(corpus_);
+    try {
+      for (String word : corpus) {
+        out.println(word);
+      }
+    } finally {
+      out.close();
+    }
+  }
+}
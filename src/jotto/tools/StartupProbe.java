@@ -0,0 +1,99 @@
+package jotto.tools;
+
+import java.awt.EventQueue;
+import java.awt.GraphicsEnvironment;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationTargetException;
+import java.util.zip.DataFormatException;
+
+import jotto.engine.JottoCore;
+import jotto.gui.Jotto;
+
+/**
+ * Measures the time to the first guess of a new JVM: the JVM start, loading
+ * the prebuilt tree of the bundled word list from the classpath and asking
+ * for the first guess. It also repeats the load in the same JVM to show the
+ * cost once classes are loaded and compiled.
+ * <p>
+ * Usage: StartupProbe [-gui] [repeats]
+ * <p>
+ * Run it in fresh JVMs with and without a class data sharing archive to
+ * compare cold and warm starts; scripts/appcds.sh does both. With -gui, the
+ * game window is also created and closed, so that an archive made from the
+ * run covers the Swing classes.
+ *
+ * @author Zhe Lu
+ *
+ */
+public class StartupProbe {
+
+  /**
+   * @param args
+   *          optional -gui and number of repeated loads
+   * @throws IOException
+   *           if the tree cannot be read
+   * @throws DataFormatException
+   *           if the tree resource is not a saved tree
+   * @throws InvocationTargetException
+   *           if the window cannot be created
+   * @throws InterruptedException
+   */
+  public static void main(String[] args) throws IOException,
+      DataFormatException, InterruptedException, InvocationTargetException {
+    // time the JVM took before running main
+    long startup = ManagementFactory.getRuntimeMXBean().getUptime();
+    long startTime = System.nanoTime();
+    int arg = 0;
+    boolean gui = args.length > 0 && args[0].equals("-gui");
+    if (gui) {
+      arg++;
+    }
+    int repeats = arg < args.length ? Integer.parseInt(args[arg]) : 20;
+
+    String guess = JottoCore.useDefaultQueryTree().getGuess();
+    long first = System.nanoTime() - startTime;
+    long best = Long.MAX_VALUE;
+    for (int i = 0; i < repeats; i++) {
+      long t = System.nanoTime();
+      JottoCore.useDefaultQueryTree().getGuess();
+      best = Math.min(best, System.nanoTime() - t);
+    }
+    System.out.println("first guess: " + guess);
+    System.out.println("jvm startup: " + startup + " ms");
+    System.out.println(String.format("cold load to first guess: %.1f ms",
+        first / 1e6));
+    System.out.println(String.format(
+        "time to first guess: %.1f ms since jvm start", startup + first
+            / 1e6));
+    if (repeats > 0) {
+      System.out.println(String.format(
+          "warm load to first guess: %.1f ms (best of %d)", best / 1e6,
+          repeats));
+    }
+    if (gui) {
+      openWindow();
+    }
+  }
+
+
+  /*
+   * Create the game window without showing it, then exit.
+   */
+  private static void openWindow() throws InterruptedException,
+      InvocationTargetException {
+    if (GraphicsEnvironment.isHeadless()) {
+      System.out.println("headless: no window");
+      return;
+    }
+    long t = System.nanoTime();
+    EventQueue.invokeAndWait(new Runnable() {
+      public void run() {
+        new Jotto();
+      }
+    });
+    System.out.println(String.format("window created in %.1f ms",
+        (System.nanoTime() - t) / 1e6));
+    System.exit(0);
+  }
+}
@@ -0,0 +1,339 @@
+package jotto.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+
+import jotto.engine.BuildListener;
+import jotto.engine.GuessStrategy;
+import jotto.engine.JottoCore;
+import jotto.engine.QueryTree;
+import jotto.engine.StrategySpec;
+import jotto.engine.TreeAnalysis;
+
+/**
+ * Command line tool to build, convert and verify query tree files without the
+ * GUI.
+ * 
+ * <pre>
+ * TreeTool build [-threads n | -workers n | -stream] [-strategy spec]
+ *                [-format legacy|flat] [-seed n] wordlist out
+ * TreeTool convert [-format legacy|flat] [-seed n] in out
+ * TreeTool verify [-lazy] tree wordlist
+ * TreeTool stats [-lazy] tree
+ * TreeTool analyze [-lazy] [-threads n] tree
+ * </pre>
+ * 
+ * The legacy format is the Java serialized form written by the GUI; the flat
+ * format is the compact binary format. Both can be read anywhere a tree file
+ * is accepted. Strategies are described as for {@link StrategySpec}.
+ * <p>
+ * With -stream, the tree is built on one thread and written to a flat file
+ * node by node instead of being held in memory. With -lazy, a flat file is
+ * read as the tree is walked instead of being loaded first. With -workers,
+ * the tree is built by that many worker processes on this machine.
+ * <p>
+ * analyze walks the tree on -threads threads and prints a
+ * {@link TreeAnalysis} as JSON, so the quality and size of trees can be
+ * compared across word lists and strategies.
+ * <p>
+ * Builds are deterministic: the same words give byte-identical flat files
+ * whatever the number of threads. Legacy files also hold the state of the
+ * random choice among equal guesses, so they are only identical when saved
+ * with the same -seed.
+ * <p>
+ * Exits with status 1 on bad usage or unreadable input and 2 if verification
+ * fails.
+ * 
+ * @author Zhe Lu
+ * 
+ */
+public class TreeTool {
+
+  private static final String USAGE = "usage:\n"
+      + "  TreeTool build [-threads n | -workers n | -stream] [-strategy spec] "
+      + "[-format legacy|flat] [-seed n] wordlist out\n"
+      + "  TreeTool convert [-format legacy|flat] [-seed n] in out\n"
+      + "  TreeTool verify [-lazy] tree wordlist\n"
+      + "  TreeTool stats [-lazy] tree\n"
+      + "  TreeTool analyze [-lazy] [-threads n] tree";
+
+  private int threads_ = Runtime.getRuntime().availableProcessors();
+  private String strategy_ = "exhaustive";
+  private boolean flat_ = true;
+  private boolean stream_ = false;
+  private boolean lazy_ = false;
+  private Long seed_ = null;
+  private int workers_ = 0;
+  private final List<String> args_ = new ArrayList<String>();
+
+
+  /**
+   * @param args
+   *          subcommand, options and files
+   */
+  public static void main(String[] args) {
+    if (args.length == 0) {
+      usage();
+    }
+    TreeTool tool = new TreeTool();
+    try {
+      tool.parseOptions(Arrays.asList(args).subList(1, args.length));
+      String command = args[0];
+      if (command.equals("build") && tool.args_.size() == 2) {
+        tool.build(new File(tool.args_.get(0)), new File(tool.args_.get(1)));
+      } else if (command.equals("convert") && tool.args_.size() == 2) {
+        tool.convert(new File(tool.args_.get(0)), new File(tool.args_.get(1)));
+      } else if (command.equals("verify") && tool.args_.size() == 2) {
+        if (!tool.verify(new File(tool.args_.get(0)), new File(tool.args_
+            .get(1)))) {
+          System.exit(2);
+        }
+      } else if (command.equals("stats") && tool.args_.size() == 1) {
+        tool.stats(new File(tool.args_.get(0)));
+      } else if (command.equals("analyze") && tool.args_.size() == 1) {
+        tool.analyze(new File(tool.args_.get(0)));
+      } else {
+        usage();
+      }
+    } catch (IOException | DataFormatException | IllegalArgumentException
+        | IllegalStateException e) {
+      System.err.println("error: " + e);
+      System.exit(1);
+    }
+  }
+
+
+  /*
+   * Print usage and exit.
+   */
+  private static void usage() {
+    System.err.println(USAGE);
+    System.exit(1);
+  }
+
+
+  /*
+   * Read options, keeping the other arguments.
+   */
+  private void parseOptions(List<String> args) {
+    for (int i = 0; i < args.size(); i++) {
+      String arg = args.get(i);
+      if (arg.equals("-stream")) {
+        stream_ = true;
+      } else if (arg.equals("-lazy")) {
+        lazy_ = true;
+      } else if (arg.startsWith("-") && i + 1 == args.size()) {
+        usage();
+      } else if (arg.equals("-seed")) {
+        seed_ = Long.parseLong(args.get(++i));
+      } else if (arg.equals("-workers")) {
+        workers_ = Integer.parseInt(args.get(++i));
+      } else if (arg.equals("-threads")) {
+        threads_ = Integer.parseInt(args.get(++i));
+      } else if (arg.equals("-strategy")) {
+        strategy_ = args.get(++i);
+      } else if (arg.equals("-format")) {
+        String format = args.get(++i);
+        if (!format.equals("legacy") && !format.equals("flat")) {
+          usage();
+        }
+        flat_ = format.equals("flat");
+      } else if (arg.startsWith("-")) {
+        usage();
+      } else {
+        args_.add(arg);
+      }
+    }
+  }
+
+
+  /*
+   * Build a tree from a word list and save it.
+   */
+  private void build(File wordList, File out) throws IOException,
+      DataFormatException {
+    GuessStrategy strategy = StrategySpec.parse(strategy_,
+        JottoCore.readWords(wordList).size(), false);
+    long startTime = System.nanoTime();
+    if (stream_) {
+      if (!flat_) {
+        usage();
+      }
+      JottoCore.streamQueryTree(wordList, strategy, out);
+      System.out.println("streamed " + out + " with " + strategy);
+      System.out.println("build time: " + (System.nanoTime() - startTime)
+          / 1000000 + " ms");
+      printStats(QueryTree.openFlatFile(out), out);
+      return;
+    }
+    JottoCore core = workers_ > 0 ? JottoCore.buildWithWorkers(wordList,
+        strategy_, workers_, new BuildReporter()) : new JottoCore(wordList,
+        strategy, threads_);
+    long buildNanos = System.nanoTime() - startTime;
+    startTime = System.nanoTime();
+    if (flat_) {
+      core.saveFlatQueryTree(out);
+    } else {
+      if (seed_ != null) {
+        core.setSeed(seed_);
+      }
+      core.saveQueryTree(out);
+    }
+    long saveNanos = System.nanoTime() - startTime;
+    System.out.println("built " + out + " with " + strategy + " on "
+        + (workers_ > 0 ? workers_ + " workers" : threads_ + " threads"));
+    System.out.println("build time: " + buildNanos / 1000000 + " ms");
+    System.out.println("save time: " + saveNanos / 1000000 + " ms");
+    printStats(QueryTree.readFromFile(out), out);
+  }
+
+
+  /*
+   * Convert a tree file to the selected format.
+   */
+  private void convert(File in, File out) throws IOException,
+      DataFormatException {
+    long startTime = System.nanoTime();
+    QueryTree qt = QueryTree.readFromFile(in);
+    long loadNanos = System.nanoTime() - startTime;
+    startTime = System.nanoTime();
+    if (flat_) {
+      qt.saveToFlatFile(out);
+    } else {
+      qt.start();
+      if (seed_ != null) {
+        qt.setSeed(seed_);
+      }
+      qt.saveToFile(out);
+    }
+    long saveNanos = System.nanoTime() - startTime;
+    System.out.println("converted " + in + " (" + in.length() + " bytes) to "
+        + out + " (" + out.length() + " bytes, "
+        + (flat_ ? "flat" : "legacy") + ")");
+    System.out.println("load time: " + loadNanos / 1000000 + " ms");
+    System.out.println("save time: " + saveNanos / 1000000 + " ms");
+  }
+
+
+  /*
+   * Check that every word of the list is found by the tree and that the tree
+   * holds no other words.
+   */
+  private boolean verify(File tree, File wordList) throws IOException,
+      DataFormatException {
+    Set<String> words = new LinkedHashSet<String>(JottoCore.readWords(wordList));
+    long startTime = System.nanoTime();
+    JottoCore core = lazy_ ? JottoCore.useFlatQueryTreeFromFile(tree)
+        : JottoCore.useQueryTreeFromFile(tree);
+    long loadNanos = System.nanoTime() - startTime;
+
+    startTime = System.nanoTime();
+    int missing = 0;
+    long totalGuesses = 0;
+    int maxGuesses = 0;
+    for (String word : words) {
+      int guesses = core.play(word);
+      if (guesses < 0) {
+        if (missing++ < 10) {
+          System.out.println("not found: " + word);
+        }
+      } else {
+        totalGuesses += guesses;
+        maxGuesses = Math.max(maxGuesses, guesses);
+      }
+    }
+    int extra = 0;
+    Set<String> seen = new HashSet<String>();
+    int duplicates = 0;
+    for (String word : load(tree).getSolutionWords()) {
+      if (!seen.add(word)) {
+        duplicates++;
+      } else if (!words.contains(word) && extra++ < 10) {
+        System.out.println("not in word list: " + word);
+      }
+    }
+    long verifyNanos = System.nanoTime() - startTime;
+
+    System.out.println("load time: " + loadNanos / 1000000 + " ms");
+    System.out.println("verify time: " + verifyNanos / 1000000 + " ms");
+    System.out.println("words: " + words.size() + ", not found: " + missing
+        + ", not in word list: " + extra + ", duplicated: " + duplicates);
+    if (words.size() > missing) {
+      System.out.println(String.format("guesses: avg %.4f, max %d",
+          (double) totalGuesses / (words.size() - missing), maxGuesses));
+    }
+    boolean ok = missing == 0 && extra == 0 && duplicates == 0;
+    System.out.println(ok ? "OK" : "FAILED");
+    return ok;
+  }
+
+
+  /*
+   * Print statistics of a tree file.
+   */
+  private void stats(File tree) throws IOException, DataFormatException {
+    long startTime = System.nanoTime();
+    QueryTree qt = load(tree);
+    System.out.println("load time: " + (System.nanoTime() - startTime)
+        / 1000000 + " ms");
+    printStats(qt, tree);
+  }
+
+
+  /*
+   * Print the analysis of a tree file as JSON.
+   */
+  private void analyze(File tree) throws IOException, DataFormatException {
+    System.out.print(load(tree).analyze(threads_).toJson());
+  }
+
+
+  /*
+   * Load or open a tree file.
+   */
+  private QueryTree load(File tree) throws IOException, DataFormatException {
+    return lazy_ ? QueryTree.openFlatFile(tree) : QueryTree.readFromFile(tree);
+  }
+
+
+  /*
+   * Print the size of a tree.
+   */
+  private static void printStats(QueryTree qt, File file) {
+    System.out.println("file size: " + file.length() + " bytes");
+    System.out.println("nodes: " + qt.getNodeCount());
+    System.out.println("depth: " + qt.getDepth());
+    System.out.println("words: " + qt.getSolutionWords().size());
+    System.out.println("hard mode: " + qt.isHardMode());
+  }
+
+
+  /*
+   * Prints how a build with worker processes goes.
+   */
+  private static class BuildReporter implements BuildListener {
+
+    public void workersUnavailable(Exception cause) {
+      System.err.println("workers failed to start: " + cause
+          + "; building in this process");
+    }
+
+
+    public void workersConnected(int connected, int requested) {
+      System.out.println("workers connected: " + connected + " of "
+          + requested);
+    }
+
+
+    public void workerFailed(Exception cause) {
+      System.err.println("worker failed: " + cause);
+    }
+  }
+}
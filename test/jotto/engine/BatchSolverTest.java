@@ -0,0 +1,145 @@
+package jotto.engine;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks that solving every word of the bundled list in one batch gives the
+ * same guesses and anagrams as {@link JottoCore#solve(String)} word by word,
+ * also when the first guess is an anagram of the tree's, and that games
+ * leaving the tree are still solved.
+ * <p>
+ * Usage: BatchSolverTest; exits with status 1 if a check fails.
+ *
+ * @author Zhe Lu
+ *
+ */
+public class BatchSolverTest {
+
+  /**
+   * @param args
+   *          unused
+   * @throws Exception
+   *           if the bundled tree cannot be read
+   */
+  public static void main(String[] args) throws Exception {
+    JottoCore core = JottoCore.useDefaultQueryTree();
+    List<String> targets = core.getQueryTree().getSolutionWords();
+    List<List<String>> expected = solveEach(core, targets);
+    BatchSolver solver = new BatchSolver(core);
+
+    List<List<String>> batch = solveBatch(solver, targets, null);
+    for (int i = 0; i < targets.size(); i++) {
+      check(batch.get(i).equals(expected.get(i)), targets.get(i) + ": "
+          + batch.get(i) + ", solve() gave " + expected.get(i));
+    }
+
+    String first = expected.get(0).get(0);
+    String anagram = null;
+    for (String w : targets) {
+      if (!w.equals(first)
+          && JottoCore.sortLetters(w).equals(JottoCore.sortLetters(first))) {
+        anagram = w;
+      }
+    }
+    check(anagram != null, "no anagram of the first guess " + first);
+    batch = solveBatch(solver, targets, anagram);
+    for (int i = 0; i < targets.size(); i++) {
+      List<String> moves = expected.get(i);
+      check(batch.get(i).equals(moves.subList(1, moves.size())), targets
+          .get(i) + " after " + anagram + ": " + batch.get(i));
+    }
+
+    batch = solveBatch(solver, targets, "fuzzy");
+    for (int i = 0; i < targets.size(); i++) {
+      List<String> moves = batch.get(i);
+      check(moves.get(moves.size() - 1).contains(targets.get(i)), targets
+          .get(i) + " after fuzzy: " + moves);
+    }
+    System.out.println("BatchSolverTest: OK");
+  }
+
+
+  /*
+   * The guesses solve() prints for each target, then its anagrams.
+   */
+  private static List<List<String>> solveEach(JottoCore core,
+      List<String> targets) {
+    List<List<String>> moves = new ArrayList<List<String>>();
+    PrintStream out = System.out;
+    try {
+      for (String target : targets) {
+        ByteArrayOutputStream printed = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(printed, true));
+        List<String> anagrams = core.solve(target);
+        List<String> m = new ArrayList<String>();
+        for (String line : printed.toString().split("\n")) {
+          if (!line.isEmpty()) {
+            m.add(line.substring(0, line.indexOf(':')));
+          }
+        }
+        m.add(anagrams.toString());
+        moves.add(m);
+      }
+    } finally {
+      System.setOut(out);
+    }
+    return moves;
+  }
+
+
+  /*
+   * Play every target at once, each batch answering the games still going.
+   * If first is given it is guessed first and left out of the moves.
+   */
+  private static List<List<String>> solveBatch(BatchSolver solver,
+      List<String> targets, String first) {
+    GameState[] games = new GameState[targets.size()];
+    List<List<String>> moves = new ArrayList<List<String>>();
+    List<Integer> going = new ArrayList<Integer>();
+    for (int i = 0; i < games.length; i++) {
+      games[i] = new GameState();
+      if (first != null) {
+        games[i] = games[i].next(first, JottoCore.matchingLetters(first,
+            targets.get(i)));
+      }
+      moves.add(new ArrayList<String>());
+      going.add(i);
+    }
+    while (!going.isEmpty()) {
+      List<GameState> states = new ArrayList<GameState>();
+      for (int i : going) {
+        states.add(games[i]);
+      }
+      List<BatchSolver.Result> results = solver.solve(states);
+      List<Integer> next = new ArrayList<Integer>();
+      for (int j = 0; j < going.size(); j++) {
+        int i = going.get(j);
+        BatchSolver.Result r = results.get(j);
+        if (r.getAnagrams() != null) {
+          moves.get(i).add(r.getAnagrams().toString());
+        } else {
+          check(r.getGuess() != null, targets.get(i) + " left no words");
+          check(moves.get(i).size() < 20, targets.get(i) + " not solved: "
+              + moves.get(i));
+          moves.get(i).add(r.getGuess());
+          games[i] = games[i].next(r.getGuess(), JottoCore.matchingLetters(r
+              .getGuess(), targets.get(i)));
+          next.add(i);
+        }
+      }
+      going = next;
+    }
+    return moves;
+  }
+
+
+  private static void check(boolean condition, String message) {
+    if (!condition) {
+      System.err.println("BatchSolverTest failed: " + message);
+      System.exit(1);
+    }
+  }
+}
@@ -0,0 +1,126 @@
+package jotto.engine;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+/**
+ * Checks that a tree built by worker processes saves to the same flat file as
+ * one built in this process, and that the build falls back to this process
+ * when the workers cannot be started, telling its {@link BuildListener}. Trees are built from the bundled word
+ * list.
+ * <p>
+ * Usage: BuildWorkersTest; exits with status 1 if a check fails.
+ *
+ * @author Zhe Lu
+ *
+ */
+public class BuildWorkersTest {
+
+  private static final File WORDS = new File("src/jotto/resources/words.txt");
+  private static final String SPEC = "exhaustive";
+
+
+  /**
+   * @param args
+   *          unused
+   * @throws Exception
+   *           if a word list or tree file cannot be read or written
+   */
+  public static void main(String[] args) throws Exception {
+    GuessStrategy strategy = StrategySpec.parse(SPEC, JottoCore.readWords(
+        WORDS).size(), false);
+    byte[] local = save(new JottoCore(WORDS, strategy, Runtime.getRuntime()
+        .availableProcessors()));
+    testWorkers(local);
+    testFallback(local);
+    System.out.println("BuildWorkersTest: OK");
+  }
+
+
+  /*
+   * Two workers build the same tree as this process.
+   */
+  private static void testWorkers(byte[] local) throws Exception {
+    Listener listener = new Listener();
+    byte[] workers = save(JottoCore.buildWithWorkers(WORDS, SPEC, 2,
+        listener));
+    check(Arrays.equals(local, workers), "worker build differs");
+    check(listener.connected_ == 2 && listener.unavailable_ == null
+        && listener.failures_ == 0, "two workers connected, none failed");
+  }
+
+
+  /*
+   * Workers that cannot be started leave the build to this process.
+   */
+  private static void testFallback(byte[] local) throws Exception {
+    String javaHome = System.getProperty("java.home");
+    System.setProperty("java.home", new File("no-such-java").getAbsolutePath());
+    Listener listener = new Listener();
+    byte[] fallback;
+    try {
+      fallback = save(JottoCore.buildWithWorkers(WORDS, SPEC, 2, listener));
+    } finally {
+      System.setProperty("java.home", javaHome);
+    }
+    check(Arrays.equals(local, fallback), "fallback build differs");
+    check(listener.unavailable_ instanceof IOException,
+        "fallback reported: " + listener.unavailable_);
+  }
+
+
+  /*
+   * The bytes of a core's tree saved in the flat format.
+   */
+  private static byte[] save(JottoCore core) throws IOException {
+    File file = File.createTempFile("jotto", ".jtf");
+    try {
+      core.saveFlatQueryTree(file);
+      RandomAccessFile in = new RandomAccessFile(file, "r");
+      try {
+        byte[] bytes = new byte[(int) in.length()];
+        in.readFully(bytes);
+        return bytes;
+      } finally {
+        in.close();
+      }
+    } finally {
+      file.delete();
+    }
+  }
+
+
+  private static void check(boolean condition, String message) {
+    if (!condition) {
+      System.err.println("BuildWorkersTest failed: " + message);
+      System.exit(1);
+    }
+  }
+
+
+  /*
+   * Records what a build reports.
+   */
+  private static class Listener implements BuildListener {
+    private volatile Exception unavailable_;
+    private volatile int connected_ = -1;
+    private volatile int failures_ = 0;
+
+
+    public void workersUnavailable(Exception cause) {
+      unavailable_ = cause;
+    }
+
+
+    public void workersConnected(int connected, int requested) {
+      connected_ = connected;
+    }
+
+
+    public synchronized void workerFailed(Exception cause) {
+      failures_++;
+    }
+  }
+}
@@ -0,0 +1,141 @@
+package jotto.engine;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Checks the classes a {@link ConsistencyIndex} finds consistent with random
+ * histories of guesses and responses against filtering every class with
+ * {@link JottoCore#matchingLetters(String, String)}. Guesses are dictionary
+ * words and random letters, responses come from a random answer or are random
+ * themselves, and indexes of the whole bundled list and of slices sized on
+ * and off a multiple of 64 classes are checked.
+ * <p>
+ * Usage: ConsistencyIndexTest; exits with status 1 if a check fails.
+ *
+ * @author Zhe Lu
+ *
+ */
+public class ConsistencyIndexTest {
+
+  private static final File WORDS = new File("src/jotto/resources/words.txt");
+  private static final int HISTORIES = 300;
+  private static final int MAX_GUESSES = 6;
+
+
+  /**
+   * @param args
+   *          unused
+   * @throws Exception
+   *           if the word list cannot be read
+   */
+  public static void main(String[] args) throws Exception {
+    List<String> keys = new ArrayList<String>(JottoCore.readWordList(WORDS)
+        .keySet());
+    Random random = new Random(0);
+    for (int size : new int[] { keys.size(), 64, 130, 1 }) {
+      List<String> slice = keys.subList(0, size);
+      ConsistencyIndex index = new ConsistencyIndex(slice);
+      testIds(index, slice);
+      for (int h = 0; h < HISTORIES; h++) {
+        testHistory(index, slice, random);
+      }
+    }
+    System.out.println("ConsistencyIndexTest: OK");
+  }
+
+
+  /*
+   * Ids follow sorted order and all() holds exactly the indexed classes.
+   */
+  private static void testIds(ConsistencyIndex index, List<String> keys) {
+    check(index.size() == keys.size(), "size " + index.size());
+    check(ConsistencyIndex.count(index.all()) == keys.size(), "all() has "
+        + ConsistencyIndex.count(index.all()) + " of " + keys.size());
+    check(new ArrayList<String>(index.toKeys(index.all())).equals(keys),
+        "all() keys out of order");
+    for (int id = 0; id < keys.size(); id++) {
+      check(index.key(id).equals(keys.get(id)), "key of " + id);
+      check(index.id(keys.get(id)) == id, "id of " + keys.get(id));
+    }
+    check(index.id("zzzzz") == -1, "zzzzz indexed");
+  }
+
+
+  /*
+   * Filtering one response at a time and all at once both give the classes
+   * agreeing with every response.
+   */
+  private static void testHistory(ConsistencyIndex index, List<String> keys,
+      Random random) {
+    String answer = keys.get(random.nextInt(keys.size()));
+    boolean lying = random.nextInt(4) == 0;
+    int n = 1 + random.nextInt(MAX_GUESSES);
+    List<String> guesses = new ArrayList<String>();
+    int[] matches = new int[n];
+    long[] set = index.all();
+    for (int i = 0; i < n; i++) {
+      String guess = random.nextBoolean() ? keys.get(random.nextInt(keys
+          .size())) : randomLetters(random);
+      guesses.add(guess);
+      matches[i] = lying ? random.nextInt(6) : JottoCore.matchingLetters(
+          guess, answer);
+      index.filter(set, guess, matches[i]);
+      List<String> expected = bruteForce(keys, guesses, matches);
+      check(new ArrayList<String>(index.toKeys(set)).equals(expected),
+          "after " + guesses + " " + Arrays.toString(Arrays.copyOf(matches,
+              i + 1)) + ": " + index.toKeys(set) + ", expected " + expected);
+      check(ConsistencyIndex.count(set) == expected.size(), "count after "
+          + guesses);
+    }
+    Set<String> consistent = index.toKeys(index.consistent(guesses, matches));
+    check(new ArrayList<String>(consistent).equals(bruteForce(keys, guesses,
+        matches)), "consistent() differs after " + guesses);
+    if (!lying) {
+      check(consistent.contains(answer), answer + " lost after " + guesses);
+    }
+  }
+
+
+  /*
+   * Keys matching every response, in sorted order.
+   */
+  private static List<String> bruteForce(List<String> keys,
+      List<String> guesses, int[] matches) {
+    List<String> consistent = new ArrayList<String>();
+    for (String key : keys) {
+      boolean ok = true;
+      for (int i = 0; i < guesses.size() && ok; i++) {
+        ok = JottoCore.matchingLetters(guesses.get(i), key) == matches[i];
+      }
+      if (ok) {
+        consistent.add(key);
+      }
+    }
+    return consistent;
+  }
+
+
+  /*
+   * Five letters from a small alphabet, so that repeated letters are common.
+   */
+  private static String randomLetters(Random random) {
+    char[] letters = new char[5];
+    for (int i = 0; i < letters.length; i++) {
+      letters[i] = "aeirstz".charAt(random.nextInt(7));
+    }
+    return new String(letters);
+  }
+
+
+  private static void check(boolean condition, String message) {
+    if (!condition) {
+      System.err.println("ConsistencyIndexTest failed: " + message);
+      System.exit(1);
+    }
+  }
+}
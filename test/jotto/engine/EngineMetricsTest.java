@@ -0,0 +1,86 @@
+package jotto.engine;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+
+import javax.management.ObjectName;
+import javax.management.timer.Timer;
+
+/**
+ * Checks that metrics are only collected while {@link EngineMetrics} is
+ * collecting, and that a failed MBean registration is recorded in
+ * {@link EngineMetrics#isRegistered()} without printing anything.
+ * <p>
+ * Usage: EngineMetricsTest; exits with status 1 if a check fails.
+ *
+ * @author Zhe Lu
+ *
+ */
+public class EngineMetricsTest {
+
+  private static final File WORDS = new File("src/jotto/resources/words.txt");
+
+
+  /**
+   * @param args
+   *          unused
+   * @throws Exception
+   *           if the word list cannot be read or the name cannot be taken
+   */
+  public static void main(String[] args) throws Exception {
+    testTakenName();
+    testToggle();
+    System.out.println("EngineMetricsTest: OK");
+  }
+
+
+  /*
+   * Another MBean holding the name leaves the metrics unregistered, quietly.
+   */
+  private static void testTakenName() throws Exception {
+    check(!EngineMetrics.isCollecting(), "collecting without jotto.metrics");
+    ManagementFactory.getPlatformMBeanServer().registerMBean(new Timer(),
+        new ObjectName(EngineMetrics.OBJECT_NAME));
+    PrintStream err = System.err;
+    ByteArrayOutputStream captured = new ByteArrayOutputStream();
+    System.setErr(new PrintStream(captured, true));
+    try {
+      EngineMetrics.setCollecting(true);
+    } finally {
+      System.setErr(err);
+    }
+    check(EngineMetrics.isCollecting(), "not collecting after setCollecting");
+    check(!EngineMetrics.isRegistered(), "registered over a taken name");
+    check(captured.size() == 0, "registration printed: " + captured);
+  }
+
+
+  /*
+   * Building a tree counts nodes only while collecting.
+   */
+  private static void testToggle() throws Exception {
+    GuessStrategy strategy = StrategySpec.parse("exhaustive", JottoCore
+        .readWords(WORDS).size(), false);
+    EngineMetrics.resetAll();
+    new JottoCore(WORDS, strategy, 1);
+    check(EngineMetrics.snapshot().getNodesBuilt() > 0,
+        "no nodes counted while collecting");
+
+    EngineMetrics.setCollecting(false);
+    EngineMetrics.resetAll();
+    new JottoCore(WORDS, strategy, 1);
+    check(!EngineMetrics.snapshot().isEnabled(), "snapshot reports enabled");
+    check(EngineMetrics.snapshot().getNodesBuilt() == 0,
+        "nodes counted after collecting stopped");
+  }
+
+
+  private static void check(boolean condition, String message) {
+    if (!condition) {
+      System.err.println("EngineMetricsTest failed: " + message);
+      System.exit(1);
+    }
+  }
+}
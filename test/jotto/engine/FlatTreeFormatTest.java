@@ -0,0 +1,214 @@
+package jotto.engine;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+
+/**
+ * Checks that a tree saved in the legacy and flat formats reads back equal,
+ * eagerly and lazily, with every path keeping its guesses, anagrams and links;
+ * that converting legacy to flat and back changes nothing; and that truncated
+ * or corrupt flat files are rejected with a {@link DataFormatException}. The
+ * tree is built from the first words of the bundled list.
+ * <p>
+ * Usage: FlatTreeFormatTest; exits with status 1 if a check fails.
+ *
+ * @author Zhe Lu
+ *
+ */
+public class FlatTreeFormatTest {
+
+  private static final File WORDS = new File("src/jotto/resources/words.txt");
+  private static final int SIZE = 400;
+
+
+  /**
+   * @param args
+   *          unused
+   * @throws Exception
+   *           if a word list or tree file cannot be read or written
+   */
+  public static void main(String[] args) throws Exception {
+    File words = File.createTempFile("jotto", ".txt");
+    File legacy = File.createTempFile("jotto", ".jot");
+    File flat = File.createTempFile("jotto", ".jtf");
+    File flat2 = File.createTempFile("jotto", ".jtf");
+    File legacy2 = File.createTempFile("jotto", ".jot");
+    File bad = File.createTempFile("jotto", ".jtf");
+    try {
+      PrintWriter out = new PrintWriter(words, "US-ASCII");
+      for (String w : JottoCore.readWords(WORDS).subList(0, SIZE)) {
+        out.println(w);
+      }
+      out.close();
+      JottoCore core = new JottoCore(words);
+      Node root = core.getQueryTree().getRoot();
+      core.saveQueryTree(legacy);
+      core.saveFlatQueryTree(flat);
+
+      compare(root, JottoCore.useQueryTreeFromFile(legacy).getQueryTree()
+          .getRoot(), "legacy");
+      compare(root, JottoCore.useQueryTreeFromFile(flat).getQueryTree()
+          .getRoot(), "flat");
+      compare(root, JottoCore.useFlatQueryTreeFromFile(flat).getQueryTree()
+          .getRoot(), "lazy");
+
+      JottoCore.useQueryTreeFromFile(legacy).saveFlatQueryTree(flat2);
+      check(Arrays.equals(Files.readAllBytes(flat.toPath()), Files
+          .readAllBytes(flat2.toPath())), "legacy to flat differs");
+      JottoCore.useQueryTreeFromFile(flat2).saveQueryTree(legacy2);
+      compare(root, JottoCore.useQueryTreeFromFile(legacy2).getQueryTree()
+          .getRoot(), "legacy to flat to legacy");
+
+      testTruncated(flat, bad);
+      testCorrupt(flat, bad);
+    } finally {
+      words.delete();
+      legacy.delete();
+      flat.delete();
+      flat2.delete();
+      legacy2.delete();
+      bad.delete();
+    }
+    System.out.println("FlatTreeFormatTest: OK");
+  }
+
+
+  /*
+   * Every path of two trees has the same guesses, anagrams and links.
+   */
+  private static void compare(Node expected, Node actual, String path) {
+    if (expected == null || actual == null) {
+      check(expected == actual, path + ": link differs");
+      return;
+    }
+    check(Arrays.equals(expected.getGuess(), actual.getGuess()), path
+        + ": guesses differ");
+    check(Arrays.equals(expected.getAnagrams(), actual.getAnagrams()), path
+        + ": anagrams differ");
+    check(expected.getLinkMask() == actual.getLinkMask(), path
+        + ": link mask differs");
+    for (int m = 0; m < 6; m++) {
+      compare(expected.getLink(m), actual.getLink(m), path + " " + m);
+    }
+  }
+
+
+  /*
+   * Prefixes of the file are rejected, eagerly and lazily.
+   */
+  private static void testTruncated(File flat, File bad) throws Exception {
+    byte[] bytes = Files.readAllBytes(flat.toPath());
+    int[] lengths = { 0, 3, 6, 12, bytes.length / 3, bytes.length / 2,
+        bytes.length - 9, bytes.length - 1 };
+    for (int length : lengths) {
+      Files.write(bad.toPath(), Arrays.copyOf(bytes, length));
+      checkRejected(bad, true, "truncated to " + length + " bytes");
+    }
+  }
+
+
+  /*
+   * Corrupt header fields, words, word indices and links are rejected. Bad
+   * nodes below the root are only found by the lazy reader when reached.
+   */
+  private static void testCorrupt(File flat, File bad) throws Exception {
+    byte[] bytes = Files.readAllBytes(flat.toPath());
+    int count = readInt(bytes, 7);
+    int header = 7 + 4 + count * WordPool.WORD_LENGTH;
+    int root = (int) readLong(bytes, header);
+    check(root == header + 24, "root does not follow the header");
+    // the root has guesses and no anagrams; its first link follows its guess
+    check(bytes[root] == 1 && readInt(bytes, root + 1) == 1,
+        "root is not a single guess");
+    int rootIndex = root + 5;
+    int rootLinks = root + 10;
+    int child = (int) readLong(bytes, rootLinks);
+    check(bytes[child] == 1, "first child has no guess");
+    int childIndex = child + 5;
+
+    corrupt(bytes, bad, 0, 'X', true, "magic");
+    corrupt(bytes, bad, 5, 9, true, "version");
+    corrupt(bytes, bad, 11, 'A', true, "word");
+    corrupt(bytes, bad, header + 16 + 7, 1, true, "file length");
+    corrupt(bytes, bad, rootIndex, 0x7f, true, "root word index");
+    corrupt(bytes, bad, rootLinks, 0x7f, true, "root link");
+    corrupt(bytes, bad, childIndex, 0x7f, false, "child word index");
+  }
+
+
+  /*
+   * Write the file with one byte replaced and check it is rejected.
+   */
+  private static void corrupt(byte[] bytes, File bad, int offset, int value,
+      boolean atOpen, String what) throws Exception {
+    byte[] copy = bytes.clone();
+    copy[offset] = (byte) value;
+    Files.write(bad.toPath(), copy);
+    checkRejected(bad, atOpen, "corrupt " + what);
+  }
+
+
+  /*
+   * The eager reader throws; the lazy reader throws when opening, or else
+   * when the tree is walked.
+   */
+  private static void checkRejected(File bad, boolean atOpen, String what)
+      throws Exception {
+    try {
+      FlatTreeFormat.read(bad);
+      check(false, what + ": read");
+    } catch (DataFormatException e) {
+      // expected
+    }
+    QueryTree lazy = null;
+    try {
+      lazy = LazyNode.open(bad);
+      check(!atOpen, what + ": opened");
+    } catch (DataFormatException e) {
+      check(atOpen, what + ": not opened: " + e.getMessage());
+    }
+    if (lazy != null) {
+      try {
+        walk(lazy.getRoot());
+        check(false, what + ": walked");
+      } catch (IllegalStateException e) {
+        // expected
+      }
+    }
+  }
+
+
+  private static void walk(Node n) {
+    if (n != null) {
+      for (int m = 0; m < 6; m++) {
+        walk(n.getLink(m));
+      }
+    }
+  }
+
+
+  private static int readInt(byte[] bytes, int pos) {
+    int v = 0;
+    for (int i = 0; i < 4; i++) {
+      v = (v << 8) | (bytes[pos + i] & 0xff);
+    }
+    return v;
+  }
+
+
+  private static long readLong(byte[] bytes, int pos) {
+    return ((long) readInt(bytes, pos) << 32)
+        | (readInt(bytes, pos + 4) & 0xffffffffL);
+  }
+
+
+  private static void check(boolean condition, String message) {
+    if (!condition) {
+      System.err.println("FlatTreeFormatTest failed: " + message);
+      System.exit(1);
+    }
+  }
+}
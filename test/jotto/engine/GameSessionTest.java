@@ -0,0 +1,475 @@
+package jotto.engine;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks the delivery rules of {@link GameSession}: demand, the buffer limit,
+ * ordering when a subscriber responds from onNext, late subscribers, failing
+ * subscribers and completion, and that games take the guesses
+ * {@link TreeAnalysis} counts. Games are played on the bundled tree.
+ * <p>
+ * Usage: GameSessionTest; exits with status 1 if a check fails.
+ *
+ * @author Zhe Lu
+ *
+ */
+public class GameSessionTest {
+
+  private static final String SECRET = "spore";
+
+
+  /**
+   * @param args
+   *          unused
+   * @throws Exception
+   *           if the bundled tree cannot be read
+   */
+  public static void main(String[] args) throws Exception {
+    testReentrantOrder();
+    testDemand();
+    testLateSubscriber();
+    testBufferOverflow();
+    testFailingSubscriber();
+    testBadRequest();
+    testClose();
+    testFailingComplete();
+    testSharedCore();
+    testGuesses();
+    testDefaultSeed();
+    System.out.println("GameSessionTest: OK");
+  }
+
+
+  /*
+   * A subscriber playing from onNext and an observer see the same events in
+   * order, ending with the secret solved.
+   */
+  private static void testReentrantOrder() throws Exception {
+    GameSession session = newSession();
+    Recorder player = new Player(session, SECRET);
+    Recorder observer = new Recorder(Long.MAX_VALUE);
+    session.subscribe(player);
+    session.subscribe(observer);
+    session.start();
+    check(player.events_.equals(observer.events_), "same events");
+    check(isGame(observer.events_), "events in game order: "
+        + observer.events_);
+    GameEvent last = observer.events_.get(observer.events_.size() - 1);
+    check(last.getType() == GameEvent.Type.SOLVED
+        && last.getWord().equals(SECRET), "solved " + last);
+    check(last == session.getCurrent(), "last event is current");
+  }
+
+
+  /*
+   * Events are held until requested, then delivered in order.
+   */
+  private static void testDemand() throws Exception {
+    GameSession session = newSession();
+    Recorder player = new Player(session, SECRET);
+    Recorder slow = new Recorder(0);
+    session.subscribe(player);
+    session.subscribe(slow);
+    session.start();
+    check(slow.events_.isEmpty(), "nothing delivered without demand");
+    slow.subscription_.request(2);
+    check(slow.events_.equals(player.events_.subList(0, 2)),
+        "two events after request(2)");
+    slow.subscription_.request(Long.MAX_VALUE);
+    slow.subscription_.request(Long.MAX_VALUE);
+    check(slow.events_.equals(player.events_), "the rest after more demand");
+    check(slow.error_ == null, "no error");
+  }
+
+
+  /*
+   * A late subscriber is first sent the current state.
+   */
+  private static void testLateSubscriber() throws Exception {
+    GameSession session = newSession();
+    session.start();
+    session.respond(1);
+    Recorder late = new Recorder(Long.MAX_VALUE);
+    session.subscribe(late);
+    check(late.events_.size() == 1
+        && late.events_.get(0) == session.getCurrent(), "current state sent");
+  }
+
+
+  /*
+   * A subscriber that requests nothing fails once more than BUFFER_SIZE
+   * events wait, without affecting the others.
+   */
+  private static void testBufferOverflow() throws Exception {
+    GameSession session = newSession();
+    Player player = new Player(session, SECRET);
+    Recorder idle = new Recorder(0);
+    session.subscribe(player);
+    session.subscribe(idle);
+    int games = 0;
+    while (idle.error_ == null && games < 1000) {
+      session.start();
+      games++;
+    }
+    check(idle.error_ instanceof IllegalStateException, "overflow error: "
+        + idle.error_);
+    check(idle.events_.isEmpty(), "no events delivered");
+    check(player.error_ == null
+        && player.events_.get(player.events_.size() - 1).getType()
+            == GameEvent.Type.SOLVED,
+        "player unaffected");
+    int before = player.events_.size();
+    session.start();
+    check(player.events_.size() > before, "player still subscribed");
+  }
+
+
+  /*
+   * A subscriber whose onNext throws gets onError and is dropped; the others
+   * see every event.
+   */
+  private static void testFailingSubscriber() throws Exception {
+    GameSession session = newSession();
+    final Recorder failing = new Recorder(Long.MAX_VALUE) {
+      @Override
+      public void onNext(GameEvent event) {
+        super.onNext(event);
+        if (events_.size() == 2) {
+          throw new IllegalStateException("subscriber failure");
+        }
+      }
+    };
+    Recorder player = new Player(session, SECRET);
+    Recorder observer = new Recorder(Long.MAX_VALUE);
+    session.subscribe(failing);
+    session.subscribe(player);
+    session.subscribe(observer);
+    session.start();
+    check(failing.events_.size() == 2, "failing subscriber dropped");
+    check(failing.error_ instanceof IllegalStateException,
+        "failing subscriber told: " + failing.error_);
+    check(observer.events_.equals(player.events_) && isGame(observer.events_),
+        "others see every event");
+    check(observer.error_ == null, "others not failed");
+  }
+
+
+  /*
+   * A request that is not positive fails the subscriber.
+   */
+  private static void testBadRequest() throws Exception {
+    GameSession session = newSession();
+    Recorder r = new Recorder(0);
+    session.subscribe(r);
+    r.subscription_.request(0);
+    check(r.error_ instanceof IllegalArgumentException, "request(0) fails");
+  }
+
+
+  /*
+   * Closing completes subscribers once their held events are requested.
+   */
+  private static void testClose() throws Exception {
+    GameSession session = newSession();
+    Recorder r = new Recorder(0);
+    session.subscribe(r);
+    session.start();
+    session.close();
+    check(!r.complete_, "not complete while events are held");
+    r.subscription_.request(1);
+    check(r.events_.size() == 1 && r.complete_, "complete after the events");
+    Recorder late = new Recorder(0);
+    session.subscribe(late);
+    check(late.complete_, "late subscriber completed at once");
+  }
+
+
+  /*
+   * A subscriber whose onComplete throws does not fail close().
+   */
+  private static void testFailingComplete() throws Exception {
+    GameSession session = newSession();
+    Recorder failing = new Recorder(Long.MAX_VALUE) {
+      @Override
+      public void onComplete() {
+        throw new IllegalStateException("subscriber failure");
+      }
+    };
+    Recorder other = new Recorder(Long.MAX_VALUE);
+    session.subscribe(failing);
+    session.subscribe(other);
+    session.start();
+    session.close();
+    check(other.complete_, "others completed");
+  }
+
+
+  /*
+   * Sessions on one core, played move by move in turn, see the same events
+   * as a session played alone, and leave the core where it was.
+   */
+  private static void testSharedCore() throws Exception {
+    JottoCore core = JottoCore.useDefaultQueryTree();
+    core.restart();
+    core.numMatches(1);
+    int mask = core.getActiveLinkMask();
+    int guess = core.getGuessId();
+    GameSession a = new GameSession(core);
+    GameSession b = new GameSession(core);
+    a.setSeed(0);
+    b.setSeed(1);
+    Recorder ra = new Recorder(Long.MAX_VALUE);
+    Recorder rb = new Recorder(Long.MAX_VALUE);
+    a.subscribe(ra);
+    b.subscribe(rb);
+    a.start();
+    b.start();
+    boolean moved = true;
+    while (moved) {
+      moved = step(a, SECRET);
+      moved |= step(b, "champ");
+    }
+    GameSession alone = newSession();
+    Recorder r = new Recorder(Long.MAX_VALUE);
+    alone.subscribe(r);
+    alone.start();
+    while (step(alone, SECRET)) {
+    }
+    check(sameWords(ra.events_, r.events_),
+        "interleaved game as alone: " + ra.events_ + " " + r.events_);
+    check(isGame(rb.events_) && rb.events_.get(rb.events_.size() - 1)
+        .getWord().equals("champ"), "other game solved: " + rb.events_);
+    check(core.getActiveLinkMask() == mask && core.getGuessId() == guess,
+        "core not moved");
+  }
+
+
+  /*
+   * Make the move a player of a secret would make; false if the game is over.
+   */
+  private static boolean step(GameSession session, String secret) {
+    GameEvent event = session.getCurrent();
+    if (event.getType() == GameEvent.Type.GUESS) {
+      if (event.getWord().equals(secret)) {
+        session.confirm();
+      } else {
+        session.respond(JottoCore.matchingLetters(event.getWord(), secret));
+      }
+      return true;
+    } else if (event.getType() == GameEvent.Type.CANDIDATE) {
+      if (event.getWord().equals(secret)) {
+        session.confirm();
+      } else {
+        session.reject();
+      }
+      return true;
+    }
+    return false;
+  }
+
+
+  /*
+   * Whether two games have the same types, words and guess counts.
+   */
+  private static boolean sameWords(List<GameEvent> a, List<GameEvent> b) {
+    if (a.size() != b.size()) {
+      return false;
+    }
+    for (int i = 0; i < a.size(); i++) {
+      GameEvent x = a.get(i);
+      GameEvent y = b.get(i);
+      if (x.getType() != y.getType() || x.getGuesses() != y.getGuesses()
+          || (x.getWord() == null ? y.getWord() != null : !x.getWord()
+              .equals(y.getWord()))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+
+  /*
+   * Every secret is found within the most guesses of the analysis, which
+   * some game takes, and the mean over games is near the expected guesses.
+   */
+  private static void testGuesses() throws Exception {
+    InputStream in = JottoCore.class.getClassLoader().getResourceAsStream(
+        JottoCore.DEFAULT_TREE_RESOURCE);
+    QueryTree qt;
+    try {
+      qt = QueryTree.readFromStream(in);
+    } finally {
+      in.close();
+    }
+    TreeAnalysis analysis = qt.analyze(1);
+    GameSession session = newSession();
+    int seeds = 32;
+    int max = 0;
+    long sum = 0;
+    List<String> words = qt.getSolutionWords();
+    for (int seed = 0; seed < seeds; seed++) {
+      session.setSeed(seed);
+      for (String word : words) {
+        Player player = new Player(session, word);
+        session.subscribe(player);
+        session.start();
+        player.subscription_.cancel();
+        GameEvent last = session.getCurrent();
+        check(last.getType() == GameEvent.Type.SOLVED, "solved " + word);
+        max = Math.max(max, last.getGuesses());
+        sum += last.getGuesses();
+      }
+    }
+    check(max == analysis.getMaxGuesses(), "most guesses " + max + ", "
+        + analysis.getMaxGuesses() + " counted");
+    double mean = (double) sum / (seeds * words.size());
+    check(Math.abs(mean - analysis.getExpectedGuesses()) < 0.005,
+        "mean guesses " + mean + ", " + analysis.getExpectedGuesses()
+            + " expected");
+  }
+
+
+  /*
+   * Sessions not seeded play like ones seeded with the default, so games are
+   * repeatable.
+   */
+  private static void testDefaultSeed() throws Exception {
+    List<List<GameEvent>> games = new ArrayList<List<GameEvent>>();
+    for (int i = 0; i < 3; i++) {
+      GameSession session = new GameSession(JottoCore.useDefaultQueryTree());
+      if (i == 2) {
+        session.setSeed(QueryTree.DEFAULT_SEED);
+      }
+      Recorder r = new Recorder(Long.MAX_VALUE);
+      session.subscribe(r);
+      session.start();
+      while (step(session, SECRET)) {
+      }
+      games.add(r.events_);
+    }
+    check(sameWords(games.get(0), games.get(1))
+        && sameWords(games.get(0), games.get(2)), "unseeded games differ: "
+        + games);
+  }
+
+
+  private static GameSession newSession() throws Exception {
+    GameSession session = new GameSession(JottoCore.useDefaultQueryTree());
+    session.setSeed(0);
+    return session;
+  }
+
+
+  /*
+   * Whether events are one game: guesses, then candidates, then one end.
+   */
+  private static boolean isGame(List<GameEvent> events) {
+    int guesses = 0;
+    for (int i = 0; i < events.size(); i++) {
+      GameEvent e = events.get(i);
+      boolean end = e.getType() == GameEvent.Type.SOLVED
+          || e.getType() == GameEvent.Type.FAILED;
+      if (end != (i == events.size() - 1)) {
+        return false;
+      }
+      if (e.getType() == GameEvent.Type.GUESS
+          || e.getType() == GameEvent.Type.CANDIDATE) {
+        if (e.getGuesses() != ++guesses) {
+          return false;
+        }
+      }
+    }
+    return !events.isEmpty();
+  }
+
+
+  private static void check(boolean condition, String message) {
+    if (!condition) {
+      System.err.println("GameSessionTest failed: " + message);
+      System.exit(1);
+    }
+  }
+
+
+  /*
+   * Records what a subscriber is sent, requesting some events up front.
+   */
+  private static class Recorder implements Flow.Subscriber<GameEvent> {
+    final List<GameEvent> events_ = new ArrayList<GameEvent>();
+    private final long initial_;
+    Flow.Subscription subscription_;
+    Throwable error_;
+    boolean complete_ = false;
+
+
+    Recorder(long initial) {
+      initial_ = initial;
+    }
+
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+      subscription_ = subscription;
+      if (initial_ > 0) {
+        subscription.request(initial_);
+      }
+    }
+
+
+    @Override
+    public void onNext(GameEvent event) {
+      events_.add(event);
+    }
+
+
+    @Override
+    public void onError(Throwable error) {
+      error_ = error;
+    }
+
+
+    @Override
+    public void onComplete() {
+      complete_ = true;
+    }
+
+  }
+
+
+  /*
+   * Plays against a secret, responding from onNext.
+   */
+  private static class Player extends Recorder {
+    private final GameSession session_;
+    private final String secret_;
+
+
+    Player(GameSession session, String secret) {
+      super(Long.MAX_VALUE);
+      session_ = session;
+      secret_ = secret;
+    }
+
+
+    @Override
+    public void onNext(GameEvent event) {
+      super.onNext(event);
+      if (event.getType() == GameEvent.Type.GUESS) {
+        if (event.getWord().equals(secret_)) {
+          session_.confirm();
+        } else {
+          session_.respond(JottoCore.matchingLetters(event.getWord(),
+              secret_));
+        }
+      } else if (event.getType() == GameEvent.Type.CANDIDATE) {
+        if (event.getWord().equals(secret_)) {
+          session_.confirm();
+        } else {
+          session_.reject();
+        }
+      }
+    }
+  }
+}
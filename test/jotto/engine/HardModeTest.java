@@ -0,0 +1,100 @@
+package jotto.engine;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Checks that every guess of a hard mode tree is consistent with the responses
+ * before it, and that trees remember whether they were built in hard mode
+ * when saved in either format and read back eagerly or lazily. Trees are built
+ * from the bundled word list.
+ * <p>
+ * Usage: HardModeTest; exits with status 1 if a check fails.
+ *
+ * @author Zhe Lu
+ *
+ */
+public class HardModeTest {
+
+  private static final File WORDS = new File("src/jotto/resources/words.txt");
+
+
+  /**
+   * @param args
+   *          unused
+   * @throws Exception
+   *           if a word list or tree file cannot be read or written
+   */
+  public static void main(String[] args) throws Exception {
+    JottoCore hard = new JottoCore(WORDS, new HardModeStrategy());
+    check(hard.isHardMode(), "core built in hard mode");
+    int depth = hard.getQueryTree().getDepth();
+    checkConsistent(hard.getQueryTree().getRoot(), new int[depth],
+        new int[depth], 0);
+    checkSaved(hard, true);
+    checkSaved(new JottoCore(WORDS, new ExhaustiveStrategy()), false);
+    check(!JottoCore.useDefaultQueryTree().isHardMode(),
+        "bundled tree read as hard mode");
+    check(JottoCore.useDefaultWordList(new HardModeStrategy()).isHardMode(),
+        "bundled list not built in hard mode");
+    System.out.println("HardModeTest: OK");
+  }
+
+
+  /*
+   * Each guess shares with the earlier guesses the letters they were scored.
+   */
+  private static void checkConsistent(Node n, int[] guesses, int[] matches,
+      int depth) {
+    if (n == null || n.getGuess() == null) {
+      return;
+    }
+    int guess = n.getGuess()[0];
+    for (int i = 0; i < depth; i++) {
+      check(JottoCore.matchingLetters(guess, guesses[i]) == matches[i],
+          WordPool.getDefault().word(guess) + " inconsistent at depth "
+              + depth);
+    }
+    guesses[depth] = guess;
+    for (int m = 0; m < 6; m++) {
+      matches[depth] = m;
+      checkConsistent(n.getLink(m), guesses, matches, depth + 1);
+    }
+  }
+
+
+  /*
+   * The mode survives saving in both formats, and cores read from the files
+   * search off the tree in the same mode.
+   */
+  private static void checkSaved(JottoCore core, boolean hard)
+      throws Exception {
+    List<String> words = core.getQueryTree().getSolutionWords();
+    File legacy = File.createTempFile("jotto", ".jot");
+    File flat = File.createTempFile("jotto", ".jtf");
+    try {
+      core.saveQueryTree(legacy);
+      core.saveFlatQueryTree(flat);
+      for (JottoCore read : new JottoCore[] {
+          JottoCore.useQueryTreeFromFile(legacy),
+          JottoCore.useQueryTreeFromFile(flat),
+          JottoCore.useFlatQueryTreeFromFile(flat) }) {
+        check(read.isHardMode() == hard, "mode not restored");
+        check(read.getQueryTree().isHardMode() == hard, "tree mode");
+        check(read.getQueryTree().getSolutionWords().equals(words),
+            "tree changed by saving");
+      }
+    } finally {
+      legacy.delete();
+      flat.delete();
+    }
+  }
+
+
+  private static void check(boolean condition, String message) {
+    if (!condition) {
+      System.err.println("HardModeTest failed: " + message);
+      System.exit(1);
+    }
+  }
+}
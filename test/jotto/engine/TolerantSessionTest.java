@@ -0,0 +1,174 @@
+package jotto.engine;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Checks the candidates of tolerant games against a brute-force count of the
+ * responses each word disagrees with, for k = 0, 1 and 2, with up to k
+ * responses mis-reported. Also checks the range of k and that an engine
+ * without words is rejected. Games are played on every fourth word of the
+ * bundled list.
+ * <p>
+ * Usage: TolerantSessionTest; exits with status 1 if a check fails.
+ *
+ * @author Zhe Lu
+ *
+ */
+public class TolerantSessionTest {
+
+  private static final File WORDS = new File("src/jotto/resources/words.txt");
+  private static final int GAMES = 10;
+
+
+  /**
+   * @param args
+   *          unused
+   * @throws Exception
+   *           if the word list cannot be read or written
+   */
+  public static void main(String[] args) throws Exception {
+    List<String> words = new ArrayList<String>();
+    List<String> all = JottoCore.readWords(WORDS);
+    for (int i = 0; i < all.size(); i += 4) {
+      words.add(all.get(i));
+    }
+    File file = File.createTempFile("jotto", ".txt");
+    JottoCore core;
+    try {
+      PrintWriter out = new PrintWriter(file, "US-ASCII");
+      for (String w : words) {
+        out.println(w);
+      }
+      out.close();
+      core = new JottoCore(file);
+    } finally {
+      file.delete();
+    }
+    Random random = new Random(0);
+    for (int k = 0; k <= 2; k++) {
+      for (int g = 0; g < GAMES; g++) {
+        play(core, k, words.get(random.nextInt(words.size())), random);
+      }
+    }
+    testLimits(core);
+    System.out.println("TolerantSessionTest: OK");
+  }
+
+
+  /*
+   * Play a secret, mis-reporting at most k responses, and compare the
+   * candidates after every response with the brute-force count.
+   */
+  private static void play(JottoCore core, int k, String secret,
+      Random random) {
+    TolerantSession session = core.tolerantSession(k);
+    List<String> guesses = new ArrayList<String>();
+    List<Integer> reported = new ArrayList<Integer>();
+    int lies = 0;
+    String guess;
+    while ((guess = session.getGuess()) != null) {
+      check(guesses.size() < 40, "game of " + secret + " does not end");
+      int match = JottoCore.matchingLetters(guess, secret);
+      if (lies < k && random.nextInt(3) == 0) {
+        match = (match + 1 + random.nextInt(5)) % 6;
+        lies++;
+      }
+      session.numMatches(match);
+      guesses.add(guess);
+      reported.add(match);
+      final Map<String, Integer> errors = bruteForce(core.getAllWords(),
+          guesses, reported, k);
+      List<String> expected = new ArrayList<String>(errors.keySet());
+      Collections.sort(expected, new Comparator<String>() {
+        @Override
+        public int compare(String a, String b) {
+          return errors.get(a) - errors.get(b);
+        }
+      });
+      check(session.getCandidates().equals(expected), "k = " + k + ", "
+          + secret + " after " + guesses + " " + reported);
+      for (Map.Entry<String, Integer> e : errors.entrySet()) {
+        check(session.getErrors(e.getKey()) == e.getValue(), "errors of "
+            + e.getKey());
+      }
+    }
+    check(session.getCandidates().contains(secret), "k = " + k + ", lost "
+        + secret + " after " + guesses + " " + reported);
+  }
+
+
+  /*
+   * Words with at most k responses they disagree with, and how many, in
+   * dictionary order.
+   */
+  private static Map<String, Integer> bruteForce(
+      Map<String, List<String>> allWords, List<String> guesses,
+      List<Integer> reported, int k) {
+    Map<String, Integer> errors = new LinkedHashMap<String, Integer>();
+    for (List<String> anagrams : allWords.values()) {
+      for (String w : anagrams) {
+        int e = 0;
+        for (int i = 0; i < guesses.size(); i++) {
+          if (JottoCore.matchingLetters(guesses.get(i), w) != reported
+              .get(i)) {
+            e++;
+          }
+        }
+        if (e <= k) {
+          errors.put(w, e);
+        }
+      }
+    }
+    return errors;
+  }
+
+
+  /*
+   * k must be between 0 and 8, and the engine must have words.
+   */
+  private static void testLimits(JottoCore core) {
+    for (int k : new int[] { -1, 9 }) {
+      try {
+        core.tolerantSession(k);
+        check(false, "k = " + k + " accepted");
+      } catch (IllegalArgumentException e) {
+        // expected
+      }
+    }
+    TolerantSession session = core.tolerantSession(8);
+    check(session.getTolerance() == 8, "k = 8 rejected");
+    // a word survives eight mis-reported responses but not nine
+    String secret = session.getCandidates().get(0);
+    for (int i = 0; i < 9; i++) {
+      String guess = session.getGuess();
+      check(guess != null, "game over after " + i + " responses");
+      session.numMatches((JottoCore.matchingLetters(guess, secret) + 1) % 6);
+      check(session.getErrors(secret) == (i < 8 ? i + 1 : -1), secret
+          + " has " + session.getErrors(secret) + " errors after "
+          + (i + 1) + " mis-reported responses");
+    }
+
+    try {
+      new TolerantSession(new JottoCore(new QueryTree(null)), 1);
+      check(false, "engine without words accepted");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+
+  private static void check(boolean condition, String message) {
+    if (!condition) {
+      System.err.println("TolerantSessionTest failed: " + message);
+      System.exit(1);
+    }
+  }
+}
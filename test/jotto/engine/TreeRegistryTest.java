@@ -0,0 +1,195 @@
+package jotto.engine;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks that concurrent first requests for one dictionary share a single
+ * load, and that trees are evicted least recently used first once their
+ * estimated size exceeds the budget, keeping the tree just loaded even when it
+ * alone is over budget. Dictionaries are slices of the bundled word list.
+ * <p>
+ * Usage: TreeRegistryTest; exits with status 1 if a check fails.
+ *
+ * @author Zhe Lu
+ *
+ */
+public class TreeRegistryTest {
+
+  private static final File WORDS = new File("src/jotto/resources/words.txt");
+  private static final int THREADS = 8;
+
+
+  /**
+   * @param args
+   *          unused
+   * @throws Exception
+   *           if a word list cannot be read or written
+   */
+  public static void main(String[] args) throws Exception {
+    List<String> all = JottoCore.readWords(WORDS);
+    File a = write(all.subList(0, 200));
+    File b = write(all.subList(200, 500));
+    File c = write(all.subList(500, 900));
+    try {
+      testSharedLoad(a);
+      testEviction(a, b, c);
+    } finally {
+      a.delete();
+      b.delete();
+      c.delete();
+    }
+    System.out.println("TreeRegistryTest: OK");
+  }
+
+
+  /*
+   * Threads asking for the same dictionary while it builds all get its one
+   * tree.
+   */
+  private static void testSharedLoad(File file) throws Exception {
+    final TreeRegistry registry = new TreeRegistry(Long.MAX_VALUE);
+    registry.registerWordList("a", file, new SlowStrategy());
+    final CyclicBarrier start = new CyclicBarrier(THREADS);
+    ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+    List<Future<JottoCore>> games = new ArrayList<Future<JottoCore>>();
+    for (int i = 0; i < THREADS; i++) {
+      games.add(pool.submit(new Callable<JottoCore>() {
+        @Override
+        public JottoCore call() throws Exception {
+          start.await();
+          return registry.newGame("a");
+        }
+      }));
+    }
+    pool.shutdown();
+    check(pool.awaitTermination(1, TimeUnit.MINUTES), "games not started");
+    Node root = games.get(0).get().getQueryTree().getRoot();
+    for (Future<JottoCore> game : games) {
+      check(game.get().getQueryTree().getRoot() == root, "games on "
+          + "different trees");
+    }
+    check(registry.getLoads() == 1, registry.getLoads() + " loads");
+    check(registry.getEvictions() == 0, "evicted without a budget");
+  }
+
+
+  /*
+   * With room for any two of three dictionaries, loading the third evicts the
+   * one used longest ago.
+   */
+  private static void testEviction(File a, File b, File c) throws Exception {
+    long sizeA = size(a);
+    long sizeB = size(b);
+    long sizeC = size(c);
+    TreeRegistry registry = new TreeRegistry(sizeA + sizeB + sizeC - 1);
+    registry.registerWordList("a", a, new ExhaustiveStrategy());
+    registry.registerWordList("b", b, new ExhaustiveStrategy());
+    registry.registerWordList("c", c, new ExhaustiveStrategy());
+
+    registry.newGame("a");
+    registry.newGame("b");
+    check(registry.getResidentBytes() == sizeA + sizeB, "a and b size "
+        + registry.getResidentBytes());
+    JottoCore game = registry.newGame("a");
+    registry.newGame("c");
+    checkResident(registry, true, false, true);
+    check(registry.getResidentBytes() == sizeA + sizeC, "a and c size "
+        + registry.getResidentBytes());
+    check(game.getQueryTree().getRoot() != null, "evicted game lost its tree");
+
+    registry.newGame("b");
+    checkResident(registry, false, true, true);
+    check(registry.getResidentBytes() == sizeB + sizeC, "b and c size "
+        + registry.getResidentBytes());
+    check(registry.getLoads() == 4, registry.getLoads() + " loads");
+    check(registry.getEvictions() == 2, registry.getEvictions()
+        + " evictions");
+
+    registry = new TreeRegistry(1);
+    registry.registerWordList("a", a, new ExhaustiveStrategy());
+    registry.registerWordList("b", b, new ExhaustiveStrategy());
+    registry.newGame("a");
+    check(registry.isResident("a"), "tree over budget not kept");
+    registry.newGame("b");
+    check(!registry.isResident("a") && registry.isResident("b"),
+        "tree over budget not replaced");
+  }
+
+
+  private static void checkResident(TreeRegistry registry, boolean a,
+      boolean b, boolean c) {
+    check(registry.isResident("a") == a && registry.isResident("b") == b
+        && registry.isResident("c") == c, "resident a " + registry
+        .isResident("a") + ", b " + registry.isResident("b") + ", c "
+        + registry.isResident("c"));
+  }
+
+
+  /*
+   * Estimated size of a dictionary, as the registry counts it.
+   */
+  private static long size(File file) throws Exception {
+    TreeRegistry registry = new TreeRegistry(Long.MAX_VALUE);
+    registry.registerWordList("x", file, new ExhaustiveStrategy());
+    JottoCore core = registry.newGame("x");
+    long bytes = registry.getResidentBytes();
+    check(bytes == TreeRegistry.estimateBytes(core.getQueryTree().getRoot())
+        + TreeRegistry.estimateBytes(core.getAllWords()), "estimate of "
+        + file);
+    return bytes;
+  }
+
+
+  private static File write(List<String> words) throws Exception {
+    File file = File.createTempFile("jotto", ".txt");
+    PrintWriter out = new PrintWriter(file, "US-ASCII");
+    for (String w : words) {
+      out.println(w);
+    }
+    out.close();
+    return file;
+  }
+
+
+  /*
+   * Exhaustive strategy that pauses before its first guess, so that every
+   * thread asks for the tree while it is being built.
+   */
+  private static class SlowStrategy extends ExhaustiveStrategy {
+    private boolean paused_ = false;
+
+
+    @Override
+    public synchronized String findBestWord(Set<String> possibilities,
+        Map<String, List<String>> allWords) {
+      if (!paused_) {
+        paused_ = true;
+        try {
+          Thread.sleep(200);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      return super.findBestWord(possibilities, allWords);
+    }
+  }
+
+
+  private static void check(boolean condition, String message) {
+    if (!condition) {
+      System.err.println("TreeRegistryTest failed: " + message);
+      System.exit(1);
+    }
+  }
+}